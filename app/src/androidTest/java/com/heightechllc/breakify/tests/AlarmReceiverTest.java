@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify.tests;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.test.InstrumentationTestCase;
+import android.test.UiThreadTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.heightechllc.breakify.AlarmManagerScheduler;
+import com.heightechllc.breakify.AlarmReceiver;
+import com.heightechllc.breakify.MainActivity;
+import com.heightechllc.breakify.R;
+import com.heightechllc.breakify.TimerAlarms;
+import com.heightechllc.breakify.TimerState;
+import com.heightechllc.breakify.engine.TimerStateStore;
+import com.heightechllc.breakify.engine.TimerStore;
+import com.heightechllc.breakify.preferences.TimerDurationsSettingsFragment;
+
+/**
+ * Tests AlarmReceiver with auto-advance turned on
+ */
+@SmallTest
+public class AlarmReceiverTest extends InstrumentationTestCase {
+    private Context mContext;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mContext = getInstrumentation().getTargetContext();
+        PreferenceManager.setDefaultValues(mContext, R.xml.timer_durations_preferences, true);
+        setAutoAdvance(true);
+
+        // Start without a deadline left over from other tests or earlier runs
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                TimerAlarms.get(mContext).remove(TimerAlarms.MAIN_TIMER);
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        setAutoAdvance(false);
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                // Cancels the alarm and hides the notification
+                new AlarmManagerScheduler(mContext).cancel();
+            }
+        });
+
+        TimerStateStore store = TimerState.open(mContext);
+        store.setTotalTime(0);
+        store.setRingTime(0);
+        store.commit(TimerStore.TRANSITION_RESET);
+
+        super.tearDown();
+    }
+
+    @UiThreadTest
+    public void test_startsNextInterval() {
+        // Save a work interval that just ended
+        TimerStateStore store = TimerState.open(mContext);
+        store.setWorkState(MainActivity.WORK_STATE_WORKING);
+        store.setTotalTime(60000);
+        store.setRingTime(System.currentTimeMillis());
+        store.commit(TimerStore.TRANSITION_START);
+        // Make its deadline due, so the alarm goes through TimerAlarms.onAlarm() like a real one
+        TimerAlarms.get(mContext).set(TimerAlarms.MAIN_TIMER, SystemClock.elapsedRealtime() - 1);
+
+        new AlarmReceiver().onReceive(mContext, new Intent(mContext, AlarmReceiver.class));
+
+        // The break was started and its alarm was armed, without opening any Activity
+        assertEquals(MainActivity.WORK_STATE_BREAKING, store.getWorkState());
+        assertTrue(store.getRingTime() > System.currentTimeMillis());
+        // The due deadline was replaced by the break's
+        assertTrue(TimerAlarms.get(mContext).getDeadline(TimerAlarms.MAIN_TIMER) >
+                SystemClock.elapsedRealtime());
+    }
+
+    //
+    // Helpers
+    //
+
+    private void setAutoAdvance(boolean enabled) {
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putBoolean(TimerDurationsSettingsFragment.KEY_AUTO_ADVANCE, enabled)
+                .commit();
+    }
+}
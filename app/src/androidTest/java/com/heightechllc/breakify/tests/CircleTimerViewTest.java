@@ -0,0 +1,144 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify.tests;
+
+import android.test.ActivityInstrumentationTestCase2;
+import android.test.suitebuilder.annotation.MediumTest;
+import android.widget.TextView;
+
+import com.heightechllc.breakify.AlarmManagerScheduler;
+import com.heightechllc.breakify.AlarmNotifications;
+import com.heightechllc.breakify.CircleTimerView;
+import com.heightechllc.breakify.MainActivity;
+import com.heightechllc.breakify.R;
+
+/**
+ * Tests that CircleTimerView stops drawing while it can't be seen
+ */
+@MediumTest
+public class CircleTimerViewTest extends ActivityInstrumentationTestCase2<MainActivity> {
+    private MainActivity mMainActivity;
+    private CircleTimerView mCircleTimer;
+
+    public CircleTimerViewTest() {
+        super(MainActivity.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mMainActivity = getActivity();
+        mCircleTimer = (CircleTimerView) mMainActivity.findViewById(R.id.circle_timer);
+
+        // Start the timer
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mCircleTimer.performClick();
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        // Remove the timer's deadline from TimerAlarms (and its saved file), and cancel the alarm,
+        //  so the timer doesn't carry over into other tests
+        new AlarmManagerScheduler(mMainActivity).cancel();
+        // Hide the notification
+        AlarmNotifications.hideNotification(mMainActivity);
+
+        super.tearDown();
+    }
+
+    public void test_drawsFramesWhileRunning() {
+        int framesBefore = mCircleTimer.getFrameCount();
+        sleep(2500);
+        // The time label changes every second, so there should be at least a couple of frames
+        assertTrue(mCircleTimer.getFrameCount() > framesBefore);
+    }
+
+    public void test_noFramesWhileActivityIsStopped() {
+        stopActivity();
+        // Let any frame that was already in progress finish
+        sleep(100);
+
+        int framesBefore = mCircleTimer.getFrameCount();
+        sleep(2500);
+        assertEquals(framesBefore, mCircleTimer.getFrameCount());
+        assertFalse(mCircleTimer.isDisplayed());
+
+        // Start the Activity again. The view should pick up where it left off.
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                getInstrumentation().callActivityOnRestart(mMainActivity);
+                getInstrumentation().callActivityOnStart(mMainActivity);
+                getInstrumentation().callActivityOnResume(mMainActivity);
+            }
+        });
+        sleep(2500);
+        assertTrue(mCircleTimer.getFrameCount() > framesBefore);
+    }
+
+    public void test_noTimeLblUpdatesWhileActivityIsStopped() {
+        TextView timeLbl = (TextView) mMainActivity.findViewById(R.id.time_lbl);
+        stopActivity();
+        // Let any tick that was already posted run
+        sleep(100);
+
+        String timeBefore = timeLbl.getText().toString();
+        sleep(2500);
+        assertEquals(timeBefore, timeLbl.getText().toString());
+
+        // Start the Activity again. The label should catch up right away.
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                getInstrumentation().callActivityOnRestart(mMainActivity);
+                getInstrumentation().callActivityOnStart(mMainActivity);
+                getInstrumentation().callActivityOnResume(mMainActivity);
+            }
+        });
+        sleep(100);
+        assertFalse(timeBefore.equals(timeLbl.getText().toString()));
+    }
+
+    //
+    // Helpers
+    //
+
+    private void stopActivity() {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                getInstrumentation().callActivityOnPause(mMainActivity);
+                getInstrumentation().callActivityOnStop(mMainActivity);
+            }
+        });
+    }
+
+    private void sleep(long millis) {
+        // Don't use `waitForIdleSync()`, see MainActivityTest.clickView()
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify.tests;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+
+import com.heightechllc.breakify.CircleTimerRenderer;
+
+/**
+ * Tests that the dirty rects calculated by CircleTimerRenderer cover every pixel that changes
+ *  between two frames
+ */
+@MediumTest
+public class DirtyRectTest extends AndroidTestCase {
+    private static final int SIZE = 400;
+    private static final long TOTAL_TIME = 10000;
+    private static final long[] MARKERS = {3000, 5000};
+
+    private CircleTimerRenderer mRenderer;
+    private Bitmap mBefore;
+    private Bitmap mAfter;
+    private final Rect mDirtyRect = new Rect();
+    private final int[] mBeforePixels = new int[SIZE * SIZE];
+    private final int[] mAfterPixels = new int[SIZE * SIZE];
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mRenderer = new CircleTimerRenderer(getContext().getResources());
+        mRenderer.setSize(SIZE, SIZE);
+        mRenderer.setMarkerTimes(MARKERS, TOTAL_TIME);
+        mBefore = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        mAfter = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+    }
+
+    public void test_coversArcMovement() {
+        for (int mode : new int[] {CircleTimerRenderer.RING_MODE_ARCS,
+                CircleTimerRenderer.RING_MODE_SWEEP_GRADIENT}) {
+            mRenderer.setRingMode(mode);
+
+            // Single pixel steps all around the circle, including across the marker
+            float step = 1 / (float) (2 * Math.PI * mRenderer.getRadius());
+            for (float percent = 0; percent + step <= 1; percent += 0.01f) {
+                assertCovered(percent, percent + step);
+            }
+
+            // Bigger jumps, crossing the quarters of the circle, e.g. after a dropped frame
+            assertCovered(0, 0.3f);
+            assertCovered(0.2f, 0.55f);
+            assertCovered(0.1f, 0.9f);
+            assertCovered(0.6f, 1);
+            assertCovered(0, 1);
+        }
+    }
+
+    public void test_coversPressedChange() {
+        render(mBefore, false, 0.4f);
+        render(mAfter, true, 0.4f);
+        mRenderer.getDialBounds(mDirtyRect);
+        assertChangesInside(mDirtyRect);
+    }
+
+    //
+    // Helpers
+    //
+
+    private void assertCovered(float fromPercent, float toPercent) {
+        render(mBefore, false, fromPercent);
+        render(mAfter, false, toPercent);
+        mRenderer.getDirtyRect(fromPercent, toPercent, mDirtyRect);
+        assertChangesInside(mDirtyRect);
+    }
+
+    private void render(Bitmap bitmap, boolean pressed, float redPercent) {
+        bitmap.eraseColor(0);
+        mRenderer.draw(new Canvas(bitmap), pressed, redPercent);
+    }
+
+    /**
+     * Checks that every pixel that differs between `mBefore` and `mAfter` is inside `dirtyRect`
+     */
+    private void assertChangesInside(Rect dirtyRect) {
+        mBefore.getPixels(mBeforePixels, 0, SIZE, 0, 0, SIZE, SIZE);
+        mAfter.getPixels(mAfterPixels, 0, SIZE, 0, 0, SIZE, SIZE);
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                int i = y * SIZE + x;
+                if (mBeforePixels[i] != mAfterPixels[i] && !dirtyRect.contains(x, y))
+                    fail("Changed pixel (" + x + ", " + y + ") is outside the dirty rect " +
+                            dirtyRect.toShortString());
+            }
+        }
+    }
+}
@@ -17,10 +17,7 @@
 
 package com.heightechllc.breakify.tests;
 
-import android.app.AlarmManager;
-import android.app.PendingIntent;
 import android.content.Context;
-import android.content.Intent;
 import android.content.SharedPreferences;
 import android.os.SystemClock;
 import android.preference.PreferenceManager;
@@ -32,11 +29,14 @@ import android.widget.Button;
 import android.widget.ImageButton;
 import android.widget.TextView;
 
+import com.heightechllc.breakify.AlarmManagerScheduler;
 import com.heightechllc.breakify.AlarmNotifications;
-import com.heightechllc.breakify.AlarmReceiver;
 import com.heightechllc.breakify.CircleTimerView;
 import com.heightechllc.breakify.MainActivity;
 import com.heightechllc.breakify.R;
+import com.heightechllc.breakify.TimerState;
+import com.heightechllc.breakify.engine.TimerStateStore;
+import com.heightechllc.breakify.engine.TimerStore;
 
 /**
  * Tests MainActivity
@@ -63,6 +63,13 @@ public class MainActivityTest extends ActivityInstrumentationTestCase2<MainActiv
                 R.xml.scheduled_start_preferences, true);
         PreferenceManager.setDefaultValues(getInstrumentation().getTargetContext(),
                 R.xml.misc_preferences, true);
+        // Clear the saved timer state
+        TimerStateStore store = getTimerState();
+        store.setWorkState(MainActivity.WORK_STATE_WORKING);
+        store.setTotalTime(0);
+        store.setRingTime(0);
+        store.setPausedTimeRemaining(0);
+        store.commit(TimerStore.TRANSITION_RESET);
 
         mMainActivity = getActivity();
         mCircleTimer = (CircleTimerView) mMainActivity.findViewById(R.id.circle_timer);
@@ -70,13 +77,9 @@ public class MainActivityTest extends ActivityInstrumentationTestCase2<MainActiv
 
     @Override
     protected void tearDown() throws Exception {
-        // Cancel the AlarmManager
-        Intent alarmIntent = new Intent(mMainActivity, AlarmReceiver.class);
-        PendingIntent pendingIntent = PendingIntent.getBroadcast(mMainActivity,
-                MainActivity.ALARM_MANAGER_REQUEST_CODE,
-                alarmIntent, PendingIntent.FLAG_UPDATE_CURRENT);
-        AlarmManager alarmManager = (AlarmManager) mMainActivity.getSystemService(Context.ALARM_SERVICE);
-        alarmManager.cancel(pendingIntent);
+        // Remove the timer's deadline from TimerAlarms (and its saved file), and cancel the alarm,
+        //  so the timer doesn't carry over into other tests
+        new AlarmManagerScheduler(mMainActivity).cancel();
         // Hide the notification
         AlarmNotifications.hideNotification(mMainActivity);
 
@@ -109,14 +112,14 @@ public class MainActivityTest extends ActivityInstrumentationTestCase2<MainActiv
     }
 
     @SmallTest
-    public void test_workState_savesToPrefs() {
+    public void test_workState_savesToTimerState() {
         // Start the timer
         clickView(mCircleTimer);
         // Skip to the break
         clickView(mMainActivity.findViewById(R.id.skip_btn));
 
-        // Check shared preferences
-        int actualWorkState = getPrefs().getInt("workState", -1);
+        // Check the saved timer state
+        int actualWorkState = getTimerState().getWorkState();
         assertEquals(MainActivity.WORK_STATE_BREAKING, actualWorkState);
     }
 
@@ -125,16 +128,18 @@ public class MainActivityTest extends ActivityInstrumentationTestCase2<MainActiv
         // First destroy the Activity
         mMainActivity.finish();
 
-        // Set the work state in Preferences to "Breaking"
-        getPrefs().edit().putInt("workState", MainActivity.WORK_STATE_BREAKING).apply();
+        // Set the saved work state to "Breaking"
+        TimerStateStore store = getTimerState();
+        store.setWorkState(MainActivity.WORK_STATE_BREAKING);
+        store.commit(TimerStore.TRANSITION_SKIP);
 
         // Now recreate the Activity
         mMainActivity = getActivity();
 
         // Since we weren't restoring a timer, the state should still be the default, "Working"
 
-        // We can't check `MainActivity.getWorkState(Context)` since that just returns the value in
-        //  SharedPreferences. We need to check the work state label to see what state is displayed.
+        // We can't check `MainActivity.getWorkState(Context)` since that just returns the saved
+        //  value. We need to check the work state label to see what state is displayed.
         TextView workStateLbl = (TextView) mMainActivity.findViewById(R.id.state_lbl);
         assertEquals(mMainActivity.getString(R.string.state_working),
                 workStateLbl.getText());
@@ -153,8 +158,8 @@ public class MainActivityTest extends ActivityInstrumentationTestCase2<MainActiv
 
         // Since we are restoring a timer, the state should be "Breaking".
 
-        // We can't check `MainActivity.getWorkState(Context)` since that just returns the value in
-        //  SharedPreferences. We need to check the work state label to see what state is displayed.
+        // We can't check `MainActivity.getWorkState(Context)` since that just returns the saved
+        //  value. We need to check the work state label to see what state is displayed.
         TextView workStateLbl = (TextView) mMainActivity.findViewById(R.id.state_lbl);
         assertEquals(mMainActivity.getString(R.string.state_breaking),
                 workStateLbl.getText());
@@ -258,4 +263,11 @@ public class MainActivityTest extends ActivityInstrumentationTestCase2<MainActiv
                 getInstrumentation().getTargetContext());
     }
 
+    /**
+     * Opens the saved timer state for the target Context
+     */
+    private TimerStateStore getTimerState() {
+        return TimerState.open(getInstrumentation().getTargetContext());
+    }
+
 }
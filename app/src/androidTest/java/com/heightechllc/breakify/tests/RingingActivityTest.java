@@ -17,9 +17,9 @@
 
 package com.heightechllc.breakify.tests;
 
+import android.app.Activity;
+import android.app.Instrumentation;
 import android.content.Intent;
-import android.content.SharedPreferences;
-import android.preference.PreferenceManager;
 import android.test.ActivityInstrumentationTestCase2;
 import android.test.TouchUtils;
 import android.test.suitebuilder.annotation.SmallTest;
@@ -27,11 +27,15 @@ import android.view.KeyEvent;
 import android.widget.Button;
 import android.widget.TextView;
 
+import com.heightechllc.breakify.AlarmManagerScheduler;
 import com.heightechllc.breakify.AlarmNotifications;
 import com.heightechllc.breakify.AlarmRinger;
 import com.heightechllc.breakify.MainActivity;
 import com.heightechllc.breakify.R;
 import com.heightechllc.breakify.RingingActivity;
+import com.heightechllc.breakify.TimerState;
+import com.heightechllc.breakify.engine.TimerStateStore;
+import com.heightechllc.breakify.engine.TimerStore;
 
 /**
  * Tests RingingActivity
@@ -39,6 +43,10 @@ import com.heightechllc.breakify.RingingActivity;
 @SmallTest
 public class RingingActivityTest extends ActivityInstrumentationTestCase2<RingingActivity> {
     private RingingActivity mActivity;
+    /**
+     * Catches the MainActivity opened after a direct result, so it can be closed
+     */
+    private Instrumentation.ActivityMonitor mMainMonitor;
 
     public RingingActivityTest() {
         super(RingingActivity.class);
@@ -59,6 +67,12 @@ public class RingingActivityTest extends ActivityInstrumentationTestCase2<Ringin
     protected void tearDown() throws Exception {
         super.tearDown();
 
+        if (mMainMonitor != null) {
+            Activity mainActivity = mMainMonitor.getLastActivity();
+            if (mainActivity != null) mainActivity.finish();
+            getInstrumentation().removeMonitor(mMainMonitor);
+        }
+
         AlarmRinger.stop(getInstrumentation().getTargetContext());
         // Hide the notification
         AlarmNotifications.hideNotification(getInstrumentation().getTargetContext());
@@ -68,11 +82,11 @@ public class RingingActivityTest extends ActivityInstrumentationTestCase2<Ringin
     // Test that the correct text is displayed based on the work state
 
     public void test_displaysAppropriateText() {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(
-                getInstrumentation().getTargetContext());
+        TimerStateStore store = TimerState.open(getInstrumentation().getTargetContext());
 
-        // Set the work state in Preferences to "Working"
-        prefs.edit().putInt("workState", MainActivity.WORK_STATE_WORKING).apply();
+        // Set the saved work state to "Working"
+        store.setWorkState(MainActivity.WORK_STATE_WORKING);
+        store.commit(TimerStore.TRANSITION_RESET);
         // Restart the activity
         mActivity.finish();
         setActivity(null);
@@ -81,8 +95,9 @@ public class RingingActivityTest extends ActivityInstrumentationTestCase2<Ringin
         TextView prompt = (TextView) mActivity.findViewById(R.id.prompt_lbl);
         assertEquals(mActivity.getString(R.string.start_break_prompt), prompt.getText());
 
-        // Now set the work state in Preferences to "Breaking"
-        prefs.edit().putInt("workState", MainActivity.WORK_STATE_BREAKING).apply();
+        // Now set the saved work state to "Breaking"
+        store.setWorkState(MainActivity.WORK_STATE_BREAKING);
+        store.commit(TimerStore.TRANSITION_SKIP);
         // Restart the activity again
         mActivity.finish();
         setActivity(null);
@@ -187,21 +202,63 @@ public class RingingActivityTest extends ActivityInstrumentationTestCase2<Ringin
     }
 
 
-    // Test that the preferences that store when the alarm is scheduled to ring get reset
+    // Test that the saved state that stores when the alarm is scheduled to ring gets reset
 
-    public void test_alarmPrefsGetReset() {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(
-                getInstrumentation().getTargetContext());
+    public void test_alarmStateGetsReset() {
+        TimerStateStore store = TimerState.open(getInstrumentation().getTargetContext());
 
         // Put bogus data, just to test that it gets cleared
-        prefs.edit().putLong("schedTotalTime", 100).putLong("schedRingTime", 100).apply();
+        store.setTotalTime(100);
+        store.setRingTime(100);
+        store.commit(TimerStore.TRANSITION_START);
 
         // Press the device back button to close the activity
         sendKeys(KeyEvent.KEYCODE_BACK);
 
-        // Check that the prefs were cleared
-        assertEquals(0, prefs.getLong("schedTotalTime", 0));
-        assertEquals(0, prefs.getLong("schedRingTime", 0));
+        // Check that the state was cleared
+        store = TimerState.open(getInstrumentation().getTargetContext());
+        assertEquals(0, store.getTotalTime());
+        assertEquals(0, store.getRingTime());
+    }
+
+
+    // Test that the result is applied when there's no MainActivity to return it to
+
+    public void test_directOkStartsNextInterval() {
+        TimerStateStore store = TimerState.open(getInstrumentation().getTargetContext());
+        store.setWorkState(MainActivity.WORK_STATE_WORKING);
+        store.commit(TimerStore.TRANSITION_RESET);
+
+        restartActivityDirectly();
+        TouchUtils.clickView(this, mActivity.findViewById(R.id.ok_btn));
+
+        // The break was started
+        assertEquals(MainActivity.WORK_STATE_BREAKING, store.getWorkState());
+        assertTrue(store.getRingTime() > System.currentTimeMillis());
+
+        new AlarmManagerScheduler(mActivity).cancel();
+    }
+
+    public void test_directOkShowsMainActivity() {
+        restartActivityDirectly();
+        TouchUtils.clickView(this, mActivity.findViewById(R.id.ok_btn));
+
+        // The user is brought back to the app, instead of the launcher
+        assertNotNull(mMainMonitor.waitForActivityWithTimeout(5000));
+
+        new AlarmManagerScheduler(mActivity).cancel();
+    }
+
+    public void test_directCancelResetsTimer() {
+        TimerStateStore store = TimerState.open(getInstrumentation().getTargetContext());
+        store.setWorkState(MainActivity.WORK_STATE_BREAKING);
+        store.commit(TimerStore.TRANSITION_SKIP);
+
+        restartActivityDirectly();
+        sendKeys(KeyEvent.KEYCODE_BACK);
+
+        assertEquals(MainActivity.WORK_STATE_WORKING, store.getWorkState());
+        assertEquals(0, store.getRingTime());
     }
 
 
@@ -221,4 +278,18 @@ public class RingingActivityTest extends ActivityInstrumentationTestCase2<Ringin
         setActivity(null);
         mActivity = getActivity();
     }
+
+    /**
+     * Restarts `mActivity` the way AlarmReceiver starts it, without MainActivity
+     */
+    private void restartActivityDirectly() {
+        mMainMonitor = getInstrumentation().addMonitor(MainActivity.class.getName(), null, false);
+
+        Intent intent = new Intent(getInstrumentation().getTargetContext(), RingingActivity.class);
+        intent.putExtra(RingingActivity.EXTRA_DIRECT, true);
+        setActivityIntent(intent);
+        mActivity.finish();
+        setActivity(null);
+        mActivity = getActivity();
+    }
 }
@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify.tests;
+
+import android.os.Debug;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import com.heightechllc.breakify.TimeFormatter;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests TimeFormatter
+ */
+@SmallTest
+public class TimeFormatterTest extends TestCase {
+    private static final String tag = "TimeFormatterTest";
+
+    private final char[] mBuffer = new char[TimeFormatter.BUFFER_SIZE];
+
+    public void test_formatsMinutesAndSeconds() {
+        assertEquals("00:00", format(0));
+        assertEquals("00:01", format(1));
+        assertEquals("06:13", format(6 * 60 + 13));
+        assertEquals("59:59", format(59 * 60 + 59));
+    }
+
+    public void test_formatsHours() {
+        assertEquals("1:00:00", format(3600));
+        assertEquals("1:06:13", format(3600 + 6 * 60 + 13));
+        assertEquals("5:00:00", format(5 * 3600));
+        assertEquals("123:04:05", format(123 * 3600 + 4 * 60 + 5));
+    }
+
+    public void test_matchesLegacyFormatter() {
+        // Every second of the longest possible interval (300 minutes), plus a bit
+        for (long seconds = 0; seconds <= 301 * 60; seconds++) {
+            assertEquals(legacyFormatTime(seconds), format(seconds));
+        }
+    }
+
+    public void test_doesNotAllocatePerTick() {
+        // Warm up, in case anything needs to be loaded the first time
+        TimeFormatter.format(1, mBuffer);
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        try {
+            // One tick per second for a 5 hour interval
+            for (long seconds = 5 * 3600; seconds >= 0; seconds--) {
+                TimeFormatter.format(seconds, mBuffer);
+            }
+            assertEquals(0, Debug.getThreadAllocCount());
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    public void test_benchmarkAgainstLegacyFormatter() {
+        final int iterations = 100000;
+
+        // Warm up both
+        for (int i = 0; i < 1000; i++) {
+            TimeFormatter.format(i, mBuffer);
+            legacyFormatTime(i);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            TimeFormatter.format(i, mBuffer);
+        }
+        long newNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            legacyFormatTime(i);
+        }
+        long legacyNanos = System.nanoTime() - start;
+
+        Log.i(tag, "TimeFormatter.format: " + (newNanos / iterations) + " ns/op, " +
+                "legacy formatTime: " + (legacyNanos / iterations) + " ns/op");
+    }
+
+    //
+    // Helpers
+    //
+
+    private String format(long seconds) {
+        int length = TimeFormatter.format(seconds, mBuffer);
+        return new String(mBuffer, 0, length);
+    }
+
+    /**
+     * The implementation CircleTimerView used before TimeFormatter, for comparison
+     */
+    private static String legacyFormatTime(long seconds) {
+        String timeStr = "";
+
+        long hours = TimeUnit.SECONDS.toHours(seconds);
+        if (hours > 0)
+        {
+            timeStr = hours + ":";
+            seconds -= TimeUnit.HOURS.toSeconds(hours);
+        }
+
+        timeStr += String.format("%02d:%02d",
+                TimeUnit.SECONDS.toMinutes(seconds),
+                TimeUnit.SECONDS.toSeconds(seconds) -
+                        TimeUnit.MINUTES.toSeconds(TimeUnit.SECONDS.toMinutes(seconds))
+        );
+
+        return timeStr;
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify.tests;
+
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+
+import com.heightechllc.breakify.TimeLblScheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests that TimeLblScheduler ticks right after each second boundary of the interval
+ */
+@MediumTest
+public class TimeLblSchedulerTest extends InstrumentationTestCase {
+    /**
+     * How late a tick may be, to allow for a busy UI thread
+     */
+    private static final long TOLERANCE = 50;
+
+    private final List<Long> mTicks = new ArrayList<Long>();
+    private TimeLblScheduler mScheduler;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mScheduler = new TimeLblScheduler(new TimeLblScheduler.Callback() {
+            @Override
+            public void onTimeLblTick(long remainingMillis) {
+                synchronized (mTicks) {
+                    mTicks.add(remainingMillis);
+                }
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mScheduler.stop();
+            }
+        });
+        super.tearDown();
+    }
+
+    public void test_ticksOnSecondBoundaries() {
+        // Start in the middle of a second, like after resuming a paused timer
+        start(SystemClock.elapsedRealtime() - 400, 3000);
+        sleep(3500);
+
+        synchronized (mTicks) {
+            // The first tick is right away, then one for each of the seconds 1, 0 and the end
+            assertEquals(4, mTicks.size());
+            for (int i = 1; i < mTicks.size(); i++) {
+                long remaining = mTicks.get(i);
+                // Never early, i.e. always after the displayed second changed...
+                assertTrue(remaining / 1000 < mTicks.get(i - 1) / 1000 || remaining <= 0);
+                // ...and never more than a little late
+                long boundary = (3 - i) * 1000 - 1;
+                assertTrue("Tick " + i + " was " + (boundary - remaining) + "ms late",
+                        boundary - remaining <= TOLERANCE);
+            }
+        }
+        assertFalse(mScheduler.isRunning());
+    }
+
+    public void test_stopsTicking() {
+        start(SystemClock.elapsedRealtime(), 10000);
+        sleep(100);
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mScheduler.stop();
+            }
+        });
+
+        int ticks;
+        synchronized (mTicks) {
+            ticks = mTicks.size();
+        }
+        sleep(2500);
+        synchronized (mTicks) {
+            assertEquals(ticks, mTicks.size());
+        }
+    }
+
+    //
+    // Helpers
+    //
+
+    private void start(final long baseTime, final long totalTime) {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mScheduler.start(baseTime, totalTime);
+            }
+        });
+    }
+
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+}
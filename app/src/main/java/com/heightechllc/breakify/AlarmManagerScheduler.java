@@ -0,0 +1,66 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import com.heightechllc.breakify.engine.AlarmScheduler;
+import com.heightechllc.breakify.engine.Clock;
+
+/**
+ * Schedules the timer's alarm as the main timer of {@link TimerAlarms}, which shares the
+ *  AlarmManager alarm received by AlarmReceiver with the other named timers, along with the
+ *  {@link PreWake}, and shows the persistent notification while it's scheduled
+ */
+public class AlarmManagerScheduler implements AlarmScheduler {
+    /**
+     * The real clocks, from SystemClock and System
+     */
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long elapsedRealtime() {
+            return SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    private final Context context;
+
+    public AlarmManagerScheduler(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    public void schedule(long ringTime, int workState) {
+        TimerAlarms.get(context).set(TimerAlarms.MAIN_TIMER, ringTime);
+        PreWake.schedule(context, ringTime);
+        // Show the persistent notification
+        AlarmNotifications.showUpcomingNotification(context, ringTime, workState);
+    }
+
+    public void cancel() {
+        TimerAlarms.get(context).remove(TimerAlarms.MAIN_TIMER);
+        PreWake.cancel(context);
+        // Hide the persistent notification
+        AlarmNotifications.hideNotification(context);
+    }
+}
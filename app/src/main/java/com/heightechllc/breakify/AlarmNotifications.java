@@ -32,6 +32,10 @@ import java.util.Date;
  */
 public class AlarmNotifications {
     private static final int notificationID = 0;
+    /**
+     * The id of the notifications for named timers, which are told apart by their tag
+     */
+    private static final int namedTimerNotificationID = 1;
 
     /**
      * Hides any currently visible notification that was shown by this app. You don't need to call
@@ -51,38 +55,39 @@ public class AlarmNotifications {
      * @param workState The work state of the timer
      */
     public static void showUpcomingNotification(Context context, long ringTime, int workState) {
-        // Create the notification
-        NotificationCompat.Builder builder = new NotificationCompat.Builder(context);
-        builder.setSmallIcon(R.drawable.ic_notification)
-               .setOngoing(true)
-               .setPriority(NotificationCompat.PRIORITY_LOW);
-
         // Get the appropriate title based on the current work state
         int titleId = workState == MainActivity.WORK_STATE_WORKING ?
                 R.string.notif_upcoming_title_working :
                 R.string.notif_upcoming_title_breaking;
 
-        builder.setContentTitle(context.getString(titleId));
-
-        // Get formatted time for when the alarm will ring. We need to convert `ringTime`, which
-        //  is based on `SystemClock.elapsedRealtime()`, to a regular Unix / epoch time
-        long timeFromNow = ringTime - SystemClock.elapsedRealtime();
-        long ringUnixTime = System.currentTimeMillis() + timeFromNow;
-        // Construct the text, e.g., "Until 11:30"
-        String contentText = context.getString(R.string.notif_upcoming_content_text) + " ";
-        contentText += DateFormat.getTimeFormat(context).format(new Date(ringUnixTime));
+        NotificationCompat.Builder builder = createUpcomingBuilder(context, ringTime, titleId);
+        builder.setPriority(NotificationCompat.PRIORITY_LOW);
 
-        builder.setContentText(contentText);
+        // Show the notification
+        NotificationManager notificationManager = (NotificationManager)
+                context.getSystemService(Context.NOTIFICATION_SERVICE);
+        notificationManager.notify(notificationID, builder.build());
+    }
 
-        // Set up the action for the when the notification is clicked - to open MainActivity
-        Intent mainIntent = new Intent(context, MainActivity.class);
-        mainIntent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TASK | Intent.FLAG_ACTIVITY_NEW_TASK);
-        PendingIntent pi = PendingIntent.getActivity(context, 0, mainIntent,
-                                            PendingIntent.FLAG_UPDATE_CURRENT);
+    /**
+     * Shows the ongoing notification for the next interval, after it was started automatically
+     *  when the previous one ended. Unlike {@link #showUpcomingNotification(Context, long, int)},
+     *  it plays the default notification sound and vibrates, so the user knows the interval
+     *  changed.
+     * @param context The context to create the notification from
+     * @param ringTime The time that the next alarm will ring, based on
+     *                 `SystemClock.elapsedRealtime()`
+     * @param workState The work state of the interval that was started
+     */
+    public static void showAdvancedNotification(Context context, long ringTime, int workState) {
+        int titleId = workState == MainActivity.WORK_STATE_WORKING ?
+                R.string.notif_advanced_title_working :
+                R.string.notif_advanced_title_breaking;
 
-        builder.setContentIntent(pi);
+        NotificationCompat.Builder builder = createUpcomingBuilder(context, ringTime, titleId);
+        builder.setPriority(NotificationCompat.PRIORITY_HIGH)
+               .setDefaults(NotificationCompat.DEFAULT_ALL);
 
-        // Show the notification
         NotificationManager notificationManager = (NotificationManager)
                 context.getSystemService(Context.NOTIFICATION_SERVICE);
         notificationManager.notify(notificationID, builder.build());
@@ -132,4 +137,59 @@ public class AlarmNotifications {
                 context.getSystemService(Context.NOTIFICATION_SERVICE);
         notificationManager.notify(notificationID, builder.build());
     }
+
+    /**
+     * Shows a notification to let the user know that a named timer (not the work / break timer)
+     *  is done. Each named timer has its own notification.
+     * @param context The context to create the notification from
+     * @param name The name of the timer
+     */
+    public static void showNamedTimerNotification(Context context, String name) {
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(context);
+        builder.setSmallIcon(R.drawable.ic_notification)
+               .setPriority(NotificationCompat.PRIORITY_HIGH)
+               .setContentTitle(context.getString(R.string.notif_ring_title))
+               .setContentText(context.getString(R.string.notif_named_timer_content_text, name))
+               .setDefaults(NotificationCompat.DEFAULT_ALL)
+               .setAutoCancel(true);
+
+        NotificationManager notificationManager = (NotificationManager)
+                context.getSystemService(Context.NOTIFICATION_SERVICE);
+        notificationManager.notify(name, namedTimerNotificationID, builder.build());
+    }
+
+    //
+    // Helpers
+    //
+
+    /**
+     * Creates the builder for an ongoing notification that shows when the alarm will ring, and
+     *  opens MainActivity when it's clicked
+     */
+    private static NotificationCompat.Builder createUpcomingBuilder(Context context,
+                                                                    long ringTime, int titleId) {
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(context);
+        builder.setSmallIcon(R.drawable.ic_notification)
+               .setOngoing(true)
+               .setContentTitle(context.getString(titleId));
+
+        // Get formatted time for when the alarm will ring. We need to convert `ringTime`, which
+        //  is based on `SystemClock.elapsedRealtime()`, to a regular Unix / epoch time
+        long timeFromNow = ringTime - SystemClock.elapsedRealtime();
+        long ringUnixTime = System.currentTimeMillis() + timeFromNow;
+        // Construct the text, e.g., "Until 11:30"
+        String contentText = context.getString(R.string.notif_upcoming_content_text) + " ";
+        contentText += DateFormat.getTimeFormat(context).format(new Date(ringUnixTime));
+
+        builder.setContentText(contentText);
+
+        // Set up the action for the when the notification is clicked - to open MainActivity
+        Intent mainIntent = new Intent(context, MainActivity.class);
+        mainIntent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TASK | Intent.FLAG_ACTIVITY_NEW_TASK);
+        PendingIntent pi = PendingIntent.getActivity(context, 0, mainIntent,
+                                            PendingIntent.FLAG_UPDATE_CURRENT);
+
+        builder.setContentIntent(pi);
+        return builder;
+    }
 }
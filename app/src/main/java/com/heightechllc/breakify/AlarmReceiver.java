@@ -20,19 +20,129 @@ package com.heightechllc.breakify;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.support.v4.content.LocalBroadcastManager;
+import android.util.Log;
+
+import com.heightechllc.breakify.engine.TimerEngine;
+import com.heightechllc.breakify.preferences.TimerDurationsSettingsFragment;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
- * The BroadcastReceiver that is notified by the AlarmManager when the time is up
+ * The BroadcastReceiver that is notified by the AlarmManager when the time is up for one or more
+ *  of the timers in {@link TimerAlarms}
+ * When the work / break timer is done, it either opens RingingActivity to ring the alarm, or, if
+ *  auto-advance is turned on, starts the next interval itself without opening any Activity.
  */
 public class AlarmReceiver extends BroadcastReceiver {
+    private static final String tag = "AlarmReceiver";
+
+    /**
+     * Sent with the LocalBroadcastManager after the timer was changed without MainActivity, i.e.
+     *  the next interval was started automatically or by RingResultHandler, so a MainActivity
+     *  that's already open can show it
+     */
+    public static final String ACTION_TIMER_ADVANCED = "com.heightechllc.breakify.TimerAdvanced";
+    /**
+     * The `SystemClock.elapsedRealtime()` when the alarm was received, passed to RingingActivity
+     *  so it can log how long it took to start ringing
+     */
+    public static final String EXTRA_RECEIVED_TIME = "com.heightechllc.breakify.ReceivedTime";
+
     @Override
     public void onReceive(Context context, Intent intent) {
-        // Open MainActivity and add the extra to tell it to ring the alarm
-        Intent mainIntent = new Intent(context, MainActivity.class);
-        mainIntent.putExtra(MainActivity.EXTRA_ALARM_RING, true);
-        mainIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK |
-                            Intent.FLAG_ACTIVITY_CLEAR_TASK |
-                            Intent.FLAG_ACTIVITY_NO_USER_ACTION);
-        context.startActivity(mainIntent);
+        long receivedTime = SystemClock.elapsedRealtime();
+
+        // Find out which timers are due. This also arms the alarm for the next one.
+        TimerAlarms alarms = TimerAlarms.get(context);
+        long deadline = alarms.getDeadline(TimerAlarms.MAIN_TIMER);
+        List<String> due = new ArrayList<String>();
+        alarms.onAlarm(due);
+
+        boolean mainTimerDue = false;
+        for (String name : due) {
+            if (name.equals(TimerAlarms.MAIN_TIMER)) mainTimerDue = true;
+            else if (name.equals(PreWake.TIMER_NAME)) PreWake.warm(context);
+            else AlarmNotifications.showNamedTimerNotification(context, name);
+        }
+
+        // If nothing was due, the broadcast wasn't sent by the alarm (e.g. it was sent directly
+        //  to ring the work / break timer), so ring it unless it's still waiting for its alarm
+        if (due.isEmpty() && alarms.getDeadline(TimerAlarms.MAIN_TIMER) == 0)
+            mainTimerDue = true;
+        if (!mainTimerDue) return;
+
+        // The other latencies are measured from here, so together they make up the lateness
+        //  from the deadline to the alarm
+        if (deadline > 0) {
+            Log.d(tag, "Received " + (receivedTime - deadline) + "ms after the deadline, " +
+                    (PreWake.consumeWarm() ? "pre-woken" : "not pre-woken"));
+        }
+
+        if (PreferenceManager.getDefaultSharedPreferences(context)
+                .getBoolean(TimerDurationsSettingsFragment.KEY_AUTO_ADVANCE, false)) {
+            advance(context, receivedTime);
+            return;
+        }
+
+        // Start recording the stages of the ring path, unless the broadcast was sent directly
+        if (deadline > 0) RingLatency.get(context).begin(deadline, receivedTime);
+
+        // Open RingingActivity directly, without going through MainActivity, so the alarm starts
+        //  ringing as soon as possible. RingResultHandler applies the user's choice. The task
+        //  isn't cleared, so a MainActivity that's already open stays underneath it.
+        Intent ringingIntent = new Intent(context, RingingActivity.class);
+        ringingIntent.putExtra(RingingActivity.EXTRA_DIRECT, true);
+        ringingIntent.putExtra(EXTRA_RECEIVED_TIME, receivedTime);
+        ringingIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK |
+                               Intent.FLAG_ACTIVITY_NO_USER_ACTION);
+        context.startActivity(ringingIntent);
+    }
+
+    /**
+     * Creates a TimerEngine over the saved state, for changing it without MainActivity
+     */
+    static TimerEngine createEngine(Context context) {
+        return new TimerEngine(AlarmManagerScheduler.SYSTEM_CLOCK,
+                new AlarmManagerScheduler(context), TimerState.open(context),
+                new PrefsDurations(context));
+    }
+
+    /**
+     * Logs how long it took from when the alarm was received until the next step, and how much
+     *  memory the process is using, so the different paths from the alarm to the user can be
+     *  compared
+     * @param path The path that was taken, for the log
+     * @param receivedTime The `SystemClock.elapsedRealtime()` when the alarm was received
+     */
+    static void logLatency(String path, long receivedTime) {
+        long latency = SystemClock.elapsedRealtime() - receivedTime;
+        // Reading the PSS takes a few ms, so only do it in debug builds
+        if (BuildConfig.DEBUG)
+            Log.d(tag, path + ": " + latency + "ms after the alarm, PSS " + Debug.getPss() + "kB");
+        else
+            Log.d(tag, path + ": " + latency + "ms after the alarm");
+    }
+
+    /**
+     * Starts the next interval in the background, and lets the user know with a notification
+     * @param receivedTime The `SystemClock.elapsedRealtime()` when the alarm was received
+     */
+    private static void advance(Context context, long receivedTime) {
+        TimerEngine engine = createEngine(context);
+        // Switches the work state, saves it and arms the alarm for the next interval
+        engine.startNextState();
+        logLatency("Auto-advance armed", receivedTime);
+
+        // Replaces the upcoming notification shown when the alarm was armed with one that alerts
+        AlarmNotifications.showAdvancedNotification(context, engine.getRingTime(),
+                engine.getWorkState());
+
+        LocalBroadcastManager.getInstance(context)
+                .sendBroadcast(new Intent(ACTION_TIMER_ADVANCED));
     }
 }
@@ -19,22 +19,33 @@ package com.heightechllc.breakify;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.media.AudioFormat;
 import android.media.AudioManager;
+import android.media.AudioTrack;
 import android.media.MediaPlayer;
 import android.media.RingtoneManager;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Vibrator;
 import android.preference.PreferenceManager;
 import android.telephony.PhoneStateListener;
 import android.telephony.TelephonyManager;
 import android.util.Log;
 
+import com.heightechllc.breakify.engine.LatencyLog;
+import com.heightechllc.breakify.engine.ToneCacheFile;
 import com.heightechllc.breakify.preferences.AlarmSettingsFragment;
 
 import java.io.IOException;
 
 /**
  * Handles ringing and vibrating.
+ * The ringtone is loaded and played on a dedicated audio thread, so a slow ringtone never blocks
+ *  the UI thread. If it was decoded by {@link ToneCache}, the PCM is played by a looping static
+ *  AudioTrack, so no codec has to start; otherwise it's played by a MediaPlayer, prepared with
+ *  `prepareAsync()`. All the work on the players, and the call state callbacks, run on that
+ *  thread, one after the other, so only it touches them.
  * Portions of code are borrowed from AlarmKlaxon in the Android clock app (deskclock),
  *  which is licensed under the Apache License, Version 2.0.
  */
@@ -43,28 +54,39 @@ public class AlarmRinger {
 
     public static final int STREAM_TYPE = AudioManager.STREAM_ALARM;
 
-    private static boolean ringing;
+    /**
+     * Whether the alarm was started and not stopped yet. Set by the calling thread, so
+     *  {@link #isRinging()} is correct as soon as {@link #start(Context)} returns.
+     */
+    private static volatile boolean ringing;
+
+    /**
+     * The handler of the audio thread, created the first time the alarm is started
+     */
+    private static Handler audioHandler;
+
+    // Only used on the audio thread
     private static MediaPlayer mediaPlayer;
+    private static AudioTrack audioTrack;
+    /**
+     * The track loaded ahead of time by {@link #prepare(Context)}, and the URI of its tone
+     */
+    private static AudioTrack preparedTrack;
+    private static String preparedUri;
 
     /**
-     * PhoneStateListener to listen for when a call comes in, to stop the alarm
+     * How long to keep the prepared track if the alarm doesn't ring, e.g. because the timer was
+     *  paused
      */
-    private static final PhoneStateListener phoneStateListener = new PhoneStateListener() {
+    private static final long PREPARED_TIMEOUT = 60000;
+
+    private static final Runnable releasePreparedRunnable = new Runnable() {
         @Override
-        public void onCallStateChanged(int state, String incomingNumber) {
-            if (state != TelephonyManager.CALL_STATE_IDLE) {
-                Log.d(tag, "Call state is " + state);
-
-                // Stop playing audio, but don't stop vibrating
-                if (mediaPlayer != null) {
-                    mediaPlayer.stop();
-                    mediaPlayer.reset();
-                    mediaPlayer.release();
-                    mediaPlayer = null;
-                }
-            }
+        public void run() {
+            releasePreparedTrack();
         }
     };
+    private static PhoneStateListener phoneStateListener;
 
     /**
      * Whether the alarm is currently ringing. You do not need to check this before calling
@@ -77,7 +99,7 @@ public class AlarmRinger {
     /**
      * Stops the alarm
      */
-    public static void stop(Context context) {
+    public static synchronized void stop(Context context) {
         // Check if alarm is already stopped
         if (!ringing) return;
 
@@ -86,27 +108,46 @@ public class AlarmRinger {
         // Stop vibrating
         getVibrator(context).cancel();
 
-        // Stop ringing and clean up the media player
-        cleanUpMediaPlayer(context);
+        final Context appContext = context.getApplicationContext();
+        getAudioHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                // Stop ringing and clean up the media player
+                cleanUpMediaPlayer(appContext);
 
-        // Stop listening for call state changes
-        TelephonyManager telephonyManager = (TelephonyManager)
-                context.getSystemService(Context.TELEPHONY_SERVICE);
-        telephonyManager.listen(phoneStateListener, PhoneStateListener.LISTEN_NONE);
+                // Stop listening for call state changes
+                if (phoneStateListener != null) {
+                    TelephonyManager telephonyManager = (TelephonyManager)
+                            appContext.getSystemService(Context.TELEPHONY_SERVICE);
+                    telephonyManager.listen(phoneStateListener, PhoneStateListener.LISTEN_NONE);
+                }
+            }
+        });
     }
 
     /**
      * Starts the alarm
      */
-    public static void start(final Context context) {
+    public static void start(Context context) {
+        start(context, null, 0);
+    }
+
+    /**
+     * Starts the alarm, and logs how long it took for the ringtone to start playing
+     * @param latencyLabel The label for the log, or null to not log
+     * @param receivedTime The `SystemClock.elapsedRealtime()` when the alarm was received
+     */
+    public static synchronized void start(Context context, final String latencyLabel,
+                                          final long receivedTime) {
         // Check if we're already ringing
         if (ringing) return;
+        RingLatency.mark(context, LatencyLog.STAGE_RINGER_START);
 
         AudioManager audioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
         SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
 
-        // Check which ringtone is set in preferences
-        String alarmUriStr = sharedPrefs.getString(AlarmSettingsFragment.KEY_RINGTONE, "");
+        // Get the tone to play, which RingtoneResolver already checked can be played
+        final String alarmUriStr = RingtoneResolver.getPlayableUri(context);
         // Check if the ringtone is "None" (an empty string), or if the volume is 0
         boolean ring = !alarmUriStr.isEmpty() && audioManager.getStreamVolume(STREAM_TYPE) > 0;
         // Check if vibration is enabled in preferences
@@ -117,56 +158,259 @@ public class AlarmRinger {
         if (vibrate) // Start vibrating the device
             getVibrator(context).vibrate(new long[]{500, 500}, 0);
 
-        if (!ring) return;
+        if (!ring) {
+            // The vibration is all the user gets, so count it as the sound
+            if (vibrate) RingLatency.mark(context, LatencyLog.STAGE_SOUND);
+            if (latencyLabel != null && vibrate)
+                AlarmReceiver.logLatency(latencyLabel + " (vibrate only)", receivedTime);
+            return;
+        }
+
+        // Load and play the ringtone on the audio thread
+        final Context appContext = context.getApplicationContext();
+        getAudioHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                // Check if it was stopped before we got here
+                if (!ringing) return;
+
+                // Play the track loaded by prepare() if there is one, or else the decoded tone
+                //  if it's cached, so we don't need to decode it now
+                AudioTrack track = null;
+                String label = latencyLabel;
+                if (preparedTrack != null && alarmUriStr.equals(preparedUri)) {
+                    track = preparedTrack;
+                    preparedTrack = null;
+                    if (label != null) label += " (prepared)";
+                }
+                releasePreparedTrack();
+                if (track == null) {
+                    ToneCacheFile.Tone tone = ToneCache.load(appContext, alarmUriStr);
+                    if (tone != null) track = loadTrack(tone);
+                }
+
+                if (track == null || !playTrack(appContext, track, label, receivedTime))
+                    playRingtone(appContext, Uri.parse(alarmUriStr), true, label, receivedTime);
+
+                // Listen for call state changes, so we can stop the alarm if the phone rings
+                TelephonyManager telephonyManager = (TelephonyManager)
+                        appContext.getSystemService(Context.TELEPHONY_SERVICE);
+                telephonyManager.listen(getPhoneStateListener(),
+                        PhoneStateListener.LISTEN_CALL_STATE);
+            }
+        });
+    }
+
+    /**
+     * Loads the selected tone ahead of time, e.g. a few seconds before the alarm rings, so
+     *  {@link #start(Context)} only has to start playing it. Only tones that are decoded by
+     *  ToneCache can be loaded ahead; the others are still played with a MediaPlayer. The loaded
+     *  tone is released if the alarm doesn't ring within {@link #PREPARED_TIMEOUT}.
+     */
+    public static void prepare(Context context) {
+        final Context appContext = context.getApplicationContext();
+        final String alarmUriStr = RingtoneResolver.getPlayableUri(context);
+        if (alarmUriStr.isEmpty()) return;
+
+        final Handler handler = getAudioHandler();
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (ringing) return;
+
+                releasePreparedTrack();
+                ToneCacheFile.Tone tone = ToneCache.load(appContext, alarmUriStr);
+                if (tone == null) return;
+
+                preparedTrack = loadTrack(tone);
+                if (preparedTrack == null) return;
+                preparedUri = alarmUriStr;
+                handler.postDelayed(releasePreparedRunnable, PREPARED_TIMEOUT);
+            }
+        });
+    }
+
+    /**
+     * Releases the tone loaded by {@link #prepare(Context)}, if the alarm isn't going to ring
+     */
+    public static void releasePrepared() {
+        getAudioHandler().post(releasePreparedRunnable);
+    }
+
+    //
+    // Helpers
+    //
+
+    /**
+     * Gets the handler of the audio thread, starting the thread if it wasn't started yet
+     */
+    private static synchronized Handler getAudioHandler() {
+        if (audioHandler == null) {
+            HandlerThread audioThread = new HandlerThread(tag);
+            audioThread.start();
+            audioHandler = new Handler(audioThread.getLooper());
+        }
+        return audioHandler;
+    }
+
+    /**
+     * Creates the PhoneStateListener, which stops the alarm when a call comes in. Must be called
+     *  on the audio thread, so the callbacks are delivered there.
+     */
+    private static PhoneStateListener getPhoneStateListener() {
+        if (phoneStateListener == null) {
+            phoneStateListener = new PhoneStateListener() {
+                @Override
+                public void onCallStateChanged(int state, String incomingNumber) {
+                    if (state != TelephonyManager.CALL_STATE_IDLE) {
+                        Log.d(tag, "Call state is " + state);
+
+                        // Stop playing audio, but don't stop vibrating
+                        if (audioTrack != null) {
+                            audioTrack.stop();
+                            audioTrack.release();
+                            audioTrack = null;
+                        }
+                        if (mediaPlayer != null) {
+                            if (mediaPlayer.isPlaying()) mediaPlayer.stop();
+                            mediaPlayer.reset();
+                            mediaPlayer.release();
+                            mediaPlayer = null;
+                        }
+                    }
+                }
+            };
+        }
+        return phoneStateListener;
+    }
+
+    /**
+     * Loads the decoded tone into a static AudioTrack that loops it. Runs on the audio thread.
+     * @return The track, ready to play, or null if it couldn't be loaded
+     */
+    private static AudioTrack loadTrack(ToneCacheFile.Tone tone) {
+        int length = tone.samples.length;
+        AudioTrack track = null;
+        try {
+            track = new AudioTrack(STREAM_TYPE, tone.sampleRate, AudioFormat.CHANNEL_OUT_MONO,
+                    AudioFormat.ENCODING_PCM_16BIT, length * 2, AudioTrack.MODE_STATIC);
+            if (track.write(tone.samples, 0, length) != length ||
+                    track.getState() != AudioTrack.STATE_INITIALIZED ||
+                    track.setLoopPoints(0, length, -1) != AudioTrack.SUCCESS) {
+                Log.e(tag, "Failed to load the cached tone");
+                track.release();
+                return null;
+            }
+            return track;
+        } catch (RuntimeException e) {
+            // Thrown if the track's parameters aren't supported
+            Log.e(tag, "Failed to load the cached tone", e);
+            if (track != null) track.release();
+            return null;
+        }
+    }
+
+    /**
+     * Plays a track from {@link #loadTrack(ToneCacheFile.Tone)}. Runs on the audio thread.
+     * @return Whether the track is playing
+     */
+    private static boolean playTrack(Context context, AudioTrack track, String latencyLabel,
+                                     long receivedTime) {
+        AudioManager audioManager = (AudioManager)
+                context.getSystemService(Context.AUDIO_SERVICE);
+        audioManager.requestAudioFocus(null, STREAM_TYPE, AudioManager.AUDIOFOCUS_GAIN_TRANSIENT);
+        try {
+            track.play();
+        } catch (IllegalStateException e) {
+            Log.e(tag, "Failed to play the cached tone", e);
+            track.release();
+            audioManager.abandonAudioFocus(null);
+            return false;
+        }
+
+        audioTrack = track;
+        RingLatency.mark(context, LatencyLog.STAGE_SOUND);
+        if (latencyLabel != null) AlarmReceiver.logLatency(latencyLabel + " (cached)", receivedTime);
+        return true;
+    }
+
+    /**
+     * Releases the track loaded by {@link #prepare(Context)}, if it wasn't played. Runs on the
+     *  audio thread.
+     */
+    private static void releasePreparedTrack() {
+        getAudioHandler().removeCallbacks(releasePreparedRunnable);
+        if (preparedTrack == null) return;
+
+        preparedTrack.release();
+        preparedTrack = null;
+        preparedUri = null;
+    }
+
+    /**
+     * Starts preparing the ringtone asynchronously, and plays it once it's prepared. Runs on the
+     *  audio thread, so the player's callbacks are delivered there too.
+     * @param fallBack Whether to try the default ringtone if this one can't be played
+     */
+    private static void playRingtone(final Context context, Uri uri, final boolean fallBack,
+                                     final String latencyLabel, final long receivedTime) {
+        final MediaPlayer player = new MediaPlayer();
+        mediaPlayer = player;
 
-        // Set up the media player
-        mediaPlayer = new MediaPlayer();
-        mediaPlayer.setOnErrorListener(new MediaPlayer.OnErrorListener() {
-            // Handles asynchronous errors. Synchronous exceptions are handled by try-catch
+        player.setOnErrorListener(new MediaPlayer.OnErrorListener() {
+            // Handles asynchronous errors, including failing to prepare. Synchronous exceptions
+            //  are handled by try-catch
             @Override
-            public boolean onError(MediaPlayer mediaPlayer, int what, int extra) {
+            public boolean onError(MediaPlayer mp, int what, int extra) {
                 Log.e(tag, "Error while playing alarm");
-                mediaPlayer.stop();
-                mediaPlayer.release();
-                mediaPlayer = null;
+                if (mp != mediaPlayer) return true; // Already cleaned up
+
+                cleanUpMediaPlayer(context);
+                if (fallBack && ringing) {
+                    Log.e(tag, "Trying to use default ringtone");
+                    // The tone stopped working since it was resolved, so resolve it again
+                    RingtoneResolver.update(context);
+                    playRingtone(context, RingtoneManager.getDefaultUri(RingtoneManager.TYPE_ALARM),
+                            false, latencyLabel, receivedTime);
+                }
                 return true;
             }
         });
-        mediaPlayer.setAudioStreamType(STREAM_TYPE);
-        mediaPlayer.setLooping(true);
+        player.setOnPreparedListener(new MediaPlayer.OnPreparedListener() {
+            @Override
+            public void onPrepared(MediaPlayer mp) {
+                // Check that it wasn't stopped while preparing
+                if (mp != mediaPlayer) return;
+
+                AudioManager audioManager = (AudioManager)
+                        context.getSystemService(Context.AUDIO_SERVICE);
+                audioManager.requestAudioFocus(null, STREAM_TYPE,
+                        AudioManager.AUDIOFOCUS_GAIN_TRANSIENT);
+                mp.start();
+
+                RingLatency.mark(context, LatencyLog.STAGE_SOUND);
+                if (latencyLabel != null) AlarmReceiver.logLatency(latencyLabel, receivedTime);
+            }
+        });
+        player.setAudioStreamType(STREAM_TYPE);
+        player.setLooping(true);
 
         try {
-            Uri alarmUri = Uri.parse(alarmUriStr);
-            mediaPlayer.setDataSource(context, alarmUri);
-            startAlarm(mediaPlayer, audioManager);
+            player.setDataSource(context, uri);
+            player.prepareAsync();
         } catch (IOException e) {
-            try {
+            cleanUpMediaPlayer(context);
+            if (fallBack) {
                 Log.e(tag, "Failed to play selected ringtone. Trying to use default ringtone");
                 e.printStackTrace();
-                mediaPlayer.reset(); // Reset error state
-                Uri defaultAlarmUri = RingtoneManager.getDefaultUri(RingtoneManager.TYPE_ALARM);
-                mediaPlayer.setDataSource(context, defaultAlarmUri);
-                startAlarm(mediaPlayer, audioManager);
-            } catch (IOException e1) {
-                cleanUpMediaPlayer(context);
+                RingtoneResolver.update(context);
+                playRingtone(context, RingtoneManager.getDefaultUri(RingtoneManager.TYPE_ALARM),
+                        false, latencyLabel, receivedTime);
+            } else {
                 Log.e(tag, "Failed to play default ringtone:");
-                e1.printStackTrace();
+                e.printStackTrace();
             }
         }
-
-        // Listen for call state changes, so we can stop the alarm if the phone rings
-        TelephonyManager telephonyManager = (TelephonyManager)
-                context.getSystemService(Context.TELEPHONY_SERVICE);
-        telephonyManager.listen(phoneStateListener, PhoneStateListener.LISTEN_CALL_STATE);
-    }
-
-    /**
-     * Prepare the media player and play the ringtone
-     */
-    private static void startAlarm(MediaPlayer player, AudioManager audioManager) throws IOException {
-        player.prepare();
-        audioManager.requestAudioFocus(null, STREAM_TYPE, AudioManager.AUDIOFOCUS_GAIN_TRANSIENT);
-        player.start();
     }
 
     /**
@@ -180,13 +424,24 @@ public class AlarmRinger {
     }
 
     /**
-     * Clean up after the media player to release system resources
+     * Clean up after the AudioTrack or the media player to release system resources. Runs on the
+     *  audio thread.
      */
     private static void cleanUpMediaPlayer(Context context) {
+        if (audioTrack != null) {
+            audioTrack.stop();
+            audioTrack.release();
+            audioTrack = null;
+            AudioManager audioManager = (AudioManager)
+                    context.getSystemService(Context.AUDIO_SERVICE);
+            audioManager.abandonAudioFocus(null);
+        }
+
         // Stop ringing
         if (mediaPlayer == null) return;
 
-        mediaPlayer.stop();
+        // Only stop if it was prepared and started; stopping while preparing is an error
+        if (mediaPlayer.isPlaying()) mediaPlayer.stop();
         AudioManager audioManager = (AudioManager)
                 context.getSystemService(Context.AUDIO_SERVICE);
         audioManager.abandonAudioFocus(null);
@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify;
+
+import android.view.View;
+import android.widget.TextView;
+
+/**
+ * The round timer displayed by MainActivity. Implemented by {@link CircleTimerView}, which draws
+ *  on the UI thread, and by {@link CircleTimerSurfaceView}, which draws on its own render thread.
+ *  Either one can be used in the layout with the id `circle_timer`.
+ */
+public interface CircleTimer {
+    void setTotalTime(long t);
+
+    long getTotalTime();
+
+    /**
+     * Sets a single marker, replacing any other markers
+     * @param t The time to draw the marker at, relative to the start of the interval, or -1 for no
+     *          marker
+     */
+    void setMarkerTime(long t);
+
+    /**
+     * Sets the markers to draw on the dial, e.g. for a snooze extension or for halfway points.
+     *  They're drawn with a single call, so it doesn't matter how many there are.
+     * @param times The times to draw markers at, relative to the start of the interval
+     */
+    void setMarkerTimes(long[] times);
+
+    void reset();
+
+    void startIntervalAnimation();
+
+    /**
+     * Stops the interval animation and redraws the dial without any progress
+     */
+    void stopIntervalAnimation();
+
+    boolean isAnimating();
+
+    void pauseIntervalAnimation();
+
+    void abortIntervalAnimation();
+
+    void setPassedTime(long time, boolean drawRed);
+
+    long getRemainingTime();
+
+    /**
+     * Sets the TextView to display the remaining time on
+     */
+    void setTimeDisplay(TextView lbl);
+
+    /**
+     * Updates the label that displays how much time is remaining
+     * @param millis The The number of milliseconds remaining
+     */
+    void updateTimeLbl(long millis);
+
+    /**
+     * Clears the label that displays how much time is remaining
+     */
+    void clearTimeLbl();
+
+    /**
+     * Starts or stops blinking the label that displays how much time is remaining, e.g. while the
+     *  timer is paused
+     */
+    void setTimeLblBlinking(boolean blinking);
+
+    /**
+     * Whether the timer draws the remaining time itself, in which case the TextView passed to
+     *  {@link #setTimeDisplay(TextView)} isn't used
+     */
+    boolean isDrawingTime();
+
+    /**
+     * Tells the timer whether the Activity hosting it is started. While the host is stopped, the
+     *  timer doesn't draw any frames.
+     */
+    void setHostVisible(boolean visible);
+
+    /**
+     * Turns recording of per-frame draw stats on or off
+     */
+    void setFrameStatsEnabled(boolean enabled);
+
+    /**
+     * The recorded per-frame draw stats for the current ring mode, or null if recording is off
+     */
+    FrameStats getFrameStats();
+
+    /**
+     * The recorded per-frame draw stats for the given ring mode, or null if recording is off
+     */
+    FrameStats getFrameStats(int ringMode);
+
+    /**
+     * Sets how the progress ring is drawn, {@link CircleTimerRenderer#RING_MODE_ARCS} or
+     *  {@link CircleTimerRenderer#RING_MODE_SWEEP_GRADIENT}. The frame stats are recorded
+     *  separately for each mode, so they can be compared.
+     */
+    void setRingMode(int mode);
+
+    int getRingMode();
+
+    /**
+     * Turns the on-screen frame stats overlay on or off. Only shown while stats are recorded.
+     */
+    void setDebugOverlayEnabled(boolean enabled);
+
+    // Implemented by View
+
+    void setOnClickListener(View.OnClickListener l);
+
+    boolean performClick();
+}
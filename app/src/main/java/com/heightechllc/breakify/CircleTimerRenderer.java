@@ -0,0 +1,415 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.graphics.SweepGradient;
+
+/**
+ * Draws the timer dial: a border with two colors to indicate the progress of the timer, a marker
+ *  and a red dot at the end of the progress arc. Shared by {@link CircleTimerView} and
+ *  {@link CircleTimerSurfaceView}, so both draw exactly the same thing.
+ * Not thread-safe. Only use it from the thread that draws the dial.
+ */
+public class CircleTimerRenderer {
+    /**
+     * Pass as `redPercent` to {@link #draw(Canvas, boolean, float)} when no interval has been
+     *  started, to draw the dial without any red
+     */
+    public static final float NO_PROGRESS = -1;
+
+    /**
+     * Draw the progress with a red arc over the white ring, plus the marker and the dot
+     */
+    public static final int RING_MODE_ARCS = 0;
+    /**
+     * Draw the progress ring as a single stroked circle, colored by a hard-stop SweepGradient
+     */
+    public static final int RING_MODE_SWEEP_GRADIENT = 1;
+
+    private final int redColor;
+    private final int redColorPressed;
+    private final int borderColor;
+    private final int borderColorPressed;
+    private final int backgroundColor;
+    private final int backgroundColorPressed;
+    private final float strokeSize;
+    private final float dotRadius;
+    private final float markerStrokeSize;
+    private final Paint borderPaint = new Paint();
+    private final Paint backgroundPaint = new Paint();
+    private final Paint redDotPaint = new Paint();
+    private final Paint ringPaint = new Paint();
+    private final Matrix ringShaderMatrix = new Matrix();
+
+    /**
+     * All the markers, batched into one path so they're drawn with a single call no matter how
+     *  many there are. Only rebuilt when the markers or the size change.
+     */
+    private final Path markerPath = new Path();
+    private long[] markerTimes;
+    private long markerTotalTime;
+
+    /**
+     * Everything about the layout of the dial that only changes with its size
+     */
+    private final DialGeometry geometry;
+
+    /**
+     * Cache of the parts of the dial that don't change between frames: the background disc and the
+     *  idle border ring. Only redrawn when the size or the `pressed` state changes.
+     */
+    private Bitmap staticLayer;
+    private final Canvas staticLayerCanvas = new Canvas();
+
+    /**
+     * The `pressed` state that the static layer was last drawn with
+     */
+    private boolean staticLayerPressed;
+    /**
+     * The ring mode that the static layer was last drawn for
+     */
+    private int staticLayerRingMode;
+
+    private int ringMode = RING_MODE_ARCS;
+
+    /**
+     * The shader for {@link #RING_MODE_SWEEP_GRADIENT}, and the state it was built for. A
+     *  gradient's stops can't be changed, so it's rebuilt whenever the end of the red part moves by
+     *  a whole pixel, and reused for all the frames in between.
+     */
+    private SweepGradient ringShader;
+    private int ringShaderStep = -1;
+    private boolean ringShaderPressed;
+
+    public CircleTimerRenderer(Resources resources) {
+        strokeSize = resources.getDimension(R.dimen.circletimer_stroke_width);
+        dotRadius = resources.getDimension(R.dimen.circletimer_dot_size) / 2f;
+        markerStrokeSize = resources.getDimension(R.dimen.circletimer_marker_size);
+        // amount to remove from radius to account for markers on circle
+        float radiusOffset = Math.max(dotRadius, markerStrokeSize / 2f);
+        geometry = new DialGeometry(radiusOffset, resources.getDisplayMetrics().density);
+        borderColor = resources.getColor(R.color.timer_border);
+        borderColorPressed = resources.getColor(R.color.timer_border_pressed);
+        redColor = resources.getColor(R.color.timer_red);
+        redColorPressed = resources.getColor(R.color.timer_red_pressed);
+        backgroundColor = resources.getColor(R.color.timer_background);
+        backgroundColorPressed = resources.getColor(R.color.timer_background_pressed);
+        borderPaint.setAntiAlias(true);
+        borderPaint.setStyle(Paint.Style.STROKE);
+        redDotPaint.setAntiAlias(true);
+        redDotPaint.setStyle(Paint.Style.FILL);
+        backgroundPaint.setAntiAlias(true);
+        backgroundPaint.setStyle(Paint.Style.FILL);
+        ringPaint.setAntiAlias(true);
+        ringPaint.setStyle(Paint.Style.STROKE);
+        ringPaint.setStrokeWidth(strokeSize);
+    }
+
+    /**
+     * Sets the size of the area to draw the dial in, and rebuilds the cached geometry and static
+     *  layer
+     */
+    public void setSize(int width, int height) {
+        geometry.setSize(width, height);
+
+        // The gradient is centered on the dial, so it has to be rebuilt for the new center
+        ringShader = null;
+        ringShaderStep = -1;
+        // Start at the top of the circle instead of at 3 o'clock
+        ringShaderMatrix.setRotate(270, geometry.getXCenter(), geometry.getYCenter());
+
+        rebuildMarkerPath();
+
+        // Don't recycle() the old cache, since the last display list may still be drawing it. Just
+        //  drop it and let it be garbage collected.
+        staticLayer = null;
+
+        if (width > 0 && height > 0) {
+            staticLayer = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            staticLayerCanvas.setBitmap(staticLayer);
+            updateStaticLayer(staticLayerPressed);
+        }
+    }
+
+    /**
+     * Sets the markers to draw on the dial. Only rebuilds the markers if they changed since the
+     *  last call, so it's cheap to call on every frame.
+     * @param times The times to draw markers at, relative to the start of the interval. Not
+     *              copied, so don't modify it afterwards.
+     * @param totalTime The total time of the interval
+     */
+    public void setMarkerTimes(long[] times, long totalTime) {
+        if (times == markerTimes && totalTime == markerTotalTime) return;
+
+        markerTimes = times;
+        markerTotalTime = totalTime;
+        rebuildMarkerPath();
+    }
+
+    /**
+     * Sets how the progress ring is drawn, {@link #RING_MODE_ARCS} (the default) or
+     *  {@link #RING_MODE_SWEEP_GRADIENT}
+     */
+    public void setRingMode(int mode) {
+        ringMode = mode;
+    }
+
+    public int getRingMode() {
+        return ringMode;
+    }
+
+    /**
+     * The radius of the circle, for the size last passed to {@link #setSize(int, int)}
+     */
+    public float getRadius() {
+        return geometry.getRadius();
+    }
+
+    /**
+     * Draws the dial
+     * @param canvas The canvas to draw on
+     * @param pressed Whether to use the colors for the pressed state
+     * @param redPercent The fraction of the interval that has passed, from 0 to 1, or
+     *                   {@link #NO_PROGRESS} if no interval was started. The markers are only
+     *                   drawn while there's progress.
+     */
+    public void draw(Canvas canvas, boolean pressed, float redPercent) {
+        // Draw the background and the complete white circle from the cache, if we have one
+        if (staticLayer != null) {
+            // Redraw the cache if the colors or the mode changed since it was drawn
+            if (staticLayerPressed != pressed || staticLayerRingMode != ringMode)
+                updateStaticLayer(pressed);
+            canvas.drawBitmap(staticLayer, 0, 0, null);
+        } else {
+            drawStaticLayer(canvas, pressed);
+        }
+
+        if (redPercent == NO_PROGRESS) {
+            // No red arc needed, the white circle is already drawn (unless we're using the
+            //  gradient, which isn't in the static layer)
+            if (ringMode == RING_MODE_SWEEP_GRADIENT) drawRing(canvas, 0, pressed);
+            drawRedDot(canvas, 0f, pressed);
+            return;
+        }
+
+        // prevent timer from doing more than one full circle
+        redPercent = (redPercent > 1) ? 1 : redPercent;
+
+        if (ringMode == RING_MODE_SWEEP_GRADIENT) {
+            // The red and the white parts in one draw call
+            drawRing(canvas, redPercent, pressed);
+        } else {
+            // draw red arc here. The white part is already drawn by the static layer, so the red
+            //  arc just covers it.
+            borderPaint.setStrokeWidth(strokeSize);
+            borderPaint.setColor(getRedColor(pressed));
+            canvas.drawArc(geometry.getArcRect(), 270, -redPercent * 360, false, borderPaint);
+        }
+
+        if (!markerPath.isEmpty()) {
+            borderPaint.setStrokeWidth(markerStrokeSize);
+            borderPaint.setColor(getBorderColor(pressed));
+            canvas.drawPath(markerPath, borderPaint);
+        }
+        drawRedDot(canvas, redPercent, pressed);
+    }
+
+    /**
+     * Calculates when the arc and the red dot will next visibly move, i.e. when they'll have moved
+     *  one more pixel along the circumference
+     * @param totalTime The total time of the interval
+     * @param passedTime The time that has passed since the interval started
+     * @return The number of milliseconds until the next visible change, or -1 if the dial won't
+     *  change anymore
+     */
+    public long getNextArcChangeDelay(long totalTime, long passedTime) {
+        // Once the time is up the arc is a full circle, so there's nothing left to animate
+        if (passedTime >= totalTime || geometry.getRadius() <= 0) return -1;
+
+        // For a 60 minute timer on a 1080px circle that's about once a second
+        double millisPerPixel = totalTime / (2 * Math.PI * geometry.getRadius());
+        return (long) Math.ceil(millisPerPixel - passedTime % millisPerPixel);
+    }
+
+    /**
+     * Calculates the area that changes when the progress moves from `fromPercent` to `toPercent`:
+     *  the bounding box of the part of the arc in between, including the red dot at both ends
+     * @param fromPercent The progress that was last drawn, from 0 to 1
+     * @param toPercent The progress that will be drawn next, from 0 to 1
+     * @param out Set to the area that needs to be redrawn
+     */
+    public void getDirtyRect(float fromPercent, float toPercent, Rect out) {
+        if (fromPercent > toPercent) {
+            float temp = fromPercent;
+            fromPercent = toPercent;
+            toPercent = temp;
+        }
+        if (fromPercent < 0 || toPercent > 1) {
+            // Can't tell which part changed, so redraw all of it
+            getDialBounds(out);
+            return;
+        }
+
+        float left = Math.min(geometry.getDotX(fromPercent), geometry.getDotX(toPercent));
+        float right = Math.max(geometry.getDotX(fromPercent), geometry.getDotX(toPercent));
+        float top = Math.min(geometry.getDotY(fromPercent), geometry.getDotY(toPercent));
+        float bottom = Math.max(geometry.getDotY(fromPercent), geometry.getDotY(toPercent));
+
+        // The arc reaches further than its ends where it passes the left, bottom, right or top of
+        //  the circle, which are at every quarter, starting from the top
+        for (int quarter = (int) (fromPercent * 4) + 1; quarter < toPercent * 4; quarter++) {
+            float x = geometry.getDotX(quarter / 4f);
+            float y = geometry.getDotY(quarter / 4f);
+            left = Math.min(left, x);
+            right = Math.max(right, x);
+            top = Math.min(top, y);
+            bottom = Math.max(bottom, y);
+        }
+
+        float padding = getDirtyPadding();
+        out.set((int) Math.floor(left - padding), (int) Math.floor(top - padding),
+                (int) Math.ceil(right + padding), (int) Math.ceil(bottom + padding));
+    }
+
+    /**
+     * Calculates the area covered by the dial, i.e. the area that changes when the colors change
+     *  for the `pressed` state
+     * @param out Set to the bounds of the dial
+     */
+    public void getDialBounds(Rect out) {
+        float outer = geometry.getRadius() + getDirtyPadding();
+        out.set((int) Math.floor(geometry.getXCenter() - outer),
+                (int) Math.floor(geometry.getYCenter() - outer),
+                (int) Math.ceil(geometry.getXCenter() + outer),
+                (int) Math.ceil(geometry.getYCenter() + outer));
+    }
+
+    protected void drawRedDot(Canvas canvas, float degrees, boolean pressed) {
+        // Select color based on whether the view is pressed
+        redDotPaint.setColor(getRedColor(pressed));
+
+        // Look up the position instead of calling cos() and sin() on every frame
+        canvas.drawCircle(geometry.getDotX(degrees), geometry.getDotY(degrees), dotRadius,
+                redDotPaint);
+    }
+
+    /**
+     * Rebuilds the path of the markers for the current markers and size
+     */
+    private void rebuildMarkerPath() {
+        markerPath.rewind();
+        if (markerTimes == null || markerTotalTime <= 0 || geometry.getRadius() <= 0) return;
+
+        for (long time : markerTimes) {
+            if (time < 0) continue;
+
+            float angle = (float) (time % markerTotalTime) / markerTotalTime * 360;
+            markerPath.addArc(geometry.getArcRect(), 270 + angle, geometry.getMarkerSweep());
+        }
+    }
+
+    /**
+     * Draws the whole progress ring, red and white, as one circle with a hard-stop SweepGradient
+     */
+    private void drawRing(Canvas canvas, float redPercent, boolean pressed) {
+        int step = (int) (redPercent * geometry.getSteps());
+        if (ringShader == null || step != ringShaderStep || pressed != ringShaderPressed) {
+            // The gradient goes clockwise from the top, and the red part goes counter-clockwise
+            //  from the top, so the red is at the end of the gradient
+            float redStart = geometry.getSteps() == 0 ? 1 : 1 - (float) step / geometry.getSteps();
+            int border = getBorderColor(pressed);
+            int red = getRedColor(pressed);
+            ringShader = new SweepGradient(geometry.getXCenter(), geometry.getYCenter(),
+                    new int[] {border, border, red, red}, new float[] {0, redStart, redStart, 1});
+            ringShader.setLocalMatrix(ringShaderMatrix);
+            ringPaint.setShader(ringShader);
+            ringShaderStep = step;
+            ringShaderPressed = pressed;
+        }
+
+        canvas.drawCircle(geometry.getXCenter(), geometry.getYCenter(), geometry.getRadius(),
+                ringPaint);
+    }
+
+    /**
+     * Draws the parts of the dial that don't change while the timer runs: the background disc
+     *  and, unless the ring is drawn with the gradient, the complete white border circle
+     */
+    private void drawStaticLayer(Canvas canvas, boolean pressed) {
+        backgroundPaint.setColor(getBackgroundColor(pressed));
+        canvas.drawCircle(geometry.getXCenter(), geometry.getYCenter(), geometry.getRadius(),
+                backgroundPaint);
+
+        // The gradient ring covers the whole border, so there's no point in drawing it twice
+        if (ringMode == RING_MODE_SWEEP_GRADIENT) return;
+
+        borderPaint.setStrokeWidth(strokeSize);
+        borderPaint.setColor(getBorderColor(pressed));
+        canvas.drawCircle(geometry.getXCenter(), geometry.getYCenter(), geometry.getRadius(),
+                borderPaint);
+    }
+
+    /**
+     * Redraws the cached static layer for the current size and the given `pressed` state
+     */
+    private void updateStaticLayer(boolean pressed) {
+        staticLayer.eraseColor(Color.TRANSPARENT);
+        drawStaticLayer(staticLayerCanvas, pressed);
+        staticLayerPressed = pressed;
+        staticLayerRingMode = ringMode;
+    }
+
+    //
+    // HELPERS
+    //
+
+    /**
+     * How far the red dot, the ring and the marker reach past the circle, plus a pixel for
+     *  anti-aliasing
+     */
+    private float getDirtyPadding() {
+        return Math.max(dotRadius, Math.max(strokeSize, markerStrokeSize) / 2f) + 1;
+    }
+
+    /**
+     * Get the correct border color for the `pressed` state
+     */
+    protected int getBorderColor(boolean pressed) {
+        return pressed ? borderColorPressed : borderColor;
+    }
+    /**
+     * Get the correct red color for the `pressed` state
+     */
+    protected int getRedColor(boolean pressed) {
+        return pressed ? redColorPressed : redColor;
+    }
+    /**
+     * Get the correct background color for the `pressed` state
+     */
+    protected int getBackgroundColor(boolean pressed) {
+        return pressed ? backgroundColorPressed : backgroundColor;
+    }
+}
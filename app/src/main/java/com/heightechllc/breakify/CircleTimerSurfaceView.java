@@ -0,0 +1,527 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.PorterDuff;
+import android.graphics.SurfaceTexture;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.TextureView;
+import android.view.View;
+import android.view.animation.AnimationUtils;
+import android.widget.TextView;
+
+/**
+ * Round timer view that draws the same dial as {@link CircleTimerView}, but on its own render
+ *  thread instead of the UI thread, so work on the UI thread (dialogs, the undo bar animations,
+ *  preference reads, etc.) can't make the dial stutter.
+ * To use it, replace CircleTimerView with this class in the layout. It can be used anywhere a
+ *  {@link CircleTimer} is expected.
+ */
+public class CircleTimerSurfaceView extends TextureView implements CircleTimer,
+        TextureView.SurfaceTextureListener, View.OnTouchListener {
+    private static final String tag = "CircleTimerSurfaceView";
+
+    // The time fields are written on the UI thread and read on the render thread, so they're
+    //  guarded by `lock`
+    private final Object lock = new Object();
+    private long totalIntervalTime = 0;
+    private long intervalStartTime = -1;
+    /**
+     * The times of the markers. Replaced, never modified, so the renderer can tell when it changed.
+     */
+    private long[] markerTimes = NO_MARKERS;
+    private long currentIntervalTime = 0;
+    private long accumulatedTime = 0;
+
+    private static final long[] NO_MARKERS = new long[0];
+    private boolean paused = false;
+    private boolean animate = false;
+
+    /**
+     * Whether the view is currently pressed
+     */
+    private volatile boolean pressed;
+
+    /**
+     * Whether the Activity hosting the view is started
+     */
+    private volatile boolean hostVisible = true;
+
+    /**
+     * The per-frame draw stats, or null if they aren't being recorded. Written on the render thread,
+     *  so a dump taken while a frame is drawn may be slightly inconsistent.
+     */
+    private volatile FrameStats frameStats;
+
+    /**
+     * The per-frame draw stats for each ring mode, or null if they aren't being recorded
+     */
+    private volatile FrameStats[] frameStatsByMode;
+
+    /**
+     * How the progress ring is drawn. Passed on to the renderer on the render thread.
+     */
+    private volatile int ringMode = CircleTimerRenderer.RING_MODE_ARCS;
+
+    /**
+     * Whether to draw the frame stats on top of the dial
+     */
+    private volatile boolean debugOverlayEnabled;
+
+    /**
+     * The text size for the debug overlay, in pixels
+     */
+    private final float debugOverlayTextSize;
+
+    /**
+     * Only used on the render thread
+     */
+    private CircleTimerRenderer renderer;
+
+    private HandlerThread renderThread;
+    private Handler renderHandler;
+
+    /**
+     * The TextView to display the remaining time on. Only touched on the UI thread.
+     */
+    private TextView timeLbl;
+
+    /**
+     * The last seconds value that the timeLbl was updated with
+     */
+    private int lastUpdatedSecond = -1;
+
+    /**
+     * Reused buffer for the characters of the time label, so updating it doesn't allocate
+     */
+    private final char[] timeLblChars = new char[TimeFormatter.BUFFER_SIZE];
+
+    /**
+     * Updates the time label on the UI thread when the displayed second changes, separately from
+     *  the frames drawn on the render thread
+     */
+    private final TimeLblScheduler timeLblScheduler = new TimeLblScheduler(
+            new TimeLblScheduler.Callback() {
+                @Override
+                public void onTimeLblTick(long remainingMillis) {
+                    updateTimeLbl(remainingMillis);
+                }
+            });
+
+    /**
+     * The shortest time to wait between frames, i.e. one frame at 60fps
+     */
+    private static final long MIN_FRAME_DELAY = 16;
+
+    private final Runnable renderRunnable = new Runnable() {
+        @Override
+        public void run() {
+            renderFrame();
+        }
+    };
+
+    @SuppressWarnings("unused")
+    public CircleTimerSurfaceView(Context context) {
+        this(context, null);
+    }
+
+    public CircleTimerSurfaceView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+
+        renderer = new CircleTimerRenderer(context.getResources());
+        debugOverlayTextSize = 12 * context.getResources().getDisplayMetrics().scaledDensity;
+
+        // Let the window show through around the dial
+        setOpaque(false);
+        setSurfaceTextureListener(this);
+        setOnTouchListener(this);
+    }
+
+    public void setTotalTime(long t) {
+        synchronized (lock) {
+            totalIntervalTime = t;
+        }
+        if (timeLblScheduler.isRunning()) startTimeLblScheduler();
+        requestRender();
+    }
+
+    public long getTotalTime() {
+        synchronized (lock) {
+            return totalIntervalTime;
+        }
+    }
+
+    public void setMarkerTime(long t) {
+        setMarkerTimes(t == -1 ? NO_MARKERS : new long[] {t});
+    }
+
+    public void setMarkerTimes(long[] times) {
+        long[] copy = times == null ? NO_MARKERS : times.clone();
+        synchronized (lock) {
+            markerTimes = copy;
+        }
+        requestRender();
+    }
+
+    public void reset() {
+        synchronized (lock) {
+            intervalStartTime = -1;
+            markerTimes = NO_MARKERS;
+        }
+        requestRender();
+    }
+
+    public void startIntervalAnimation() {
+        synchronized (lock) {
+            intervalStartTime = SystemClock.elapsedRealtime();
+            animate = true;
+            paused = false;
+        }
+        startTimeLblScheduler();
+        requestRender();
+    }
+
+    public void stopIntervalAnimation() {
+        synchronized (lock) {
+            animate = false;
+            intervalStartTime = -1;
+            accumulatedTime = 0;
+        }
+        timeLblScheduler.stop();
+        requestRender();
+    }
+
+    public boolean isAnimating() {
+        synchronized (lock) {
+            return (intervalStartTime != -1);
+        }
+    }
+
+    public void pauseIntervalAnimation() {
+        synchronized (lock) {
+            animate = false;
+            accumulatedTime += SystemClock.elapsedRealtime() - intervalStartTime;
+            paused = true;
+        }
+        timeLblScheduler.stop();
+        requestRender();
+    }
+
+    public void abortIntervalAnimation() {
+        synchronized (lock) {
+            animate = false;
+        }
+        timeLblScheduler.stop();
+    }
+
+    public void setPassedTime(long time, boolean drawRed) {
+        // See CircleTimerView.setPassedTime() for an explanation of `drawRed`
+        synchronized (lock) {
+            currentIntervalTime = accumulatedTime = time;
+            if (drawRed) {
+                intervalStartTime = SystemClock.elapsedRealtime();
+            }
+        }
+        // Count down from the new time
+        if (timeLblScheduler.isRunning()) startTimeLblScheduler();
+        requestRender();
+    }
+
+    public long getRemainingTime() {
+        synchronized (lock) {
+            // Total time - past time
+            return totalIntervalTime - currentIntervalTime;
+        }
+    }
+
+    public void setTimeDisplay(TextView lbl) {
+        timeLbl = lbl;
+    }
+
+    /**
+     * Updates the label that displays how much time is remaining. Must be called on the UI thread.
+     * @param millis The The number of milliseconds remaining
+     */
+    public void updateTimeLbl(long millis) {
+        if (timeLbl == null) return;
+
+        // Convert from milliseconds to seconds
+        int seconds = (int) millis / 1000;
+
+        // Check if we already updated the TextView for this second
+        if (seconds == lastUpdatedSecond) return;
+        lastUpdatedSecond = seconds;
+
+        // Show seconds + 1, see CircleTimerView.updateTimeLbl() for why
+        int length = TimeFormatter.format(++seconds, timeLblChars);
+        timeLbl.setText(timeLblChars, 0, length);
+    }
+
+    public void clearTimeLbl() {
+        // Make sure the next update shows the time again, even if it's for the same second
+        lastUpdatedSecond = -1;
+
+        if (timeLbl != null) timeLbl.setText("");
+    }
+
+    public void setTimeLblBlinking(boolean blinking) {
+        if (timeLbl == null) return;
+
+        if (blinking)
+            timeLbl.startAnimation(AnimationUtils.loadAnimation(getContext(), R.anim.blink));
+        else
+            timeLbl.clearAnimation();
+    }
+
+    /**
+     * Always false. The time is displayed by the TextView passed to
+     *  {@link #setTimeDisplay(TextView)}.
+     */
+    public boolean isDrawingTime() {
+        return false;
+    }
+
+    /**
+     * Starts updating the time label every second, counting down from the current time
+     */
+    private void startTimeLblScheduler() {
+        long baseTime;
+        long totalTime;
+        synchronized (lock) {
+            baseTime = intervalStartTime - accumulatedTime;
+            totalTime = totalIntervalTime;
+        }
+        timeLblScheduler.start(baseTime, totalTime);
+    }
+
+    public void setHostVisible(boolean visible) {
+        hostVisible = visible;
+
+        if (visible) {
+            // Catch up right away, calculating the progress from SystemClock.elapsedRealtime()
+            requestRender();
+        } else if (renderHandler != null) {
+            // Nobody can see the frames, so don't draw any
+            renderHandler.removeCallbacks(renderRunnable);
+        }
+    }
+
+    public void setFrameStatsEnabled(boolean enabled) {
+        if (enabled && frameStatsByMode == null) {
+            frameStatsByMode = new FrameStats[] {new FrameStats(), new FrameStats()};
+            frameStats = frameStatsByMode[ringMode];
+        } else if (!enabled) {
+            frameStatsByMode = null;
+            frameStats = null;
+        }
+        requestRender();
+    }
+
+    public FrameStats getFrameStats() {
+        return frameStats;
+    }
+
+    public FrameStats getFrameStats(int ringMode) {
+        FrameStats[] byMode = frameStatsByMode;
+        return byMode == null ? null : byMode[ringMode];
+    }
+
+    public void setRingMode(int mode) {
+        ringMode = mode;
+        FrameStats[] byMode = frameStatsByMode;
+        if (byMode != null) frameStats = byMode[mode];
+        requestRender();
+    }
+
+    public int getRingMode() {
+        return ringMode;
+    }
+
+    public void setDebugOverlayEnabled(boolean enabled) {
+        debugOverlayEnabled = enabled;
+        requestRender();
+    }
+
+    @Override
+    public boolean onTouch(View view, MotionEvent motionEvent) {
+
+        // Store the current value of `pressed`
+        boolean wasPressed = pressed;
+
+        // Check whether the user is pressing on the View
+        switch (motionEvent.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                pressed = true;
+                break;
+            case MotionEvent.ACTION_UP:
+                if (pressed) { // Don't react if it wasn't pressed in the first place
+                    pressed = false;
+                    // Notify the OnClickListener that the View has been clicked
+                    performClick();
+                }
+                break;
+            case MotionEvent.ACTION_MOVE:
+                // If the user moved outside the view, cancel the press
+                if (pressed && (motionEvent.getX() < 0 || motionEvent.getX() > getWidth() ||
+                        motionEvent.getY() < 0 || motionEvent.getY() > getHeight())) {
+                    pressed = false;
+                    break;
+                }
+            default:
+                // Ignore other event actions
+                return false;
+        }
+
+        // Redraw if the value of `pressed` has changed
+        if (wasPressed != pressed) requestRender();
+
+        return true;
+    }
+
+    //
+    // Render thread
+    //
+
+    @Override
+    public void onSurfaceTextureAvailable(SurfaceTexture surface, final int width, final int height) {
+        renderThread = new HandlerThread(tag);
+        renderThread.start();
+        renderHandler = new Handler(renderThread.getLooper());
+
+        renderHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                renderer.setSize(width, height);
+                renderFrame();
+            }
+        });
+    }
+
+    @Override
+    public void onSurfaceTextureSizeChanged(SurfaceTexture surface, final int width, final int height) {
+        if (renderHandler == null) return;
+
+        renderHandler.removeCallbacks(renderRunnable);
+        renderHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                renderer.setSize(width, height);
+                renderFrame();
+            }
+        });
+    }
+
+    @Override
+    public boolean onSurfaceTextureDestroyed(SurfaceTexture surface) {
+        // Stop the render thread, and wait for it to finish the frame it's drawing (if any), so
+        //  it doesn't draw to a released surface
+        renderHandler.removeCallbacksAndMessages(null);
+        renderThread.quit();
+        try {
+            renderThread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        renderHandler = null;
+        renderThread = null;
+        return true;
+    }
+
+    @Override
+    public void onSurfaceTextureUpdated(SurfaceTexture surface) {
+        // Nothing to do
+    }
+
+    /**
+     * Draws a new frame on the render thread as soon as possible. Call on the UI thread.
+     */
+    private void requestRender() {
+        if (renderHandler == null) return; // Will render when the surface is available
+
+        renderHandler.removeCallbacks(renderRunnable);
+        renderHandler.post(renderRunnable);
+    }
+
+    /**
+     * Draws a frame and schedules the next one. Runs on the render thread.
+     */
+    private void renderFrame() {
+        // Read it once, in case it's turned off on the UI thread while we're drawing
+        FrameStats stats = frameStats;
+        long startNanos = stats != null ? System.nanoTime() : 0;
+        int labelSecond = 0;
+
+        float redPercent = CircleTimerRenderer.NO_PROGRESS;
+        long nextFrameDelay = -1;
+        long[] frameMarkerTimes;
+        long frameTotalTime;
+
+        synchronized (lock) {
+            frameMarkerTimes = markerTimes;
+            frameTotalTime = totalIntervalTime;
+
+            if (intervalStartTime != -1) {
+                if (animate) {
+                    currentIntervalTime = SystemClock.elapsedRealtime() - intervalStartTime +
+                            accumulatedTime;
+
+                    labelSecond = (int) (totalIntervalTime - currentIntervalTime) / 1000;
+
+                    // The arc and the red dot move one pixel along the circumference at a time.
+                    //  The time label has its own schedule, see TimeLblScheduler.
+                    nextFrameDelay = renderer.getNextArcChangeDelay(totalIntervalTime,
+                            currentIntervalTime);
+                }
+                redPercent = (float) currentIntervalTime / (float) totalIntervalTime;
+            }
+        }
+
+        Canvas canvas = lockCanvas();
+        if (canvas == null) return;
+        try {
+            canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+            boolean isPressed = pressed;
+            renderer.setRingMode(ringMode);
+            // Only rebuilds the markers if they or the total time changed
+            renderer.setMarkerTimes(frameMarkerTimes, frameTotalTime);
+            renderer.draw(canvas, isPressed, redPercent);
+
+            if (stats != null) {
+                if (debugOverlayEnabled) stats.drawOverlay(canvas, debugOverlayTextSize);
+
+                int arcPixels = (int) (redPercent * 2 * Math.PI * renderer.getRadius());
+                stats.recordFrame(startNanos, System.nanoTime(),
+                        FrameStats.getVisibleState(arcPixels, labelSecond, isPressed));
+            }
+        } finally {
+            unlockCanvasAndPost(canvas);
+        }
+
+        if (nextFrameDelay >= 0 && hostVisible) {
+            // Never try to draw faster than the display can show it
+            renderHandler.postDelayed(renderRunnable, Math.max(nextFrameDelay, MIN_FRAME_DELAY));
+        }
+    }
+}
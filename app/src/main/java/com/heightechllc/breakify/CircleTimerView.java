@@ -17,48 +17,45 @@
 
 package com.heightechllc.breakify;
 
+import android.animation.ValueAnimator;
+import android.content.BroadcastReceiver;
 import android.content.Context;
-import android.content.res.Resources;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.res.TypedArray;
 import android.graphics.Canvas;
-import android.graphics.Paint;
-import android.graphics.RectF;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.os.PowerManager;
 import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.view.MotionEvent;
 import android.view.View;
+import android.view.accessibility.AccessibilityManager;
+import android.view.animation.AccelerateDecelerateInterpolator;
+import android.view.animation.AnimationUtils;
 import android.widget.TextView;
 
-import java.util.concurrent.TimeUnit;
-
 /**
  * Round timer view. Draws a border with two colors, to indicate the progress of the timer.
  * Based on CircleTimerView from the Android clock app (deskclock), which is licensed under the
  *  Apache License, Version 2.0
  */
-public class CircleTimerView extends View implements View.OnTouchListener {
-
-    private int redColor;
-    private int redColorPressed;
-    private int borderColor;
-    private int borderColorPressed;
-    private int backgroundColor;
-    private int backgroundColorPressed;
+public class CircleTimerView extends View implements CircleTimer, View.OnTouchListener {
+
     private long totalIntervalTime = 0;
     private long intervalStartTime = -1;
-    private long markerTime = -1;
+    /**
+     * The times of the markers. Replaced, never modified, so the renderer can tell when it changed.
+     */
+    private long[] markerTimes = NO_MARKERS;
     private long currentIntervalTime = 0;
     private long accumulatedTime = 0;
+
+    private static final long[] NO_MARKERS = new long[0];
     private boolean paused = false;
     private boolean animate = false;
-    private static float strokeSize = 4;
-    private static float dotRadius = 6;
-    private static float markerStrokeSize = 2;
-    private final Paint borderPaint = new Paint();
-    private final Paint backgroundPaint = new Paint();
-    private final Paint redDotPaint = new Paint();
-    private final RectF arcRect = new RectF();
-    private float radiusOffset;   // amount to remove from radius to account for markers on circle
-    private float screenDensity;
+    private CircleTimerRenderer renderer;
 
     /**
      * Whether the view is currently pressed
@@ -75,6 +72,136 @@ public class CircleTimerView extends View implements View.OnTouchListener {
      */
     private int lastUpdatedSecond = -1;
 
+    /**
+     * Reused buffer for the characters of the time label, so updating it doesn't allocate
+     */
+    private final char[] timeLblChars = new char[TimeFormatter.BUFFER_SIZE];
+
+    /**
+     * The glyphs to draw the remaining time with, or null if the time is displayed by `timeLbl`.
+     *  Set with the `drawsTime` attribute.
+     */
+    private GlyphAtlas timeAtlas;
+
+    /**
+     * The number of characters in `timeLblChars`, when the view draws the time itself
+     */
+    private int timeLblLength;
+
+    /**
+     * The area the time is drawn in, when the view draws the time itself
+     */
+    private final Rect timeRect = new Rect();
+
+    /**
+     * The alpha of the `timeTextColor` attribute, which the blink animation fades from and to
+     */
+    private int timeTextAlpha;
+
+    /**
+     * Blinks the time drawn by the view, or null if it never blinked
+     */
+    private ValueAnimator blinkAnimator;
+
+    /**
+     * Whether the time should be blinking, so the blink animation can be started again after it
+     *  was stopped while the view wasn't displayed
+     */
+    private boolean timeLblBlinking;
+
+    private AccessibilityManager accessibilityManager;
+
+    /**
+     * Schedules the frames of the interval animation, so we only redraw when something visible
+     *  is about to change, instead of on every display frame
+     */
+    private final FrameScheduler frameScheduler = new FrameScheduler(this,
+            new FrameScheduler.Callback() {
+                @Override
+                public void onFrame() {
+                    invalidateAnimationFrame();
+                }
+            });
+
+    /**
+     * Updates the time label when the displayed second changes, separately from the frames
+     */
+    private final TimeLblScheduler timeLblScheduler = new TimeLblScheduler(
+            new TimeLblScheduler.Callback() {
+                @Override
+                public void onTimeLblTick(long remainingMillis) {
+                    updateTimeLbl(remainingMillis);
+                }
+            });
+
+    /**
+     * The progress drawn by the last frame, or {@link CircleTimerRenderer#NO_PROGRESS}
+     */
+    private float lastDrawnRedPercent = CircleTimerRenderer.NO_PROGRESS;
+
+    /**
+     * Whether `currentIntervalTime` was already set for the next frame, by
+     *  {@link #invalidateAnimationFrame()}
+     */
+    private boolean frameTimeSet;
+
+    /**
+     * Reused for the areas passed to {@link #invalidate(Rect)}
+     */
+    private final Rect dirtyRect = new Rect();
+
+    /**
+     * The shortest time to wait between frames, i.e. one frame at 60fps
+     */
+    private static final long MIN_FRAME_DELAY = 16;
+
+    /**
+     * Whether the Activity hosting the view is started, as reported by
+     *  {@link #setHostVisible(boolean)}
+     */
+    private boolean hostVisible = true;
+
+    /**
+     * Whether the screen is on
+     */
+    private boolean screenOn = true;
+
+    /**
+     * The number of frames drawn since the view was created
+     */
+    private int frameCount;
+
+    /**
+     * The per-frame draw stats for the current ring mode, or null if they aren't being recorded
+     */
+    private FrameStats frameStats;
+
+    /**
+     * The per-frame draw stats for each ring mode, or null if they aren't being recorded
+     */
+    private FrameStats[] frameStatsByMode;
+
+    /**
+     * Whether to draw the frame stats on top of the dial
+     */
+    private boolean debugOverlayEnabled;
+
+    /**
+     * The text size for the debug overlay, in pixels
+     */
+    private float debugOverlayTextSize;
+
+    /**
+     * Listens for the screen turning on and off while the view is attached
+     */
+    private final BroadcastReceiver screenReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            screenOn = Intent.ACTION_SCREEN_ON.equals(intent.getAction());
+            onDisplayedChanged();
+        }
+    };
+
     @SuppressWarnings("unused")
     public CircleTimerView(Context context) {
         this(context, null);
@@ -82,11 +209,12 @@ public class CircleTimerView extends View implements View.OnTouchListener {
 
     public CircleTimerView(Context context, AttributeSet attrs) {
         super(context, attrs);
-        init(context);
+        init(context, attrs);
     }
 
     public void setTotalTime(long t) {
         totalIntervalTime = t;
+        if (animate) startTimeLblScheduler();
         postInvalidate();
     }
 
@@ -95,27 +223,35 @@ public class CircleTimerView extends View implements View.OnTouchListener {
     }
 
     public void setMarkerTime(long t) {
-        markerTime = t;
+        setMarkerTimes(t == -1 ? NO_MARKERS : new long[] {t});
+    }
+
+    public void setMarkerTimes(long[] times) {
+        markerTimes = times == null ? NO_MARKERS : times.clone();
         postInvalidate();
     }
 
     public void reset() {
         intervalStartTime = -1;
-        markerTime = -1;
+        markerTimes = NO_MARKERS;
         postInvalidate();
     }
 
     public void startIntervalAnimation() {
         intervalStartTime = SystemClock.elapsedRealtime();
         animate = true;
+        startTimeLblScheduler();
         invalidate();
         paused = false;
     }
 
     public void stopIntervalAnimation() {
         animate = false;
+        frameScheduler.cancel();
+        timeLblScheduler.stop();
         intervalStartTime = -1;
         accumulatedTime = 0;
+        postInvalidate();
     }
 
     public boolean isAnimating() {
@@ -124,12 +260,16 @@ public class CircleTimerView extends View implements View.OnTouchListener {
 
     public void pauseIntervalAnimation() {
         animate = false;
+        frameScheduler.cancel();
+        timeLblScheduler.stop();
         accumulatedTime += SystemClock.elapsedRealtime() - intervalStartTime;
         paused = true;
     }
 
     public void abortIntervalAnimation() {
         animate = false;
+        frameScheduler.cancel();
+        timeLblScheduler.stop();
     }
 
     public void setPassedTime(long time, boolean drawRed) {
@@ -145,6 +285,8 @@ public class CircleTimerView extends View implements View.OnTouchListener {
         if (drawRed) {
             intervalStartTime = SystemClock.elapsedRealtime();
         }
+        // Count down from the new time
+        if (animate) startTimeLblScheduler();
         postInvalidate();
     }
 
@@ -154,30 +296,165 @@ public class CircleTimerView extends View implements View.OnTouchListener {
     }
 
 
-    private void init(Context c) {
-
-        Resources resources = c.getResources();
-        strokeSize = resources.getDimension(R.dimen.circletimer_stroke_width);
-        dotRadius = resources.getDimension(R.dimen.circletimer_dot_size) / 2f;
-        markerStrokeSize = resources.getDimension(R.dimen.circletimer_marker_size);
-        radiusOffset = Math.max(dotRadius, markerStrokeSize / 2f);
-        screenDensity = resources.getDisplayMetrics().density;
-        borderColor = resources.getColor(R.color.timer_border);
-        borderColorPressed = resources.getColor(R.color.timer_border_pressed);
-        redColor = resources.getColor(R.color.timer_red);
-        redColorPressed = resources.getColor(R.color.timer_red_pressed);
-        backgroundColor = resources.getColor(R.color.timer_background);
-        backgroundColorPressed = resources.getColor(R.color.timer_background_pressed);
-        borderPaint.setAntiAlias(true);
-        borderPaint.setStyle(Paint.Style.STROKE);
-        redDotPaint.setAntiAlias(true);
-        redDotPaint.setStyle(Paint.Style.FILL);
-        backgroundPaint.setAntiAlias(true);
-        backgroundPaint.setStyle(Paint.Style.FILL);
+    private void init(Context c, AttributeSet attrs) {
+        renderer = new CircleTimerRenderer(c.getResources());
+        float scaledDensity = c.getResources().getDisplayMetrics().scaledDensity;
+        debugOverlayTextSize = 12 * scaledDensity;
+
+        TypedArray timerStyles = c.obtainStyledAttributes(attrs, R.styleable.CircleTimerView);
+        if (timerStyles.getBoolean(R.styleable.CircleTimerView_drawsTime, false)) {
+            // Rasterize the glyphs once, instead of laying out the text every second
+            timeAtlas = new GlyphAtlas(timerStyles.getDimension(
+                    R.styleable.CircleTimerView_timeTextSize, 60 * scaledDensity), null);
+            int color = timerStyles.getColor(R.styleable.CircleTimerView_timeTextColor,
+                    getThemeTextColor(c));
+            timeAtlas.setColor(color);
+            timeTextAlpha = Color.alpha(color);
+            accessibilityManager =
+                    (AccessibilityManager) c.getSystemService(Context.ACCESSIBILITY_SERVICE);
+        }
+        timerStyles.recycle();
 
         setOnTouchListener(this);
     }
 
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+
+        renderer.setSize(w, h);
+        if (timeAtlas != null) {
+            // As wide as the view, so it covers the time whether it has hours or not
+            int top = h / 2 - timeAtlas.getHeight() / 2;
+            timeRect.set(0, top - 1, w, top + timeAtlas.getHeight() + 1);
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+
+        // Stop animating while the screen is off
+        IntentFilter filter = new IntentFilter(Intent.ACTION_SCREEN_OFF);
+        filter.addAction(Intent.ACTION_SCREEN_ON);
+        getContext().registerReceiver(screenReceiver, filter);
+        PowerManager powerManager = (PowerManager) getContext().getSystemService(Context.POWER_SERVICE);
+        screenOn = powerManager.isScreenOn();
+
+        // Picks up the countdown again, if it was stopped when we were detached
+        onDisplayedChanged();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+
+        getContext().unregisterReceiver(screenReceiver);
+
+        // Don't keep scheduling frames for a View that isn't displayed
+        frameScheduler.cancel();
+        timeLblScheduler.stop();
+        if (blinkAnimator != null) blinkAnimator.cancel();
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        onDisplayedChanged();
+    }
+
+    @Override
+    protected void onVisibilityChanged(View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        onDisplayedChanged();
+    }
+
+    public void setHostVisible(boolean visible) {
+        hostVisible = visible;
+        onDisplayedChanged();
+    }
+
+    /**
+     * Whether the view can currently be seen by the user, i.e. it's attached and visible, its
+     *  window and Activity are visible, and the screen is on
+     */
+    public boolean isDisplayed() {
+        return hostVisible && screenOn && getWindowVisibility() == VISIBLE && isShown();
+    }
+
+    /**
+     * The number of frames the view has drawn since it was created. Mainly useful for tests.
+     */
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public void setFrameStatsEnabled(boolean enabled) {
+        if (enabled && frameStatsByMode == null) {
+            frameStatsByMode = new FrameStats[] {new FrameStats(), new FrameStats()};
+            frameStats = frameStatsByMode[renderer.getRingMode()];
+        } else if (!enabled) {
+            frameStatsByMode = null;
+            frameStats = null;
+        }
+        invalidate();
+    }
+
+    public FrameStats getFrameStats() {
+        return frameStats;
+    }
+
+    public FrameStats getFrameStats(int ringMode) {
+        return frameStatsByMode == null ? null : frameStatsByMode[ringMode];
+    }
+
+    public void setRingMode(int mode) {
+        renderer.setRingMode(mode);
+        if (frameStatsByMode != null) frameStats = frameStatsByMode[mode];
+        invalidate();
+    }
+
+    public int getRingMode() {
+        return renderer.getRingMode();
+    }
+
+    public void setDebugOverlayEnabled(boolean enabled) {
+        debugOverlayEnabled = enabled;
+        invalidate();
+    }
+
+    /**
+     * Stops or resumes the interval animation when the view is hidden or shown
+     */
+    private void onDisplayedChanged() {
+        // Can be called by View's constructor, before our fields are initialized
+        if (frameScheduler == null) return;
+
+        if (!isDisplayed()) {
+            // Nobody can see the frames, so don't draw any. The time fields aren't touched, so
+            //  the next frame will be calculated from SystemClock.elapsedRealtime() as usual.
+            frameScheduler.cancel();
+            // Nobody can see the label either. Each tick calculates the time from the clock, so
+            //  nothing is lost when it's started again.
+            timeLblScheduler.stop();
+            // The blink animation would otherwise invalidate on every display frame.
+            //  ValueAnimator can't be paused before KitKat, so it's started again when shown.
+            if (blinkAnimator != null) blinkAnimator.cancel();
+            return;
+        }
+
+        if (animate && !frameScheduler.isScheduled()) {
+            // Catch up right away, so the arc and the label are up to date when shown
+            invalidate();
+        }
+        if (animate && intervalStartTime != -1 && !timeLblScheduler.isRunning())
+            startTimeLblScheduler();
+        if (timeLblBlinking && timeAtlas != null &&
+                (blinkAnimator == null || !blinkAnimator.isStarted()))
+            startBlinkAnimator();
+    }
+
     @Override
     public boolean onTouch(View view, MotionEvent motionEvent) {
 
@@ -208,87 +485,110 @@ public class CircleTimerView extends View implements View.OnTouchListener {
                 return false;
         }
 
-        // Redraw if the value of `pressed` has changed
-        if (wasPressed != pressed) invalidate();
+        // Redraw if the value of `pressed` has changed. Only the dial changes color, not the
+        //  corners of the view.
+        if (wasPressed != pressed) {
+            renderer.getDialBounds(dirtyRect);
+            invalidate(dirtyRect);
+        }
 
         return true;
     }
 
     @Override
     public void onDraw(Canvas canvas) {
+        frameCount++;
+        long startNanos = frameStats != null ? System.nanoTime() : 0;
 
-        int xCenter = getWidth() / 2 + 1;
-        int yCenter = getHeight() / 2;
-
-        borderPaint.setStrokeWidth(strokeSize);
-        float radius = Math.min(xCenter, yCenter) - radiusOffset;
+        float redPercent = CircleTimerRenderer.NO_PROGRESS;
 
-        // Draw the background
-        backgroundPaint.setColor(getBackgroundColor());
-        canvas.drawCircle(xCenter, yCenter, radius, backgroundPaint);
-
-        if (intervalStartTime == -1) {
-            // just draw a complete white circle, no red arc needed
-            borderPaint.setColor(getBorderColor());
-            canvas.drawCircle(xCenter, yCenter, radius, borderPaint);
-            drawRedDot(canvas, 0f, xCenter, yCenter, radius);
-        } else {
+        if (intervalStartTime != -1) {
             if (animate) {
-                currentIntervalTime = SystemClock.elapsedRealtime() - intervalStartTime + accumulatedTime;
-                // Update the TextView that displays the time remaining
-                updateTimeLbl(totalIntervalTime - currentIntervalTime);
+                // Use the time that the dirty rect was calculated for, so we don't draw outside it
+                if (!frameTimeSet)
+                    currentIntervalTime = SystemClock.elapsedRealtime() - intervalStartTime + accumulatedTime;
             }
-            //draw a combination of red and white arcs to create a circle
-            arcRect.top = yCenter - radius;
-            arcRect.bottom = yCenter + radius;
-            arcRect.left = xCenter - radius;
-            arcRect.right = xCenter + radius;
-            float redPercent = (float) currentIntervalTime / (float) totalIntervalTime;
-            // prevent timer from doing more than one full circle
-            redPercent = (redPercent > 1) ? 1 : redPercent;
-
-            float whitePercent = 1 - (redPercent > 1 ? 1 : redPercent);
-            // draw red arc here
-            borderPaint.setColor(getRedColor());
-            canvas.drawArc(arcRect, 270, -redPercent * 360, false, borderPaint);
-
-            // draw white arc here
-            borderPaint.setStrokeWidth(strokeSize);
-            borderPaint.setColor(getBorderColor());
-            canvas.drawArc(arcRect, 270, +whitePercent * 360, false, borderPaint);
-
-            if (markerTime != -1 && radius > 0 && totalIntervalTime != 0) {
-                borderPaint.setStrokeWidth(markerStrokeSize);
-                float angle = (float) (markerTime % totalIntervalTime) / (float) totalIntervalTime * 360;
-                // draw 2dips thick marker
-                // the formula to draw the marker 1 unit thick is:
-                // 180 / (radius * Math.PI)
-                // after that we have to scale it by the screen density
-                canvas.drawArc(arcRect, 270 + angle, screenDensity *
-                        (float) (360 / (radius * Math.PI)), false, borderPaint);
-            }
-            drawRedDot(canvas, redPercent, xCenter, yCenter, radius);
+            redPercent = (float) currentIntervalTime / (float) totalIntervalTime;
+        }
+
+        frameTimeSet = false;
+        lastDrawnRedPercent = redPercent;
+        // Only rebuilds the markers if they or the total time changed
+        renderer.setMarkerTimes(markerTimes, totalIntervalTime);
+        renderer.draw(canvas, pressed, redPercent);
+
+        if (timeAtlas != null && timeLblLength > 0) {
+            timeAtlas.draw(canvas, timeLblChars, timeLblLength, getWidth() / 2f,
+                    getHeight() / 2f);
         }
-        if (animate) {
+
+        if (frameStats != null) {
+            if (debugOverlayEnabled) frameStats.drawOverlay(canvas, debugOverlayTextSize);
+
+            int arcPixels = (int) (redPercent * 2 * Math.PI * renderer.getRadius());
+            int labelSecond = (int) ((totalIntervalTime - currentIntervalTime) / 1000);
+            frameStats.recordFrame(startNanos, System.nanoTime(),
+                    FrameStats.getVisibleState(arcPixels, labelSecond, pressed));
+        }
+
+        if (animate && isDisplayed()) {
+            scheduleNextFrame();
+        }
+    }
+
+    /**
+     * Schedules the next frame of the interval animation for the time when the arc or the red dot
+     *  will next visibly change
+     */
+    private void scheduleNextFrame() {
+        // The arc and the red dot move one pixel along the circumference at a time
+        long delay = renderer.getNextArcChangeDelay(totalIntervalTime, currentIntervalTime);
+        // Nothing left to animate
+        if (delay < 0) return;
+
+        // The time label has its own schedule, see TimeLblScheduler
+
+        // Never try to draw faster than the display can show it. Frames that are already due are
+        //  drawn on the next display frame.
+        if (delay < MIN_FRAME_DELAY) delay = 0;
+
+        frameScheduler.scheduleFrame(delay);
+    }
+
+    /**
+     * Redraws the area that changes in the next frame of the interval animation: the part of the
+     *  arc that was added since the last frame, and the red dot. Called by the FrameScheduler.
+     * With hardware acceleration the whole view is redrawn anyway on most devices, but it still
+     *  saves the pixels with a software layer or without hardware acceleration.
+     */
+    private void invalidateAnimationFrame() {
+        // Redraw everything if there's no last frame to compare to, or if the stats overlay is
+        //  shown, since it changes on every frame
+        if (!animate || intervalStartTime == -1 || totalIntervalTime == 0 ||
+                lastDrawnRedPercent == CircleTimerRenderer.NO_PROGRESS ||
+                (frameStats != null && debugOverlayEnabled)) {
             invalidate();
+            return;
         }
+
+        currentIntervalTime = SystemClock.elapsedRealtime() - intervalStartTime + accumulatedTime;
+        frameTimeSet = true;
+        float redPercent = Math.min((float) currentIntervalTime / (float) totalIntervalTime, 1);
+
+        renderer.getDirtyRect(lastDrawnRedPercent, redPercent, dirtyRect);
+        invalidate(dirtyRect);
     }
 
     public void setTimeDisplay(TextView lbl) {
         timeLbl = lbl;
     }
 
-    protected void drawRedDot(
-            Canvas canvas, float degrees, int xCenter, int yCenter, float radius) {
-        float dotPercent;
-        dotPercent = 270 - degrees * 360;
-
-        // Select color based on whether the view is pressed
-        redDotPaint.setColor(getRedColor());
-
-        final double dotRadians = Math.toRadians(dotPercent);
-        canvas.drawCircle(xCenter + (float) (radius * Math.cos(dotRadians)),
-                yCenter + (float) (radius * Math.sin(dotRadians)), dotRadius, redDotPaint);
+    /**
+     * Whether the view draws the remaining time itself, instead of displaying it on the TextView
+     *  passed to {@link #setTimeDisplay(TextView)}. Set with the `drawsTime` attribute.
+     */
+    public boolean isDrawingTime() {
+        return timeAtlas != null;
     }
 
     /**
@@ -296,7 +596,7 @@ public class CircleTimerView extends View implements View.OnTouchListener {
      * @param millis The The number of milliseconds remaining
      */
     public void updateTimeLbl(long millis) {
-        if (timeLbl == null) return;
+        if (timeLbl == null && timeAtlas == null) return;
 
         // Convert from milliseconds to seconds
         int seconds = (int) millis / 1000;
@@ -314,63 +614,97 @@ public class CircleTimerView extends View implements View.OnTouchListener {
         //  countdown timers I tried work. Alternatively, we can consider rounding, i.e., 0.0-0.49
         //  would be 0 and 0.5-0.9 would be 1, but I'm not sure that's a great model either.
         // If anyone thinks otherwise, please let me know!
-        String timeStr = formatTime(++seconds);
+        int length = TimeFormatter.format(++seconds, timeLblChars);
+
+        if (timeAtlas != null) {
+            // Drawn by onDraw()
+            timeLblLength = length;
+            invalidate(timeRect);
+            // There's no TextView for accessibility services to read the time from, so describe
+            //  the view with it. Only while they're on, since it needs a new String every second.
+            if (accessibilityManager.isEnabled())
+                setContentDescription(new String(timeLblChars, 0, length));
+        } else {
+            // Update the clock display. TextView wraps the array instead of copying it into a
+            //  String.
+            timeLbl.setText(timeLblChars, 0, length);
+        }
+    }
+
+    public void clearTimeLbl() {
+        // Make sure the next update shows the time again, even if it's for the same second
+        lastUpdatedSecond = -1;
 
-        // Update the clock display
-        timeLbl.setText(timeStr);
+        if (timeAtlas != null) {
+            timeLblLength = 0;
+            invalidate(timeRect);
+            setContentDescription(null);
+        } else if (timeLbl != null) {
+            timeLbl.setText("");
+        }
     }
 
-    //
-    // HELPERS
-    //
+    public void setTimeLblBlinking(boolean blinking) {
+        if (timeAtlas == null) {
+            if (timeLbl == null) return;
+            if (blinking)
+                timeLbl.startAnimation(AnimationUtils.loadAnimation(getContext(), R.anim.blink));
+            else
+                timeLbl.clearAnimation();
+            return;
+        }
 
-    /**
-     * Get the correct border color for the current `pressed` state
-     */
-    protected int getBorderColor() {
-        return pressed ? borderColorPressed : borderColor;
+        timeLblBlinking = blinking;
+        if (blinking) {
+            // Otherwise it's started when the view is displayed
+            if (isDisplayed()) startBlinkAnimator();
+        } else if (blinkAnimator != null) {
+            blinkAnimator.cancel();
+            timeAtlas.setAlpha(timeTextAlpha);
+            invalidate(timeRect);
+        }
     }
+
     /**
-     * Get the correct red color for the current `pressed` state
+     * Starts blinking the time drawn by the view
      */
-    protected int getRedColor() {
-        return pressed ? redColorPressed : redColor;
+    private void startBlinkAnimator() {
+        if (blinkAnimator == null) {
+            // The same animation as R.anim.blink, which can only animate whole Views
+            blinkAnimator = ValueAnimator.ofInt(timeTextAlpha, 0);
+            blinkAnimator.setDuration(600);
+            blinkAnimator.setInterpolator(new AccelerateDecelerateInterpolator());
+            blinkAnimator.setRepeatMode(ValueAnimator.REVERSE);
+            blinkAnimator.setRepeatCount(ValueAnimator.INFINITE);
+            blinkAnimator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
+                @Override
+                public void onAnimationUpdate(ValueAnimator animation) {
+                    timeAtlas.setAlpha((Integer) animation.getAnimatedValue());
+                    invalidate(timeRect);
+                }
+            });
+        }
+        blinkAnimator.start();
     }
+
     /**
-     * Get the correct background color for the current `pressed` state
+     * Starts updating the time label every second, counting down from the current time. Only
+     *  while the view is displayed; otherwise it's started by {@link #onDisplayedChanged()}.
      */
-    protected int getBackgroundColor() {
-        return pressed ? backgroundColorPressed : backgroundColor;
+    private void startTimeLblScheduler() {
+        if (isDisplayed())
+            timeLblScheduler.start(intervalStartTime - accumulatedTime, totalIntervalTime);
     }
 
     /**
-     * Creates a formatted string representing a time value, in the format Min:Sec, e.g. 06:13
-     *
-     * @param seconds The number of seconds in the time
-     * @return The formatted string
+     * The theme's primary text color, which the TextView for the time would use
      */
-    private String formatTime(long seconds) {
-        String timeStr = "";
-
-        // Start with hours, if there are any
-        long hours = TimeUnit.SECONDS.toHours(seconds);
-        if (hours > 0)
-        {
-            timeStr = hours + ":";
-            // Remove the seconds of the hours from `seconds`, so they don't get counted as
-            //  minutes too (we do similar thing in calculating seconds, see below)
-            seconds -= TimeUnit.HOURS.toSeconds(hours);
-        }
-
-        // Now calculate the minutes and seconds
-        // The '02' makes sure it's 2 digits
-        timeStr += String.format("%02d:%02d",
-                TimeUnit.SECONDS.toMinutes(seconds),
-                TimeUnit.SECONDS.toSeconds(seconds) -
-                        TimeUnit.MINUTES.toSeconds(TimeUnit.SECONDS.toMinutes(seconds))
-        );
-
-        return timeStr;
+    private static int getThemeTextColor(Context c) {
+        TypedArray themeAttrs =
+                c.obtainStyledAttributes(new int[] {android.R.attr.textColorPrimary});
+        int color = themeAttrs.getColor(0, Color.BLACK);
+        themeAttrs.recycle();
+        return color;
     }
 
 }
@@ -176,6 +176,9 @@ public class CustomAlarmTones {
                     }
 
                     editor.apply();
+
+                    // Check and decode the tone if it was just selected
+                    RingtoneResolver.update(sContext);
                 }
 
                 Log.d(tag, "Copied alarm tone " + title + " to " + outAbsPath);
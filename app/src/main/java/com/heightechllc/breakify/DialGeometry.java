@@ -0,0 +1,163 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify;
+
+import android.graphics.RectF;
+
+/**
+ * The geometry of the timer dial for one size: the center, the radius, the rect for the arcs, the
+ *  sweep of the marker and a table of the red dot positions around the circle. Everything is
+ *  computed once in {@link #setSize(int, int)}, so drawing a frame only needs table lookups.
+ */
+public class DialGeometry {
+    /**
+     * Used to find the angular resolution of the table: one entry per pixel of circumference
+     */
+    private static final double TWO_PI = 2 * Math.PI;
+
+    private final float radiusOffset;
+    private final float screenDensity;
+    private final RectF arcRect = new RectF();
+
+    private int xCenter;
+    private int yCenter;
+    private float radius;
+    private float markerSweep;
+
+    /**
+     * The offsets of the red dot from the center, for each step around the circle, going counter-
+     *  clockwise from the top. Has one extra entry at the end, equal to the first, so interpolating
+     *  near 100% doesn't need to wrap around.
+     */
+    private float[] dotOffsetX = new float[0];
+    private float[] dotOffsetY = new float[0];
+    private int steps;
+
+    /**
+     * @param radiusOffset The amount to remove from the radius, to leave room for the markers and
+     *                     the red dot
+     * @param screenDensity The screen density, used to scale the marker
+     */
+    public DialGeometry(float radiusOffset, float screenDensity) {
+        this.radiusOffset = radiusOffset;
+        this.screenDensity = screenDensity;
+    }
+
+    /**
+     * Recomputes the geometry for the size of the area the dial is drawn in
+     */
+    public void setSize(int width, int height) {
+        xCenter = width / 2 + 1;
+        yCenter = height / 2;
+        radius = Math.min(xCenter, yCenter) - radiusOffset;
+
+        arcRect.top = yCenter - radius;
+        arcRect.bottom = yCenter + radius;
+        arcRect.left = xCenter - radius;
+        arcRect.right = xCenter + radius;
+
+        // draw 2dips thick marker
+        // the formula to draw the marker 1 unit thick is:
+        // 180 / (radius * Math.PI)
+        // after that we have to scale it by the screen density
+        markerSweep = radius > 0 ? screenDensity * (float) (360 / (radius * Math.PI)) : 0;
+
+        // The dot can't visibly move by less than a pixel, so there's no point in a finer table
+        steps = radius > 0 ? (int) Math.ceil(TWO_PI * radius) : 0;
+        if (dotOffsetX.length != steps + 1) {
+            dotOffsetX = new float[steps + 1];
+            dotOffsetY = new float[steps + 1];
+        }
+        for (int i = 0; i <= steps; i++) {
+            // Same angle as the arc: start at the top (270 degrees) and go counter-clockwise
+            double radians = Math.toRadians(270 - (double) i / steps * 360);
+            dotOffsetX[i] = (float) (radius * Math.cos(radians));
+            dotOffsetY[i] = (float) (radius * Math.sin(radians));
+        }
+    }
+
+    public int getXCenter() {
+        return xCenter;
+    }
+
+    public int getYCenter() {
+        return yCenter;
+    }
+
+    public float getRadius() {
+        return radius;
+    }
+
+    /**
+     * The rect to draw the arcs in. Don't modify it.
+     */
+    public RectF getArcRect() {
+        return arcRect;
+    }
+
+    /**
+     * The sweep of the marker, in degrees, to draw it 2 dips thick
+     */
+    public float getMarkerSweep() {
+        return markerSweep;
+    }
+
+    /**
+     * The number of pixels around the circumference, i.e. the number of visibly different
+     *  positions of the red dot and the end of the arc
+     */
+    public int getSteps() {
+        return steps;
+    }
+
+    /**
+     * The x coordinate of the red dot
+     * @param percent How far around the circle the dot is, from 0 to 1
+     */
+    public float getDotX(float percent) {
+        return xCenter + lookup(dotOffsetX, percent);
+    }
+
+    /**
+     * The y coordinate of the red dot
+     * @param percent How far around the circle the dot is, from 0 to 1
+     */
+    public float getDotY(float percent) {
+        return yCenter + lookup(dotOffsetY, percent);
+    }
+
+    //
+    // Helpers
+    //
+
+    /**
+     * Looks up the value for `percent` in the table, interpolating between the two nearest entries
+     */
+    private float lookup(float[] table, float percent) {
+        if (steps == 0) return 0;
+
+        // Keep the index in range, even for a slightly negative percent or more than a full circle
+        percent -= (float) Math.floor(percent);
+        float position = percent * steps;
+        int index = (int) position;
+        if (index >= steps) return table[steps];
+
+        float fraction = position - index;
+        return table[index] + (table[index + 1] - table[index]) * fraction;
+    }
+}
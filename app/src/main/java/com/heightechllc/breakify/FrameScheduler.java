@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.view.Choreographer;
+import android.view.View;
+
+/**
+ * Schedules a single redraw of a View at a specific time in the future, so the View doesn't have
+ *  to redraw on every display frame while nothing visible is changing.
+ * On API 16+ the frames are scheduled with {@link Choreographer}, so they line up with vsync. On
+ *  older devices it falls back to posting a Runnable on the View's Handler.
+ */
+public class FrameScheduler {
+    /**
+     * Receives the scheduled frames
+     */
+    public interface Callback {
+        /**
+         * Called on the UI thread when the scheduled frame is due
+         */
+        void onFrame();
+    }
+
+    private final View view;
+    private final Callback callback;
+    private final Runnable frameRunnable = new Runnable() {
+        @Override
+        public void run() {
+            scheduled = false;
+            callback.onFrame();
+        }
+    };
+
+    /**
+     * The Choreographer.FrameCallback, on API 16+. Stored as an Object, so this class can still be
+     *  loaded on older devices, which don't have the Choreographer class.
+     */
+    private Object frameCallback;
+
+    /**
+     * Whether a frame is currently scheduled
+     */
+    private boolean scheduled;
+
+    /**
+     * Creates a FrameScheduler that calls {@link View#invalidate()} for each scheduled frame
+     * @param view The View to redraw
+     */
+    public FrameScheduler(final View view) {
+        this(view, new Callback() {
+            @Override
+            public void onFrame() {
+                view.invalidate();
+            }
+        });
+    }
+
+    /**
+     * @param view The View that the frames are for. Its Handler is used on pre-Choreographer APIs.
+     * @param callback The callback to notify when a scheduled frame is due
+     */
+    public FrameScheduler(View view, Callback callback) {
+        this.view = view;
+        this.callback = callback;
+        if (Build.VERSION.SDK_INT >= 16)
+            frameCallback = ChoreographerHelper.createFrameCallback(frameRunnable);
+    }
+
+    /**
+     * Schedules the next frame, replacing any frame that was already scheduled
+     * @param delayMillis The number of milliseconds from now until the frame should be drawn. Use
+     *                    0 to draw on the next display frame.
+     */
+    public void scheduleFrame(long delayMillis) {
+        cancel();
+        scheduled = true;
+
+        if (delayMillis < 0) delayMillis = 0;
+
+        if (frameCallback != null)
+            ChoreographerHelper.postFrameCallbackDelayed(frameCallback, delayMillis);
+        else
+            view.postDelayed(frameRunnable, delayMillis);
+    }
+
+    /**
+     * Cancels the scheduled frame, if there is one
+     */
+    public void cancel() {
+        if (!scheduled) return;
+        scheduled = false;
+
+        if (frameCallback != null)
+            ChoreographerHelper.removeFrameCallback(frameCallback);
+        else
+            view.removeCallbacks(frameRunnable);
+    }
+
+    /**
+     * Whether a frame is currently scheduled
+     */
+    public boolean isScheduled() {
+        return scheduled;
+    }
+
+    /**
+     * Wraps the calls to Choreographer, so they're only loaded on API 16+
+     */
+    @TargetApi(16)
+    private static class ChoreographerHelper {
+        static Object createFrameCallback(final Runnable runnable) {
+            return new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    runnable.run();
+                }
+            };
+        }
+
+        static void postFrameCallbackDelayed(Object frameCallback, long delayMillis) {
+            Choreographer.getInstance().postFrameCallbackDelayed(
+                    (Choreographer.FrameCallback) frameCallback, delayMillis);
+        }
+
+        static void removeFrameCallback(Object frameCallback) {
+            Choreographer.getInstance().removeFrameCallback(
+                    (Choreographer.FrameCallback) frameCallback);
+        }
+    }
+}
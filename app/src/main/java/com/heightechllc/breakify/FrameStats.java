@@ -0,0 +1,199 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+
+import java.io.PrintWriter;
+
+/**
+ * Records how long each frame of the timer dial takes to draw, and how far apart the frames are,
+ *  into fixed-size histograms. Recording a frame doesn't allocate anything, so it's cheap enough to
+ *  leave on while measuring the animation itself.
+ * The draw time is the time spent in the draw pass on the CPU (with hardware acceleration that
+ *  means recording the display list), not the time the GPU takes to render it.
+ */
+public class FrameStats {
+    /**
+     * The frame budget at 60fps, in nanoseconds
+     */
+    public static final long FRAME_BUDGET_NANOS = 16000000;
+
+    /**
+     * The upper bounds of the histogram buckets, in milliseconds. The last bucket holds everything
+     *  above the last bound.
+     */
+    private static final long[] BUCKET_BOUNDS_MILLIS =
+            {1, 2, 4, 8, 12, 16, 24, 32, 50, 100, 250, 500, 1000, 2000};
+
+    private final long[] drawTimeHistogram = new long[BUCKET_BOUNDS_MILLIS.length + 1];
+    private final long[] intervalHistogram = new long[BUCKET_BOUNDS_MILLIS.length + 1];
+
+    private long frameCount;
+    private long overBudgetCount;
+    private long unchangedCount;
+    private long totalDrawNanos;
+    private long maxDrawNanos;
+    private long lastFrameStartNanos;
+    private long lastVisibleState;
+
+    private Paint overlayPaint;
+    private StringBuilder overlayText;
+
+    /**
+     * Records a frame
+     * @param startNanos When the frame started drawing, from {@link System#nanoTime()}
+     * @param endNanos When the frame finished drawing, from {@link System#nanoTime()}
+     * @param visibleState A value that changes whenever anything visible on the frame changes,
+     *                     e.g. from {@link #getVisibleState(int, int, boolean)}. Used to count the
+     *                     frames that didn't need to be drawn.
+     */
+    public void recordFrame(long startNanos, long endNanos, long visibleState) {
+        long drawNanos = endNanos - startNanos;
+        boolean changed = frameCount == 0 || visibleState != lastVisibleState;
+        lastVisibleState = visibleState;
+
+        frameCount++;
+        totalDrawNanos += drawNanos;
+        if (drawNanos > maxDrawNanos) maxDrawNanos = drawNanos;
+        if (drawNanos > FRAME_BUDGET_NANOS) overBudgetCount++;
+        if (!changed) unchangedCount++;
+
+        drawTimeHistogram[getBucket(drawNanos)]++;
+        // There's no interval for the first frame
+        if (lastFrameStartNanos != 0)
+            intervalHistogram[getBucket(startNanos - lastFrameStartNanos)]++;
+        lastFrameStartNanos = startNanos;
+    }
+
+    /**
+     * Combines the things that can visibly change on the timer dial into a single value for
+     *  {@link #recordFrame(long, long, long)}
+     * @param arcPixels The length of the red arc, in whole pixels
+     * @param labelSecond The second displayed by the time label
+     * @param pressed Whether the dial is drawn in the pressed state
+     */
+    public static long getVisibleState(int arcPixels, int labelSecond, boolean pressed) {
+        return ((long) arcPixels << 32) | ((long) labelSecond << 1 & 0xFFFFFFFFL) | (pressed ? 1 : 0);
+    }
+
+    /**
+     * Clears all the recorded frames
+     */
+    public void reset() {
+        for (int i = 0; i < drawTimeHistogram.length; i++) {
+            drawTimeHistogram[i] = 0;
+            intervalHistogram[i] = 0;
+        }
+        frameCount = overBudgetCount = unchangedCount = 0;
+        totalDrawNanos = maxDrawNanos = lastFrameStartNanos = lastVisibleState = 0;
+    }
+
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * The number of frames that took longer than {@link #FRAME_BUDGET_NANOS} to draw
+     */
+    public long getOverBudgetCount() {
+        return overBudgetCount;
+    }
+
+    /**
+     * The number of frames that were drawn without any visible change
+     */
+    public long getUnchangedCount() {
+        return unchangedCount;
+    }
+
+    /**
+     * The average time it took to draw a frame, in nanoseconds
+     */
+    public long getAverageDrawNanos() {
+        return frameCount == 0 ? 0 : totalDrawNanos / frameCount;
+    }
+
+    /**
+     * Prints the report, e.g. for {@link android.app.Activity#dump}
+     */
+    public void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix); writer.print("frames="); writer.print(frameCount);
+        writer.print(" overBudget="); writer.print(overBudgetCount);
+        writer.print(" unchanged="); writer.println(unchangedCount);
+        writer.print(prefix); writer.print("drawTime avg=");
+        writer.print(getAverageDrawNanos() / 1000); writer.print("us max=");
+        writer.print(maxDrawNanos / 1000); writer.println("us");
+
+        writer.print(prefix); writer.println("drawTime histogram:");
+        dumpHistogram(prefix + "  ", writer, drawTimeHistogram);
+        writer.print(prefix); writer.println("frame interval histogram:");
+        dumpHistogram(prefix + "  ", writer, intervalHistogram);
+    }
+
+    /**
+     * Draws a short summary of the stats in the top-left corner of the canvas, for debugging
+     */
+    public void drawOverlay(Canvas canvas, float textSize) {
+        if (overlayPaint == null) {
+            overlayPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+            overlayPaint.setColor(Color.MAGENTA);
+            overlayText = new StringBuilder(64);
+        }
+        overlayPaint.setTextSize(textSize);
+
+        overlayText.setLength(0);
+        overlayText.append("frames ").append(frameCount)
+                .append(" slow ").append(overBudgetCount)
+                .append(" same ").append(unchangedCount);
+        canvas.drawText(overlayText, 0, overlayText.length(), 0, textSize, overlayPaint);
+
+        overlayText.setLength(0);
+        overlayText.append("avg ").append(getAverageDrawNanos() / 1000)
+                .append("us max ").append(maxDrawNanos / 1000).append("us");
+        canvas.drawText(overlayText, 0, overlayText.length(), 0, textSize * 2, overlayPaint);
+    }
+
+    //
+    // Helpers
+    //
+
+    private static int getBucket(long nanos) {
+        long millis = nanos / 1000000;
+        for (int i = 0; i < BUCKET_BOUNDS_MILLIS.length; i++) {
+            if (millis < BUCKET_BOUNDS_MILLIS[i]) return i;
+        }
+        return BUCKET_BOUNDS_MILLIS.length;
+    }
+
+    private static void dumpHistogram(String prefix, PrintWriter writer, long[] histogram) {
+        for (int i = 0; i < histogram.length; i++) {
+            if (histogram[i] == 0) continue;
+
+            writer.print(prefix);
+            if (i < BUCKET_BOUNDS_MILLIS.length) {
+                writer.print("<"); writer.print(BUCKET_BOUNDS_MILLIS[i]);
+            } else {
+                writer.print(">="); writer.print(BUCKET_BOUNDS_MILLIS[i - 1]);
+            }
+            writer.print("ms: "); writer.println(histogram[i]);
+        }
+    }
+}
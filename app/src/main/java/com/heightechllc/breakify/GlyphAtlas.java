@@ -0,0 +1,135 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+
+/**
+ * The digits and the colon, rasterized once into a single bitmap, so a time like "12:34" can be
+ *  drawn with a few bitmap blits instead of laying out and drawing text on every frame.
+ * All the digits get the same width, so the time doesn't jiggle around as it counts down.
+ */
+public class GlyphAtlas {
+    /**
+     * The characters in the atlas, in order
+     */
+    private static final String GLYPHS = "0123456789:";
+    private static final int COLON = 10;
+
+    private final Bitmap bitmap;
+    private final Rect[] glyphRects = new Rect[GLYPHS.length()];
+    private final int height;
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect dstRect = new Rect();
+
+    /**
+     * Rasterizes the glyphs
+     * @param textSize The text size, in pixels
+     * @param typeface The typeface to use, or null for the default one
+     */
+    public GlyphAtlas(float textSize, Typeface typeface) {
+        Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        textPaint.setTextSize(textSize);
+        textPaint.setTypeface(typeface);
+        Paint.FontMetricsInt metrics = textPaint.getFontMetricsInt();
+        height = metrics.descent - metrics.ascent;
+
+        // Each glyph gets a cell. The digits all get the width of the widest one.
+        float digitWidth = 0;
+        for (int i = 0; i < COLON; i++) {
+            digitWidth = Math.max(digitWidth, textPaint.measureText(GLYPHS, i, i + 1));
+        }
+        int digitCellWidth = (int) Math.ceil(digitWidth);
+        int colonCellWidth = (int) Math.ceil(textPaint.measureText(GLYPHS, COLON, COLON + 1));
+
+        // Only the alpha is stored, so the glyphs are drawn with the color of the Paint
+        bitmap = Bitmap.createBitmap(Math.max(COLON * digitCellWidth + colonCellWidth, 1),
+                Math.max(height, 1), Bitmap.Config.ALPHA_8);
+        Canvas canvas = new Canvas(bitmap);
+        textPaint.setTextAlign(Paint.Align.CENTER);
+        int left = 0;
+        for (int i = 0; i < GLYPHS.length(); i++) {
+            int cellWidth = i == COLON ? colonCellWidth : digitCellWidth;
+            glyphRects[i] = new Rect(left, 0, left + cellWidth, height);
+            canvas.drawText(GLYPHS, i, i + 1, left + cellWidth / 2f, -metrics.ascent, textPaint);
+            left += cellWidth;
+        }
+    }
+
+    /**
+     * The height of the drawn text, in pixels
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Sets the color to draw the glyphs with, including the alpha
+     */
+    public void setColor(int color) {
+        paint.setColor(color);
+    }
+
+    public void setAlpha(int alpha) {
+        paint.setAlpha(alpha);
+    }
+
+    /**
+     * Measures the width of the text, in pixels. Characters that aren't in the atlas are skipped.
+     */
+    public int measure(char[] text, int length) {
+        int width = 0;
+        for (int i = 0; i < length; i++) {
+            int glyph = getGlyphIndex(text[i]);
+            if (glyph != -1) width += glyphRects[glyph].width();
+        }
+        return width;
+    }
+
+    /**
+     * Draws the text, centered on the given point. Characters that aren't in the atlas are
+     *  skipped.
+     */
+    public void draw(Canvas canvas, char[] text, int length, float centerX, float centerY) {
+        int left = Math.round(centerX - measure(text, length) / 2f);
+        int top = Math.round(centerY - height / 2f);
+        for (int i = 0; i < length; i++) {
+            int glyph = getGlyphIndex(text[i]);
+            if (glyph == -1) continue;
+
+            Rect src = glyphRects[glyph];
+            dstRect.set(left, top, left + src.width(), top + height);
+            canvas.drawBitmap(bitmap, src, dstRect, paint);
+            left += src.width();
+        }
+    }
+
+    //
+    // Helpers
+    //
+
+    private static int getGlyphIndex(char c) {
+        if (c >= '0' && c <= '9') return c - '0';
+        if (c == ':') return COLON;
+        return -1;
+    }
+}
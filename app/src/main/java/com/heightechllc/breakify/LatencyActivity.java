@@ -0,0 +1,69 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.view.View;
+import android.widget.TextView;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * A debug screen that shows the percentiles of the latency of each stage of the ring path, from
+ *  {@link RingLatency}. The same report is printed by `dumpsys activity` on MainActivity.
+ */
+public class LatencyActivity extends Activity implements View.OnClickListener {
+    private TextView latencyLbl;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_latency);
+
+        latencyLbl = (TextView) findViewById(R.id.latency_lbl);
+        findViewById(R.id.reset_btn).setOnClickListener(this);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+
+        // Refresh the report, in case an alarm rang while we were in the background
+        updateReport();
+    }
+
+    @Override
+    public void onClick(View view) {
+        switch (view.getId()) {
+            case R.id.reset_btn:
+                RingLatency.get(this).reset();
+                updateReport();
+                break;
+        }
+    }
+
+    private void updateReport() {
+        StringWriter report = new StringWriter();
+        PrintWriter writer = new PrintWriter(report);
+        RingLatency.get(this).dump("", writer);
+        writer.flush();
+        latencyLbl.setText(report.toString());
+    }
+}
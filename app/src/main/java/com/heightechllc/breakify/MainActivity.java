@@ -17,27 +17,27 @@
 
 package com.heightechllc.breakify;
 
-import android.annotation.TargetApi;
 import android.app.Activity;
-import android.app.AlarmManager;
 import android.app.AlertDialog;
-import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
-import android.os.Build;
 import android.os.Bundle;
 import android.os.Parcelable;
 import android.os.SystemClock;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceManager;
+import android.support.v4.content.LocalBroadcastManager;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.view.animation.Animation;
 import android.view.animation.AnimationUtils;
 import android.widget.Button;
@@ -45,18 +45,23 @@ import android.widget.ImageButton;
 import android.widget.TextView;
 
 import com.cocosw.undobar.UndoBarController;
+import com.heightechllc.breakify.engine.LatencyLog;
+import com.heightechllc.breakify.engine.TimerEngine;
+import com.heightechllc.breakify.engine.TimerQueue;
 import com.heightechllc.breakify.preferences.MiscSettingsFragment;
 import com.heightechllc.breakify.preferences.ScheduledStartSettingsFragment;
 import com.heightechllc.breakify.preferences.SettingsActivity;
-import com.heightechllc.breakify.preferences.TimerDurationsSettingsFragment;
 import com.mixpanel.android.mpmetrics.MixpanelAPI;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 /**
  * The app's main activity. Controls the timer and main UI.
- * Displays the timer's progress using a {@link CircleTimerView}.
+ * Displays the timer's progress using a {@link CircleTimer}.
  *
  * For analytics, I'm trying out Mixpanel to see if they're any better than Google Analytics, et al.
  * Analytics can be disabled in the {@link com.heightechllc.breakify.preferences.SettingsActivity}
@@ -87,28 +92,45 @@ public class MainActivity extends Activity implements View.OnClickListener {
     public static final int ALARM_MANAGER_REQUEST_CODE = 613;
 
     // Timer states
-    public static final int TIMER_STATE_RUNNING = 1;
-    public static final int TIMER_STATE_PAUSED = 2;
-    public static final int TIMER_STATE_STOPPED = 0;
+    public static final int TIMER_STATE_RUNNING = TimerEngine.TIMER_STATE_RUNNING;
+    public static final int TIMER_STATE_PAUSED = TimerEngine.TIMER_STATE_PAUSED;
+    public static final int TIMER_STATE_STOPPED = TimerEngine.TIMER_STATE_STOPPED;
 
     // Work states
-    public static final int WORK_STATE_WORKING = 1;
-    public static final int WORK_STATE_BREAKING = 2;
+    public static final int WORK_STATE_WORKING = TimerEngine.WORK_STATE_WORKING;
+    public static final int WORK_STATE_BREAKING = TimerEngine.WORK_STATE_BREAKING;
 
     private static final String tag = "MainActivity";
 
-    private int timerState = TIMER_STATE_STOPPED;
-    private int _workState = WORK_STATE_WORKING;
+    /**
+     * The timer's state machine. See TimerEngine.
+     */
+    private TimerEngine engine;
 
     private SharedPreferences sharedPref;
-    private AlarmManager alarmManager;
+
+    /**
+     * Shows the next interval when AlarmReceiver starts it automatically, since it changes the
+     *  saved state without going through this Activity's engine
+     */
+    private final BroadcastReceiver advancedReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            restoreSavedTimer();
+        }
+    };
 
     // UI Components
-    private CircleTimerView circleTimer;
+    private CircleTimer circleTimer;
     private TextView stateLbl, timeLbl, startStopLbl;
     private ImageButton resetBtn;
     private Button skipBtn;
 
+    /**
+     * The number of layout passes of the Activity's window, for dump()
+     */
+    private int layoutCount;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -131,9 +153,23 @@ public class MainActivity extends Activity implements View.OnClickListener {
         timeLbl = (TextView) findViewById(R.id.time_lbl);
         startStopLbl = (TextView) findViewById(R.id.start_stop_lbl);
 
-        circleTimer = (CircleTimerView) findViewById(R.id.circle_timer);
+        circleTimer = (CircleTimer) findViewById(R.id.circle_timer);
         circleTimer.setOnClickListener(this);
         circleTimer.setTimeDisplay(timeLbl);
+        // If the timer draws the time itself, the TextView isn't needed
+        if (circleTimer.isDrawingTime()) timeLbl.setVisibility(View.GONE);
+        // Record the timer's draw performance in debug builds. See dump().
+        if (BuildConfig.DEBUG) circleTimer.setFrameStatsEnabled(true);
+
+        // Count the layout passes, e.g. to see how many are caused by updating the time. See
+        //  dump().
+        findViewById(R.id.main_root_layout).getViewTreeObserver().addOnGlobalLayoutListener(
+                new ViewTreeObserver.OnGlobalLayoutListener() {
+                    @Override
+                    public void onGlobalLayout() {
+                        layoutCount++;
+                    }
+                });
 
         resetBtn = (ImageButton) findViewById(R.id.reset_btn);
         resetBtn.setOnClickListener(this);
@@ -142,7 +178,16 @@ public class MainActivity extends Activity implements View.OnClickListener {
         skipBtn.setOnClickListener(this);
 
         sharedPref = PreferenceManager.getDefaultSharedPreferences(this);
-        alarmManager = (AlarmManager) getSystemService(ALARM_SERVICE);
+
+        engine = new TimerEngine(AlarmManagerScheduler.SYSTEM_CLOCK,
+                new AlarmManagerScheduler(this), TimerState.open(this),
+                new PrefsDurations(this));
+        engine.setListener(new TimerEngine.Listener() {
+            @Override
+            public void onWorkStateChanged(int workState) {
+                updateStateLbl(workState);
+            }
+        });
 
         // Check if analytics are enabled in preferences
         if (sharedPref.getBoolean(MiscSettingsFragment.KEY_ANALYTICS_ENABLED, false) &&
@@ -157,21 +202,45 @@ public class MainActivity extends Activity implements View.OnClickListener {
             restoreSavedTimer();
         }
 
+        LocalBroadcastManager.getInstance(this).registerReceiver(advancedReceiver,
+                new IntentFilter(AlarmReceiver.ACTION_TIMER_ADVANCED));
+
         // Add the custom alarm tones to the phone's storage, if they weren't copied yet.
         // Works on a separate thread.
         if (!sharedPref.getBoolean(CustomAlarmTones.PREF_KEY_RINGTONES_COPIED, false))
             CustomAlarmTones.installToStorage(this);
+        // Make sure the selected alarm tone can be played and is decoded, in case it changed since
+        //  the app last ran. Works on a separate thread, and only decodes the tone if it changed.
+        RingtoneResolver.update(this);
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+
+        // Resume the timer animation, if it's running
+        circleTimer.setHostVisible(true);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+
+        // Don't draw the timer animation while the Activity isn't visible
+        circleTimer.setHostVisible(false);
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
 
+        LocalBroadcastManager.getInstance(this).unregisterReceiver(advancedReceiver);
+
         // Enable or disable the RescheduleReceiver, which restores AlarmManagers when the system
         //  boots or the time changes. We only want it enabled if an alarm is scheduled, or if
         //  Scheduled Start is enabled.
         int enabledState;
-        if (timerState == TIMER_STATE_RUNNING || ScheduledStart.isEnabled(this))
+        if (engine.getTimerState() == TIMER_STATE_RUNNING || ScheduledStart.isEnabled(this))
             enabledState = PackageManager.COMPONENT_ENABLED_STATE_ENABLED;
         else
             enabledState = PackageManager.COMPONENT_ENABLED_STATE_DISABLED;
@@ -184,6 +253,107 @@ public class MainActivity extends Activity implements View.OnClickListener {
         if (mixpanel != null) mixpanel.flush();
     }
 
+    /**
+     * Prints the timer's frame stats, for
+     *  `adb shell dumpsys activity com.heightechllc.breakify/.MainActivity`.
+     * Add `stats on`, `stats off` or `stats reset` to the command to turn recording on or off, or
+     *  to clear the stats. Add `overlay on` or `overlay off` to show or hide the stats on screen.
+     *  Add `ring arcs` or `ring gradient` to switch how the progress ring is drawn. The stats are
+     *  kept separately for each ring mode.
+     * Add `timer <name> <minutes>` to start a named timer alongside the work / break timer, or
+     *  `timer <name> off` to remove it.
+     * Add `latency reset` to clear the recorded alarm latencies.
+     * Also prints the number of layout passes since the Activity was created, the named timers,
+     *  and the percentiles of the latency of each stage of the recent alarms.
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+
+        // Handle the arguments
+        if (args != null && args.length >= 2) {
+            boolean on = args[1].equals("on");
+            if (args[0].equals("stats")) {
+                if (args[1].equals("reset")) {
+                    if (circleTimer.getFrameStats() != null) {
+                        circleTimer.getFrameStats(CircleTimerRenderer.RING_MODE_ARCS).reset();
+                        circleTimer.getFrameStats(CircleTimerRenderer.RING_MODE_SWEEP_GRADIENT)
+                                .reset();
+                    }
+                } else {
+                    circleTimer.setFrameStatsEnabled(on);
+                }
+            } else if (args[0].equals("overlay")) {
+                circleTimer.setDebugOverlayEnabled(on);
+            } else if (args[0].equals("ring")) {
+                circleTimer.setRingMode(args[1].equals("gradient") ?
+                        CircleTimerRenderer.RING_MODE_SWEEP_GRADIENT :
+                        CircleTimerRenderer.RING_MODE_ARCS);
+            } else if (args[0].equals("latency") && args[1].equals("reset")) {
+                RingLatency.get(this).reset();
+            } else if (args[0].equals("timer") && args.length >= 3) {
+                if (args[2].equals("off")) {
+                    TimerAlarms.get(this).remove(args[1]);
+                } else {
+                    try {
+                        long minutes = Long.parseLong(args[2]);
+                        TimerAlarms.get(this).set(args[1],
+                                SystemClock.elapsedRealtime() + minutes * 60000);
+                    } catch (NumberFormatException e) {
+                        writer.print(prefix); writer.println("Usage: timer <name> <minutes|off>");
+                    }
+                }
+            }
+        }
+
+        dumpNamedTimers(prefix, writer);
+
+        writer.print(prefix); writer.println("Alarm latency:");
+        RingLatency.get(this).dump(prefix + "  ", writer);
+
+        writer.print(prefix); writer.print("Layout passes: "); writer.print(layoutCount);
+        writer.print(" (time drawn by ");
+        writer.print(circleTimer.isDrawingTime() ? "the timer" : "a TextView");
+        writer.println(")");
+
+        writer.print(prefix); writer.print("Timer ring mode: ");
+        writer.println(circleTimer.getRingMode() == CircleTimerRenderer.RING_MODE_SWEEP_GRADIENT ?
+                "gradient" : "arcs");
+
+        if (circleTimer.getFrameStats() == null) {
+            writer.print(prefix); writer.println("Timer frame stats:");
+            writer.print(prefix); writer.println("  Not recording. Turn on with `stats on`.");
+            return;
+        }
+        writer.print(prefix); writer.println("Timer frame stats (arcs):");
+        circleTimer.getFrameStats(CircleTimerRenderer.RING_MODE_ARCS).dump(prefix + "  ", writer);
+        writer.print(prefix); writer.println("Timer frame stats (gradient):");
+        circleTimer.getFrameStats(CircleTimerRenderer.RING_MODE_SWEEP_GRADIENT)
+                .dump(prefix + "  ", writer);
+    }
+
+    /**
+     * Prints the named timers, for dump()
+     */
+    private void dumpNamedTimers(String prefix, PrintWriter writer) {
+        TimerAlarms alarms = TimerAlarms.get(this);
+        TimerQueue timers = alarms.getTimers();
+        long now = SystemClock.elapsedRealtime();
+
+        writer.print(prefix); writer.print("Named timers: "); writer.print(timers.size());
+        writer.print(" (alarm armed "); writer.print(alarms.getArmCount());
+        writer.println(" times by this process)");
+        for (int i = 0; i < timers.size(); i++) {
+            String name = timers.getNameAt(i);
+            writer.print(prefix); writer.print("  ");
+            if (name.equals(TimerAlarms.MAIN_TIMER)) writer.print("(work / break)");
+            else if (name.equals(PreWake.TIMER_NAME)) writer.print("(pre-wake)");
+            else writer.print(name);
+            writer.print(": "); writer.print((timers.getDeadlineAt(i) - now) / 1000);
+            writer.println("s");
+        }
+    }
+
     @Override
     protected void onNewIntent(Intent intent) {
         super.onNewIntent(intent);
@@ -195,6 +365,8 @@ public class MainActivity extends Activity implements View.OnClickListener {
     public boolean onCreateOptionsMenu(Menu menu) {
         MenuInflater inflater = getMenuInflater();
         inflater.inflate(R.menu.main_activity_actions, menu);
+        // The latency report is only for debugging
+        menu.findItem(R.id.action_latency).setVisible(BuildConfig.DEBUG);
         return true;
     }
 
@@ -205,6 +377,9 @@ public class MainActivity extends Activity implements View.OnClickListener {
                 // Open the SettingsActivity
                 startActivity(new Intent(this, SettingsActivity.class));
                 return true;
+            case R.id.action_latency:
+                startActivity(new Intent(this, LatencyActivity.class));
+                return true;
             default:
                 return super.onOptionsItemSelected(item);
         }
@@ -214,18 +389,16 @@ public class MainActivity extends Activity implements View.OnClickListener {
     public void onClick(View view) {
         switch (view.getId()) {
             case R.id.circle_timer:
-                if (timerState == TIMER_STATE_RUNNING) pauseTimer();
+                if (engine.getTimerState() == TIMER_STATE_RUNNING) pauseTimer();
                 else startTimer();
 
                 break;
             case R.id.reset_btn:
-                cancelScheduledAlarm();
-
-                resetTimerUI(false);
+                resetTimer(false);
 
                 // Analytics
                 if (mixpanel != null) {
-                    String eventName = getWorkState() == WORK_STATE_WORKING ?
+                    String eventName = engine.getWorkState() == WORK_STATE_WORKING ?
                             "Work timer reset" : "Break timer reset";
                     mixpanel.track(eventName, null);
                 }
@@ -246,17 +419,14 @@ public class MainActivity extends Activity implements View.OnClickListener {
         if (requestCode != RingingActivity.REQUEST_ALARM_RING)
             return; // We didn't request it and we don't know what to do with the result
 
-        // Restore the work state from preferences, since `restoreSavedTimer()` wasn't called
-        setWorkState(sharedPref.getInt("workState", _workState));
+        // Restore the work state from the store, since `restoreSavedTimer()` wasn't called
+        engine.reloadWorkState();
 
         switch (resultCode) {
             case RingingActivity.RESULT_ALARM_RING_OK:
-                // Set the new state
-                if (getWorkState() == WORK_STATE_WORKING) setWorkState(WORK_STATE_BREAKING);
-                else setWorkState(WORK_STATE_WORKING);
-
-                // Now start the timer
-                startTimer();
+                // Start the timer for the next state
+                engine.startNextState();
+                setUIForRunningState();
 
                 break;
             case RingingActivity.RESULT_ALARM_RING_SNOOZE:
@@ -264,12 +434,12 @@ public class MainActivity extends Activity implements View.OnClickListener {
                 break;
             case RingingActivity.RESULT_ALARM_RING_CANCEL:
                 // User chose to cancel
-                resetTimerUI(true);
+                resetTimer(true);
                 // Analytics
                 if (mixpanel != null) {
                     // We want to have a separate event for when the user presses the "cancel" btn
                     //  in RingingActivity, vs. when they press the "reset" btn
-                    String eventName = getWorkState() == WORK_STATE_WORKING ?
+                    String eventName = engine.getWorkState() == WORK_STATE_WORKING ?
                             "Work timer cancelled" : "Break timer cancelled";
                     mixpanel.track(eventName, null);
                 }
@@ -297,13 +467,17 @@ public class MainActivity extends Activity implements View.OnClickListener {
             shouldRestoreSavedTimer = false;
 
         } else if (intent.getBooleanExtra(EXTRA_ALARM_RING, false)) {
-            // The Activity was launched from AlarmReceiver, meaning the timer finished and we
-            //  need to ring the alarm
+            // The Activity was launched from the ring notification, meaning the timer finished
+            //  and we need to show RingingActivity
+            RingLatency.mark(this, LatencyLog.STAGE_MAIN_ACTIVITY);
 
             Intent ringingIntent = new Intent(this, RingingActivity.class);
             // Pass along FLAG_ACTIVITY_NO_USER_ACTION if it was set when calling this activity
             if ((intent.getFlags() & Intent.FLAG_ACTIVITY_NO_USER_ACTION) != 0)
                 ringingIntent.setFlags(Intent.FLAG_ACTIVITY_NO_USER_ACTION);
+            // Pass along when the alarm was received, so RingingActivity can log the latency
+            ringingIntent.putExtra(AlarmReceiver.EXTRA_RECEIVED_TIME,
+                    intent.getLongExtra(AlarmReceiver.EXTRA_RECEIVED_TIME, 0));
             startActivityForResult(ringingIntent, RingingActivity.REQUEST_ALARM_RING);
 
             // Don't restore, since we're about to open a new Activity
@@ -346,181 +520,96 @@ public class MainActivity extends Activity implements View.OnClickListener {
     }
 
     /**
-     * Attempts to restore the timer state from SharedPreferences
+     * Attempts to restore the timer state saved by the TimerEngine
      * @return Whether the state was restored
      */
     private boolean restoreSavedTimer() {
-        long totalTime = sharedPref.getLong("schedTotalTime", 0);
-        if (totalTime < 1) return false; // Means no alarm is saved
-
-        // Get the scheduled ring time (which will only be set if the timer was running)
-        long ringUnixTime = sharedPref.getLong("schedRingTime", 0);
-        // Get the saved time remaining for the paused timer (only set if the timer was paused)
-        long pausedTimeRemaining = sharedPref.getLong("pausedTimeRemaining", 0);
-
-        if (ringUnixTime < 1 && pausedTimeRemaining < 1) return false; // Defensive programming
-
-        // Restore the work state
-        setWorkState(sharedPref.getInt("workState", WORK_STATE_WORKING));
-
-        circleTimer.setTotalTime(totalTime);
-
-        if (ringUnixTime > 0) {
-            // Attempt to restore running timer
-
-            // Convert from Unix / epoch time to elapsedRealtime
-            long timeFromNow = ringUnixTime - System.currentTimeMillis();
-
-            // Check if the timer is scheduled to ring in the future or past
-            if (timeFromNow > 0) {
-                // Ring time is in the future
-                // Update the time label
-                circleTimer.updateTimeLbl(timeFromNow);
-                // Cause startTimer() to treat it like we're resuming (b/c we are)
-                timerState = TIMER_STATE_PAUSED;
-                // Go!
-                startTimer(timeFromNow);
-            } else {
+        switch (engine.restore()) {
+            case TimerEngine.RESTORED_RUNNING:
+                setUIForRunningState();
+                return true;
+            case TimerEngine.RESTORED_PAUSED:
+                circleTimer.setTotalTime(engine.getTotalTime());
+                circleTimer.updateTimeLbl(engine.getRemainingTime());
+                circleTimer.setPassedTime(engine.getTotalTime() - engine.getRemainingTime(), true);
+                // Set UI for paused state
+                setUIForPausedState();
+                resetBtn.setVisibility(View.VISIBLE);
+                skipBtn.setVisibility(View.VISIBLE);
+                return true;
+            case TimerEngine.RESTORED_RING_DUE:
                 // Time past! Ring the alarm.
                 Intent ringingIntent = new Intent(this, RingingActivity.class);
                 startActivityForResult(ringingIntent, RingingActivity.REQUEST_ALARM_RING);
-            }
-        } else {
-            // Attempt to restore paused timer
-
-            circleTimer.updateTimeLbl(pausedTimeRemaining);
-            circleTimer.setPassedTime(totalTime - pausedTimeRemaining, true);
-            // Set UI for paused state
-            timerState = TIMER_STATE_PAUSED;
-            setUIForPausedState();
-            resetBtn.setVisibility(View.VISIBLE);
-            skipBtn.setVisibility(View.VISIBLE);
-        }
-
-        return true;
-    }
-
-    /**
-     * Starts the work or break timer
-     * @param duration The number of milliseconds to run the timer for. If currently paused, this
-     *                 is the remaining time.
-     */
-    @TargetApi(19)
-    private void startTimer(long duration) {
-        // Stop blinking the time and state labels
-        timeLbl.clearAnimation();
-        stateLbl.clearAnimation();
-
-        // Show the "Reset" and "Skip" btns
-        resetBtn.setVisibility(View.VISIBLE);
-        skipBtn.setVisibility(View.VISIBLE);
-
-        // Update the start / stop label
-        startStopLbl.setText(R.string.stop);
-        startStopLbl.setVisibility(View.VISIBLE);
-
-        if (timerState == TIMER_STATE_PAUSED && circleTimer.getTotalTime() > 0) {
-            // We're resuming from a paused state, so calculate how much time is remaining, based
-            //  on the total time set in the circleTimer
-            circleTimer.setPassedTime(circleTimer.getTotalTime() - duration, false);
-        } else {
-            circleTimer.setTotalTime(duration);
-            circleTimer.setPassedTime(0, false);
-            circleTimer.updateTimeLbl(duration);
-            // Record the total duration, so we can resume if the activity is destroyed
-            sharedPref.edit().putLong("schedTotalTime", duration).apply();
-        }
-
-        circleTimer.startIntervalAnimation();
-
-        timerState = TIMER_STATE_RUNNING;
-
-        // Schedule the alarm to go off
-        PendingIntent pi = PendingIntent.getBroadcast(this, ALARM_MANAGER_REQUEST_CODE,
-                new Intent(this, AlarmReceiver.class), PendingIntent.FLAG_UPDATE_CURRENT);
-        long ringTime = SystemClock.elapsedRealtime() + duration;
-        if (Build.VERSION.SDK_INT >= 19) {
-            // API 19 needs setExact()
-            alarmManager.setExact(AlarmManager.ELAPSED_REALTIME_WAKEUP, ringTime, pi);
-        } else {
-            // APIs 1-18 use set()
-            alarmManager.set(AlarmManager.ELAPSED_REALTIME_WAKEUP, ringTime, pi);
+                return true;
+            default:
+                return false;
         }
-        // Show the persistent notification
-        AlarmNotifications.showUpcomingNotification(this, ringTime, getWorkState());
-
-        // Record when the timer will ring and remove record of time remaining for the paused timer.
-        // Save the scheduled ring time using Unix / epoch time, not elapsedRealtime, b/c that is
-        //  reset on each boot.
-        long timeFromNow = ringTime - SystemClock.elapsedRealtime();
-        long ringUnixTime = System.currentTimeMillis() + timeFromNow;
-        sharedPref.edit()
-                .putLong("schedRingTime", ringUnixTime)
-                .remove("pausedTimeRemaining")
-                .apply();
     }
 
     /**
-     * Starts the work or break timer
-     * Calculates the duration automatically, and then calls startTimer(duration)
+     * Starts the work or break timer, or resumes it if it's paused
      */
     private void startTimer() {
-        long duration;
-        if (timerState == TIMER_STATE_PAUSED) {
-            // Timer already started before, so just get the remaining time
-            duration = circleTimer.getRemainingTime();
-
-            // Analytics
-            if (mixpanel != null) {
-                String eventName = getWorkState() == WORK_STATE_WORKING ?
+        boolean resuming = engine.getTimerState() == TIMER_STATE_PAUSED;
+        engine.start();
+        setUIForRunningState();
+
+        // Analytics
+        if (mixpanel != null) {
+            if (resuming) {
+                String eventName = engine.getWorkState() == WORK_STATE_WORKING ?
                         "Work timer resumed" : "Break timer resumed";
                 mixpanel.track(eventName, null);
-            }
-
-        } else {
-            // Get duration from preferences, in minutes
-            if (getWorkState() == WORK_STATE_WORKING) {
-                duration = sharedPref.getInt(TimerDurationsSettingsFragment.KEY_WORK_DURATION, 0);
             } else {
-                duration = sharedPref.getInt(TimerDurationsSettingsFragment.KEY_BREAK_DURATION, 0);
-            }
-
-            // Analytics
-            if (mixpanel != null) {
                 JSONObject props = new JSONObject();
                 try {
-                    props.put("Duration", duration);
+                    props.put("Duration", engine.getTotalTime() / 60000);
                 } catch (JSONException e) {
                     e.printStackTrace();
                 }
-                String eventName = getWorkState() == WORK_STATE_WORKING ?
+                String eventName = engine.getWorkState() == WORK_STATE_WORKING ?
                         "Work timer started" : "Break timer started";
                 mixpanel.track(eventName, props);
             }
-
-            duration *= 60000; // Multiply into milliseconds
         }
+    }
+
+    /**
+     * Sets the UI for the "running" state, and starts the timer animation from the time the
+     *  engine is at
+     */
+    private void setUIForRunningState() {
+        // Stop blinking the time and state labels
+        circleTimer.setTimeLblBlinking(false);
+        stateLbl.clearAnimation();
+
+        // Show the "Reset" and "Skip" btns
+        resetBtn.setVisibility(View.VISIBLE);
+        skipBtn.setVisibility(View.VISIBLE);
+
+        // Update the start / stop label
+        startStopLbl.setText(R.string.stop);
+        startStopLbl.setVisibility(View.VISIBLE);
 
-        startTimer(duration);
+        long totalTime = engine.getTotalTime();
+        circleTimer.setTotalTime(totalTime);
+        circleTimer.setPassedTime(totalTime - engine.getRemainingTime(), false);
+        circleTimer.startIntervalAnimation();
     }
 
     /**
      * Pauses the timer
      */
     private void pauseTimer() {
-        // Record the remaining time, so we can restore if the activity is destroyed
-        sharedPref.edit().putLong("pausedTimeRemaining", circleTimer.getRemainingTime()).apply();
-
-        cancelScheduledAlarm();
+        engine.pause();
         circleTimer.pauseIntervalAnimation();
 
-        timerState = TIMER_STATE_PAUSED;
-
         setUIForPausedState();
 
         // Analytics
         if (mixpanel != null) {
-            String eventName = getWorkState() == WORK_STATE_WORKING ?
+            String eventName = engine.getWorkState() == WORK_STATE_WORKING ?
                     "Work timer paused" : "Break timer paused";
             mixpanel.track(eventName, null);
         }
@@ -536,31 +625,28 @@ public class MainActivity extends Activity implements View.OnClickListener {
 
         // Blink the time and state labels while paused
         Animation blinkAnim = AnimationUtils.loadAnimation(this, R.anim.blink);
-        timeLbl.startAnimation(blinkAnim);
+        circleTimer.setTimeLblBlinking(true);
         stateLbl.startAnimation(blinkAnim);
     }
 
     /**
      * Snoozes the current timer for the duration stored in SharedPreferences
-     *  (but show a toast if activity isn't open)
      */
     private void snoozeTimer() {
-        setWorkState(sharedPref.getInt("workState", WORK_STATE_WORKING)); // Restore the timer state
-        // Get duration from preferences, in minutes
-        int snoozeDuration = sharedPref.getInt(TimerDurationsSettingsFragment.KEY_SNOOZE_DURATION, 0);
-        // Snooze the timer. startTimer() also shows the upcoming notification, which will
+        // Snooze the timer. The engine also shows the upcoming notification, which will
         //  automatically hide the ringing notification, so we don't need to do it manually
-        startTimer(snoozeDuration * 60000); // Multiply into milliseconds
+        engine.snooze();
+        setUIForRunningState();
 
         // Analytics
         if (mixpanel != null) {
             JSONObject props = new JSONObject();
             try {
-                props.put("Duration", snoozeDuration);
+                props.put("Duration", engine.getTotalTime() / 60000);
             } catch (JSONException e) {
                 e.printStackTrace();
             }
-            String eventName = getWorkState() == WORK_STATE_WORKING ?
+            String eventName = engine.getWorkState() == WORK_STATE_WORKING ?
                     "Work timer snoozed" : "Break timer snoozed";
             mixpanel.track(eventName, null);
         }
@@ -570,144 +656,72 @@ public class MainActivity extends Activity implements View.OnClickListener {
      * Skips to the next timer state
      */
     private void skipToNextState() {
-        int oldWorkState = getWorkState();
-        // Record the state we're about to skip from, in case the user chooses to undo
-        Bundle undoStateBundle = new Bundle();
-        undoStateBundle.putLong("totalTime", circleTimer.getTotalTime());
-        undoStateBundle.putLong("remainingTime", circleTimer.getRemainingTime());
-        undoStateBundle.putInt("workState", oldWorkState);
+        // Record the state we're skipping from, in case the user chooses to undo
+        TimerEngine.Snapshot undoState = engine.skip();
+        setUIForRunningState();
 
         String toastMessage = getString(R.string.skip_toast);
-        // Get duration from preferences, in minutes
-        long duration;
-        if (oldWorkState == WORK_STATE_WORKING) {
-            // Means we're skipping to break
-            duration = sharedPref.getInt(TimerDurationsSettingsFragment.KEY_BREAK_DURATION, 0);
-            toastMessage += " break";
-        } else {
-            // Means we're skipping to work
-            duration = sharedPref.getInt(TimerDurationsSettingsFragment.KEY_WORK_DURATION, 0);
-            toastMessage += " work";
-        }
+        toastMessage += engine.getWorkState() == WORK_STATE_BREAKING ? " break" : " work";
 
         // Create and show the undo bar
-        showUndoBar(toastMessage, undoStateBundle, new UndoBarController.UndoListener() {
+        showUndoBar(toastMessage, toBundle(undoState), new UndoBarController.UndoListener() {
             @Override
             public void onUndo(Parcelable parcelable) {
                 if (parcelable == null) return;
 
-                // Extract the saved state from the Parcelable
-                Bundle undoStateBundle = (Bundle) parcelable;
-                long prevTotalTime = undoStateBundle.getLong("totalTime");
-                long prevRemainingTime = undoStateBundle.getLong("remainingTime");
-                int prevWorkState = undoStateBundle.getInt("workState");
-
-                // Cause startTimer() to treat it like we're resuming (b/c we are)
-                timerState = TIMER_STATE_PAUSED;
-                setWorkState(prevWorkState);
-                // Restore to the previous timer state, similar to how we restore a
-                //  running timer from SharedPreferences in onCreate()
-                circleTimer.setTotalTime(prevTotalTime);
-                circleTimer.updateTimeLbl(prevRemainingTime);
-                // Record the total duration, so we can resume if the activity is destroyed
-                sharedPref.edit().putLong("schedTotalTime", prevTotalTime).apply();
-                startTimer(prevRemainingTime);
+                // Restore to the previous timer state
+                engine.undo(fromBundle((Bundle) parcelable));
+                setUIForRunningState();
                 // Analytics
                 if (mixpanel != null) mixpanel.track("Skip undone", null);
             }
         });
 
-        // Set the new state
-        if (oldWorkState == WORK_STATE_WORKING) setWorkState(WORK_STATE_BREAKING);
-        else setWorkState(WORK_STATE_WORKING);
-
-        // We want to start the timer from scratch, not from a paused state
-        timerState = TIMER_STATE_STOPPED;
-        // Start the timer
-        startTimer(duration * 60000); // Multiply into milliseconds
-
         // Analytics
         if (mixpanel != null) {
             JSONObject props = new JSONObject();
             try {
-                props.put("Duration", duration);
+                props.put("Duration", engine.getTotalTime() / 60000);
             } catch (JSONException e) {
                 e.printStackTrace();
             }
-            String eventName = getWorkState() == WORK_STATE_WORKING ?
+            String eventName = engine.getWorkState() == WORK_STATE_WORKING ?
                     "Skipped to work" : "Skipped to break";
             mixpanel.track(eventName, props);
         }
     }
 
     /**
-     * Resets the CircleTimerView and reverts the Activity's UI to its initial state
+     * Resets the timer and reverts the Activity's UI to its initial state
      * @param isTimerComplete Whether the timer is complete
      */
-    private void resetTimerUI(boolean isTimerComplete) {
-        timerState = TIMER_STATE_STOPPED;
+    private void resetTimer(boolean isTimerComplete) {
+        // Record the state we're about to reset from, in case the user chooses to undo
+        TimerEngine.Snapshot undoState = engine.reset(isTimerComplete);
 
         // Reset the UI
-        timeLbl.clearAnimation();
+        circleTimer.setTimeLblBlinking(false);
         stateLbl.clearAnimation();
         resetBtn.setVisibility(View.GONE);
         skipBtn.setVisibility(View.GONE);
-        timeLbl.setText("");
-
-        // Record the state we're about to reset from, in case the user chooses to undo
-        Bundle undoStateBundle = new Bundle();
-        if (isTimerComplete) {
-            undoStateBundle.putLong("totalTime", 0);
-            undoStateBundle.putLong("remainingTime", 0);
-        } else {
-            undoStateBundle.putLong("totalTime", circleTimer.getTotalTime());
-            undoStateBundle.putLong("remainingTime", circleTimer.getRemainingTime());
-        }
-        undoStateBundle.putInt("workState", getWorkState());
-
-        // Back to initial state
-        setWorkState(WORK_STATE_WORKING);
+        circleTimer.clearTimeLbl();
 
         // Update the start / stop label
         startStopLbl.setText(R.string.start);
         startStopLbl.setVisibility(View.VISIBLE);
 
         circleTimer.stopIntervalAnimation();
-        circleTimer.invalidate();
-
-        // Remove record of total timer duration and the time remaining for the paused timer
-        sharedPref.edit().remove("schedTotalTime").remove("pausedTimeRemaining").apply();
 
         // Create and show the undo bar
-        showUndoBar(getString(R.string.reset_toast), undoStateBundle, new UndoBarController.UndoListener() {
+        showUndoBar(getString(R.string.reset_toast), toBundle(undoState),
+                new UndoBarController.UndoListener() {
             @Override
             public void onUndo(Parcelable parcelable) {
                 if (parcelable == null) return;
 
-                // Extract the saved state from the Parcelable
-                Bundle undoStateBundle = (Bundle) parcelable;
-                long prevTotalTime = undoStateBundle.getLong("totalTime");
-                long prevRemainingTime = undoStateBundle.getLong("remainingTime");
-                int prevWorkState = undoStateBundle.getInt("workState");
-                if (prevTotalTime > 0 && prevRemainingTime > 0) {
-                    // Cause startTimer() to treat it like we're resuming (b/c we are)
-                    timerState = TIMER_STATE_PAUSED;
-                    setWorkState(prevWorkState);
-                    // Restore to the previous timer state, similar to how we restore a
-                    //  running timer from SharedPreferences in onCreate()
-                    circleTimer.setTotalTime(prevTotalTime);
-                    circleTimer.updateTimeLbl(prevRemainingTime);
-                    // Record the total duration, so we can resume if the activity is destroyed
-                    sharedPref.edit().putLong("schedTotalTime", prevTotalTime).apply();
-                    startTimer(prevRemainingTime);
-                } else {
-                    // Means the timer was complete when resetTimerUI() was called, so we
-                    //  need to start the timer from the beginning of the next state
-                    if (prevWorkState == WORK_STATE_WORKING)
-                        setWorkState(WORK_STATE_BREAKING);
-                    else setWorkState(WORK_STATE_WORKING);
-                    startTimer();
-                }
+                // Resume the previous timer, or, if it was complete, start the next one
+                engine.undo(fromBundle((Bundle) parcelable));
+                setUIForRunningState();
                 // Analytics
                 if (mixpanel != null) mixpanel.track("Timer reset undone", null);
             }
@@ -715,42 +729,31 @@ public class MainActivity extends Activity implements View.OnClickListener {
     }
 
     /**
-     * Set the timer's work state and update the state label
+     * Update the state label for the timer's work state
      */
-    private void setWorkState(int newState) {
-        _workState = newState;
-
-        // Update the state label
-        if (_workState == WORK_STATE_WORKING) stateLbl.setText(R.string.state_working);
+    private void updateStateLbl(int workState) {
+        if (workState == WORK_STATE_WORKING) stateLbl.setText(R.string.state_working);
         else stateLbl.setText(R.string.state_breaking);
-
-        // Save the work state to shared preferences
-        sharedPref.edit().putInt("workState", _workState).apply();
     }
 
-    /**
-     * The current work state of the timer
-     */
-    private int getWorkState() { return _workState; }
-
     public static int getWorkState(Context context) {
-        return PreferenceManager.getDefaultSharedPreferences(context)
-                .getInt("workState", WORK_STATE_WORKING);
+        return TimerState.open(context).getWorkState();
     }
 
     /**
-     * Cancels the alarm scheduled by startTimer()
+     * Puts the undo state into a Bundle, for the UndoBar
      */
-    private void cancelScheduledAlarm() {
-        // Cancel the AlarmManager
-        PendingIntent pendingIntent = PendingIntent.getBroadcast(this, ALARM_MANAGER_REQUEST_CODE,
-                    new Intent(this, AlarmReceiver.class), PendingIntent.FLAG_UPDATE_CURRENT);
-        alarmManager.cancel(pendingIntent);
-        // Hide the persistent notification
-        AlarmNotifications.hideNotification(this);
-
-        // Remove record of when the timer will ring
-        sharedPref.edit().remove("schedRingTime").apply();
+    private static Bundle toBundle(TimerEngine.Snapshot snapshot) {
+        Bundle bundle = new Bundle();
+        bundle.putInt("workState", snapshot.workState);
+        bundle.putLong("totalTime", snapshot.totalTime);
+        bundle.putLong("remainingTime", snapshot.remainingTime);
+        return bundle;
+    }
+
+    private static TimerEngine.Snapshot fromBundle(Bundle bundle) {
+        return new TimerEngine.Snapshot(bundle.getInt("workState"), bundle.getLong("totalTime"),
+                bundle.getLong("remainingTime"));
     }
 
     /**
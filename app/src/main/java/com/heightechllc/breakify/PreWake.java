@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify;
+
+import android.content.Context;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+
+import com.heightechllc.breakify.preferences.AlarmSettingsFragment;
+
+/**
+ * Wakes the app up a few seconds before the work / break timer ends, so it's warm when the alarm
+ *  rings: the saved state and the preferences are loaded, the tone is loaded into an AudioTrack by
+ *  {@link AlarmRinger#prepare(Context)}, and a short wake lock keeps the device from going back
+ *  to sleep. The alarm itself then only has to start the playback.
+ * The pre-wake is a named timer in {@link TimerAlarms}, so it shares the timer's AlarmManager
+ *  alarm.
+ */
+public class PreWake {
+    /**
+     * The name of the pre-wake timer in TimerAlarms. Starts with a character the dump commands
+     *  can't type, so it can't clash with a user's timer.
+     */
+    public static final String TIMER_NAME = "\u0000pre-wake";
+
+    /**
+     * How long before the timer ends to wake up
+     */
+    public static final long LEAD_TIME = 5000;
+
+    /**
+     * How long to hold the wake lock, enough to get from the pre-wake to the ringing
+     */
+    private static final long WAKE_LOCK_TIMEOUT = LEAD_TIME + 5000;
+
+    private static PowerManager.WakeLock wakeLock;
+
+    /**
+     * Whether the process was woken up for the next alarm, for the latency log
+     */
+    private static boolean warm;
+
+    public static boolean isEnabled(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context)
+                .getBoolean(AlarmSettingsFragment.KEY_PRE_WAKE, false);
+    }
+
+    /**
+     * Schedules the pre-wake for the timer, if it's enabled and there's enough time left
+     * @param ringTime When the timer will ring, in `SystemClock.elapsedRealtime()` time
+     */
+    public static void schedule(Context context, long ringTime) {
+        long wakeTime = ringTime - LEAD_TIME;
+        if (isEnabled(context) && wakeTime > SystemClock.elapsedRealtime())
+            TimerAlarms.get(context).set(TIMER_NAME, wakeTime);
+        else
+            // Keep anything that was already prepared, in case it's too late for a new pre-wake
+            TimerAlarms.get(context).remove(TIMER_NAME);
+    }
+
+    /**
+     * Cancels the pre-wake, and lets go of anything it prepared
+     */
+    public static void cancel(Context context) {
+        TimerAlarms.get(context).remove(TIMER_NAME);
+        release();
+    }
+
+    /**
+     * Warms up the app for the alarm. Called by AlarmReceiver when the pre-wake is due.
+     */
+    public static void warm(Context context) {
+        if (wakeLock == null) {
+            PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+            wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "Breakify:PreWake");
+            wakeLock.setReferenceCounted(false);
+        }
+        wakeLock.acquire(WAKE_LOCK_TIMEOUT);
+
+        // Load the saved state and the preferences, which AlarmReceiver and RingingActivity read
+        TimerState.open(context).getWorkState();
+        isEnabled(context);
+
+        AlarmRinger.prepare(context);
+        warm = true;
+    }
+
+    /**
+     * Whether the app was warmed up for the alarm that's ringing now. Clears the flag, since it's
+     *  only for the next alarm.
+     */
+    public static boolean consumeWarm() {
+        boolean wasWarm = warm;
+        warm = false;
+        return wasWarm;
+    }
+
+    /**
+     * Lets go of the wake lock and the prepared tone, e.g. when the timer is paused after the
+     *  pre-wake
+     */
+    private static void release() {
+        if (wakeLock != null && wakeLock.isHeld()) wakeLock.release();
+        if (warm) AlarmRinger.releasePrepared();
+        warm = false;
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.heightechllc.breakify.engine.TimerEngine;
+import com.heightechllc.breakify.preferences.TimerDurationsSettingsFragment;
+
+/**
+ * Reads the interval durations for the TimerEngine from the user's preferences
+ */
+public class PrefsDurations implements TimerEngine.Durations {
+    private final SharedPreferences sharedPref;
+
+    public PrefsDurations(Context context) {
+        sharedPref = PreferenceManager.getDefaultSharedPreferences(context);
+    }
+
+    // The durations are stored in minutes
+
+    @Override
+    public long getWorkDuration() {
+        return sharedPref.getInt(TimerDurationsSettingsFragment.KEY_WORK_DURATION, 0) * 60000L;
+    }
+
+    @Override
+    public long getBreakDuration() {
+        return sharedPref.getInt(TimerDurationsSettingsFragment.KEY_BREAK_DURATION, 0) * 60000L;
+    }
+
+    @Override
+    public long getSnoozeDuration() {
+        return sharedPref.getInt(TimerDurationsSettingsFragment.KEY_SNOOZE_DURATION, 0) * 60000L;
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.heightechllc.breakify.engine.TimerStateStore;
+
+/**
+ * Saves the timer's state in the default SharedPreferences, where older versions saved it. All the
+ *  fields are written with a single editor, so a transition only rewrites the preferences file
+ *  once.
+ * Only used by {@link TimerState}, to migrate the state to the journal.
+ */
+public class PrefsTimerStore implements TimerStateStore.Backend {
+    public static final String KEY_WORK_STATE = "workState";
+    public static final String KEY_TOTAL_TIME = "schedTotalTime";
+    public static final String KEY_RING_TIME = "schedRingTime";
+    public static final String KEY_PAUSED_TIME_REMAINING = "pausedTimeRemaining";
+
+    private final SharedPreferences sharedPref;
+
+    public PrefsTimerStore(Context context) {
+        sharedPref = PreferenceManager.getDefaultSharedPreferences(context);
+    }
+
+    @Override
+    public TimerStateStore.State read() {
+        TimerStateStore.State state = new TimerStateStore.State();
+        state.workState = sharedPref.getInt(KEY_WORK_STATE, 0);
+        state.totalTime = sharedPref.getLong(KEY_TOTAL_TIME, 0);
+        state.ringTime = sharedPref.getLong(KEY_RING_TIME, 0);
+        state.pausedTimeRemaining = sharedPref.getLong(KEY_PAUSED_TIME_REMAINING, 0);
+        return state;
+    }
+
+    @Override
+    public void write(TimerStateStore.State state, int transition) {
+        SharedPreferences.Editor editor = sharedPref.edit();
+        if (state.workState == 0) editor.remove(KEY_WORK_STATE);
+        else editor.putInt(KEY_WORK_STATE, state.workState);
+        putOrRemove(editor, KEY_TOTAL_TIME, state.totalTime);
+        putOrRemove(editor, KEY_RING_TIME, state.ringTime);
+        putOrRemove(editor, KEY_PAUSED_TIME_REMAINING, state.pausedTimeRemaining);
+        editor.apply();
+    }
+
+    /**
+     * Stores the value, or removes the key if the value is 0, so the readers can tell that
+     *  there's nothing stored
+     */
+    private static void putOrRemove(SharedPreferences.Editor editor, String key, long value) {
+        if (value == 0)
+            editor.remove(key);
+        else
+            editor.putLong(key, value);
+    }
+}
@@ -17,27 +17,22 @@
 
 package com.heightechllc.breakify;
 
-import android.annotation.TargetApi;
-import android.app.AlarmManager;
-import android.app.PendingIntent;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
-import android.os.Build;
 import android.os.SystemClock;
-import android.preference.PreferenceManager;
+
+import com.heightechllc.breakify.engine.TimerStateStore;
 
 // Note: This can be tested using:
 // `adb shell am broadcast -a "android.intent.action.BOOT_COMPLETED" -n com.heightechllc.breakify/.RescheduleReceiver`
 
 /**
  * BroadcastReceiver for BOOT_COMPLETED, TIME_SET and TIMEZONE_CHANGED, to re-schedule the
- *  AlarmManagers from the values in SharedPreferences. (All alarms in AlarmManager are
- *  cancelled when the system shuts down.)
+ *  AlarmManagers from the saved timer state and {@link TimerAlarms}. (All alarms in AlarmManager
+ *  are cancelled when the system shuts down.)
  */
 public class RescheduleReceiver extends BroadcastReceiver {
-    @TargetApi(19)
     @Override
     public void onReceive(Context context, Intent intent) {
         // Reschedule the Scheduled Start. We need to do this on all the Intent actions, since
@@ -45,49 +40,38 @@ public class RescheduleReceiver extends BroadcastReceiver {
         //  (which isn't effected by time changes).
         ScheduledStart.schedule(context);
 
+        // Check the alarm tone again, in case it was removed, e.g. from storage that isn't
+        //  mounted anymore
+        if (intent.getAction().equals(Intent.ACTION_BOOT_COMPLETED))
+            RingtoneResolver.update(context);
+
         //
-        // Get the saved alarm from SharedPreferences, and schedule it with AlarmManager
+        // Get the saved alarms, and schedule them with AlarmManager
         //
 
         // Only restore the saved timer on system boot
         if (!intent.getAction().equals(Intent.ACTION_BOOT_COMPLETED)) return;
 
+        // Loading the saved timers arms the alarm for the earliest one. Timers that were due while
+        //  the system was off go off right away.
+        TimerAlarms alarms = TimerAlarms.get(context);
+
         // Get the scheduled ring time (which will only be set if the timer was running)
-        SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(context);
-        long ringUnixTime = sharedPref.getLong("schedRingTime", 0);
+        TimerStateStore store = TimerState.open(context);
+        long ringUnixTime = store.getRingTime();
         if (ringUnixTime < 1) return; // Means no alarm is saved
         // We need to convert from Unix / epoch time to elapsedRealtime
         long timeFromNow = ringUnixTime - System.currentTimeMillis();
 
         if (timeFromNow < 0) {
-            // Time is already up, so ring the alarm immediately
-            context.sendBroadcast(new Intent(context, AlarmReceiver.class));
+            // Time is already up. If the timer wasn't saved with the other timers (e.g. by an
+            //  older version), ring the alarm immediately.
+            if (alarms.getDeadline(TimerAlarms.MAIN_TIMER) == 0)
+                context.sendBroadcast(new Intent(context, AlarmReceiver.class));
         } else {
-            // Construct a PendingIntent for the AlarmManager to run when the time is up
-            PendingIntent pi = PendingIntent.getBroadcast(
-                    context,
-                    MainActivity.ALARM_MANAGER_REQUEST_CODE,
-                    new Intent(context, AlarmReceiver.class),
-                    PendingIntent.FLAG_UPDATE_CURRENT
-            );
-
-            // Schedule the alarm to go off
-            long scheduledRingTime = SystemClock.elapsedRealtime() + timeFromNow;
-            AlarmManager alarmManager = (AlarmManager)
-                    context.getSystemService(Context.ALARM_SERVICE);
-            if (Build.VERSION.SDK_INT >= 19) {
-                // API 19 needs setExact()
-                alarmManager.setExact(AlarmManager.ELAPSED_REALTIME_WAKEUP, scheduledRingTime, pi);
-            } else {
-                // APIs 1-18 use set()
-                alarmManager.set(AlarmManager.ELAPSED_REALTIME_WAKEUP, scheduledRingTime, pi);
-            }
-            // Show the persistent notification
-            AlarmNotifications.showUpcomingNotification(
-                    context,
-                    scheduledRingTime,
-                    sharedPref.getInt("workState", MainActivity.WORK_STATE_WORKING)
-            );
+            // Schedule the alarm, and show the persistent notification
+            new AlarmManagerScheduler(context).schedule(
+                    SystemClock.elapsedRealtime() + timeFromNow, store.getWorkState());
         }
     }
 }
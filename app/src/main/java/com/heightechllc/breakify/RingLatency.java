@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import com.heightechllc.breakify.engine.LatencyLog;
+
+import java.io.File;
+import java.util.concurrent.Executors;
+
+/**
+ * The app's {@link LatencyLog}, which records how long each stage of the ring path took for the
+ *  recent alarms, from the deadline to the first sound. Shown by `dumpsys activity` on MainActivity
+ *  and by LatencyActivity.
+ * Marking a stage only records the time in memory; each alarm is saved once, on a background
+ *  thread, so the measurements don't add disk I/O to the path they measure.
+ */
+public class RingLatency {
+    private static final String FILE_NAME = "ring_latency";
+
+    private static LatencyLog log;
+
+    public static synchronized LatencyLog get(Context context) {
+        if (log == null)
+            log = new LatencyLog(new File(context.getApplicationContext().getFilesDir(),
+                    FILE_NAME), Executors.newSingleThreadExecutor());
+        return log;
+    }
+
+    /**
+     * Records that the alarm that's ringing reached the stage now
+     * @param stage One of the `LatencyLog.STAGE_` constants
+     */
+    public static void mark(Context context, int stage) {
+        get(context).mark(stage, SystemClock.elapsedRealtime());
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify;
+
+import android.content.Context;
+import android.content.Intent;
+import android.support.v4.content.LocalBroadcastManager;
+
+import com.heightechllc.breakify.engine.TimerEngine;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Applies the user's choice in RingingActivity (OK, snooze or cancel) to the timer, when
+ *  RingingActivity was opened directly by AlarmReceiver and there's no MainActivity to return a
+ *  result to. Does the same as MainActivity's onActivityResult(), without any UI.
+ */
+public class RingResultHandler {
+    /**
+     * Applies the result
+     * @param resultCode One of the RingingActivity.RESULT_ALARM_RING_ constants
+     */
+    public static void apply(Context context, int resultCode) {
+        TimerEngine engine = AlarmReceiver.createEngine(context);
+        // Restore the work state of the interval that just ended
+        engine.reloadWorkState();
+        int workState = engine.getWorkState();
+
+        switch (resultCode) {
+            case RingingActivity.RESULT_ALARM_RING_OK:
+                // Start the timer for the next state
+                engine.startNextState();
+                break;
+            case RingingActivity.RESULT_ALARM_RING_SNOOZE:
+                // Also shows the upcoming notification
+                engine.snooze();
+                trackSnooze(engine);
+                break;
+            case RingingActivity.RESULT_ALARM_RING_CANCEL:
+                engine.reset(true);
+                // Analytics
+                if (MainActivity.mixpanel != null) {
+                    String eventName = workState == MainActivity.WORK_STATE_WORKING ?
+                            "Work timer cancelled" : "Break timer cancelled";
+                    MainActivity.mixpanel.track(eventName, null);
+                }
+        }
+
+        // Let a MainActivity that's already open show the change
+        LocalBroadcastManager.getInstance(context)
+                .sendBroadcast(new Intent(AlarmReceiver.ACTION_TIMER_ADVANCED));
+    }
+
+    /**
+     * Tracks the snooze in the analytics, like MainActivity does
+     */
+    private static void trackSnooze(TimerEngine engine) {
+        if (MainActivity.mixpanel == null) return;
+
+        JSONObject props = new JSONObject();
+        try {
+            props.put("Duration", engine.getTotalTime() / 60000);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        String eventName = engine.getWorkState() == MainActivity.WORK_STATE_WORKING ?
+                "Work timer snoozed" : "Break timer snoozed";
+        MainActivity.mixpanel.track(eventName, props);
+    }
+}
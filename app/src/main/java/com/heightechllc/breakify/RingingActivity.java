@@ -19,9 +19,7 @@ package com.heightechllc.breakify;
 
 import android.app.Activity;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.os.Bundle;
-import android.preference.PreferenceManager;
 import android.support.annotation.NonNull;
 import android.view.KeyEvent;
 import android.view.View;
@@ -29,8 +27,14 @@ import android.view.WindowManager;
 import android.widget.Button;
 import android.widget.TextView;
 
+import com.heightechllc.breakify.engine.LatencyLog;
+import com.heightechllc.breakify.engine.TimerStateStore;
+import com.heightechllc.breakify.engine.TimerStore;
+
 /**
  * Activity displayed when the time is up. Plays ringtone and vibrates using AlarmRinger.
+ * It's either started for a result by MainActivity, or, when the alarm goes off, directly by
+ *  AlarmReceiver, in which case the result is applied by RingResultHandler.
  */
 public class RingingActivity extends Activity implements View.OnClickListener {
     public static int REQUEST_ALARM_RING = 200;
@@ -38,9 +42,16 @@ public class RingingActivity extends Activity implements View.OnClickListener {
     public static final int RESULT_ALARM_RING_CANCEL = RESULT_CANCELED;
     public static final int RESULT_ALARM_RING_SNOOZE = RESULT_FIRST_USER;
 
+    /**
+     * Extra to inform the Activity that it was started directly by AlarmReceiver, so there's no
+     *  MainActivity to return the result to
+     */
+    public static final String EXTRA_DIRECT = "com.heightechllc.breakify.DirectRing";
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        RingLatency.mark(this, LatencyLog.STAGE_RINGING_ACTIVITY);
         setContentView(R.layout.activity_ringing);
 
         // Set window flags
@@ -79,7 +90,15 @@ public class RingingActivity extends Activity implements View.OnClickListener {
             // Start ringing and / or vibrating (we do this here instead of in the broadcast
             //  receiver b/c we don't want the device to start ringing and vibrating before the
             //  activity shows up (in case there's a delay opening the activity, e.g. a slow device)
-            AlarmRinger.start(this);
+            // The ringtone starts playing asynchronously, so AlarmRinger logs the latency when
+            //  it does
+            long receivedTime = getIntent().getLongExtra(AlarmReceiver.EXTRA_RECEIVED_TIME, 0);
+            if (receivedTime > 0) {
+                AlarmRinger.start(this, isDirect() ? "Alarm started directly" :
+                        "Alarm started through MainActivity", receivedTime);
+            } else {
+                AlarmRinger.start(this);
+            }
         }
     }
 
@@ -117,14 +136,27 @@ public class RingingActivity extends Activity implements View.OnClickListener {
         }
 
         // Remove the preferences that store when the alarm is scheduled to ring
-        SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(this);
-        sharedPref.edit().remove("schedTotalTime").remove("schedRingTime").apply();
+        TimerStateStore store = TimerState.open(this);
+        store.setTotalTime(0);
+        store.setRingTime(0);
+        store.commit(TimerStore.TRANSITION_RING);
 
         // No need to stop alarm here, b/c it's stopped by onUserInteraction()
 
         // Hide the ring notification
         AlarmNotifications.hideNotification(this);
 
+        // Apply the result here if there's no MainActivity to return it to, and then bring
+        //  MainActivity forward (or open it), so the user sees the change instead of the launcher
+        if (isDirect()) {
+            RingResultHandler.apply(this, result);
+            Intent mainIntent = new Intent(this, MainActivity.class);
+            mainIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK |
+                                Intent.FLAG_ACTIVITY_CLEAR_TOP |
+                                Intent.FLAG_ACTIVITY_SINGLE_TOP);
+            startActivity(mainIntent);
+        }
+
         // Return the result
         setResult(result);
         finish();
@@ -151,4 +183,11 @@ public class RingingActivity extends Activity implements View.OnClickListener {
                 return super.onKeyUp(keyCode, event);
         }
     }
+
+    /**
+     * Whether the Activity was started directly by AlarmReceiver
+     */
+    private boolean isDirect() {
+        return getIntent().getBooleanExtra(EXTRA_DIRECT, false);
+    }
 }
@@ -0,0 +1,142 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.media.MediaMetadataRetriever;
+import android.media.RingtoneManager;
+import android.net.Uri;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.heightechllc.breakify.preferences.AlarmSettingsFragment;
+
+/**
+ * Checks ahead of time that the selected alarm tone can be played, and finds a fallback that can
+ *  be if it can't, so AlarmRinger never has to find out when the alarm rings.
+ * The tone is resolved in the background when it's selected, after CustomAlarmTones installs the
+ *  bundled tones, when the app starts and on boot. The resolved URI is saved in the
+ *  SharedPreferences along with the selection it was resolved from, and then decoded by ToneCache.
+ */
+public class RingtoneResolver {
+    private static final String PREF_KEY_RESOLVED_FROM = "pref_key_ringtone_resolved_from";
+    private static final String PREF_KEY_RESOLVED = "pref_key_ringtone_resolved";
+
+    private static final String tag = "RingtoneResolver";
+
+    /**
+     * Resolves the selected tone, and updates the ToneCache, in a separate thread
+     */
+    public static void update(Context context) {
+        final Context appContext = context.getApplicationContext();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                String uriStr = resolve(appContext);
+                ToneCache.update(appContext, uriStr);
+            }
+        }, tag).start();
+    }
+
+    /**
+     * Gets the URI of the tone to play
+     * @return The resolved URI, or, if the selected tone wasn't resolved yet, the selected URI. An
+     *  empty string if there's nothing to play.
+     */
+    public static String getPlayableUri(Context context) {
+        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String selected = sharedPrefs.getString(AlarmSettingsFragment.KEY_RINGTONE, "");
+        if (selected.equals(sharedPrefs.getString(PREF_KEY_RESOLVED_FROM, null)))
+            return sharedPrefs.getString(PREF_KEY_RESOLVED, selected);
+        return selected;
+    }
+
+    //
+    // Helpers
+    //
+
+    /**
+     * Checks the selected tone, and falls back to the default alarm tone, and then to any other
+     *  alarm tone, if it can't be played. Saves the result.
+     * @return The resolved URI, or an empty string if the selection is "None" or nothing can be
+     *  played
+     */
+    private static synchronized String resolve(Context context) {
+        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String selected = sharedPrefs.getString(AlarmSettingsFragment.KEY_RINGTONE, "");
+
+        String resolved;
+        if (selected.isEmpty() || isPlayable(context, Uri.parse(selected))) {
+            resolved = selected;
+        } else {
+            Log.e(tag, "Selected tone can't be played: " + selected);
+            resolved = findFallback(context);
+        }
+
+        sharedPrefs.edit()
+                .putString(PREF_KEY_RESOLVED_FROM, selected)
+                .putString(PREF_KEY_RESOLVED, resolved)
+                .apply();
+        return resolved;
+    }
+
+    /**
+     * Finds an alarm tone that can be played: the system's default one, or else the first one
+     *  that works
+     * @return The URI of the tone, or an empty string if there's none
+     */
+    private static String findFallback(Context context) {
+        Uri defaultUri = RingtoneManager.getActualDefaultRingtoneUri(context,
+                RingtoneManager.TYPE_ALARM);
+        if (defaultUri != null && isPlayable(context, defaultUri)) return defaultUri.toString();
+
+        RingtoneManager ringtoneManager = new RingtoneManager(context);
+        ringtoneManager.setType(RingtoneManager.TYPE_ALARM);
+        Cursor cursor = ringtoneManager.getCursor();
+        try {
+            while (cursor.moveToNext()) {
+                Uri uri = ringtoneManager.getRingtoneUri(cursor.getPosition());
+                if (isPlayable(context, uri)) return uri.toString();
+            }
+        } finally {
+            cursor.close();
+        }
+
+        Log.e(tag, "No alarm tone can be played");
+        return "";
+    }
+
+    /**
+     * Checks that the URI points to something with audio that the media framework can read
+     */
+    private static boolean isPlayable(Context context, Uri uri) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(context, uri);
+            return "yes".equals(
+                    retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_HAS_AUDIO));
+        } catch (RuntimeException e) {
+            // Thrown if the URI can't be opened or read
+            return false;
+        } finally {
+            retriever.release();
+        }
+    }
+}
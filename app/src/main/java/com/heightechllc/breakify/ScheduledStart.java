@@ -180,7 +180,7 @@ public class ScheduledStart {
 
         // Disabled the RescheduleReceiver if a timer isn't running
         int enabledState;
-        if (PreferenceManager.getDefaultSharedPreferences(c).getLong("schedRingTime", 0) != 0)
+        if (TimerState.open(c).getRingTime() != 0)
             enabledState = PackageManager.COMPONENT_ENABLED_STATE_ENABLED;
         else
             enabledState = PackageManager.COMPONENT_ENABLED_STATE_DISABLED;
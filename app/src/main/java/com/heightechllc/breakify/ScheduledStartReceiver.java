@@ -20,8 +20,6 @@ package com.heightechllc.breakify;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
-import android.preference.PreferenceManager;
 
 /**
  * The BroadcastReceiver that is notified when it's time for a scheduled start
@@ -30,8 +28,7 @@ public class ScheduledStartReceiver extends BroadcastReceiver {
     @Override
     public void onReceive(Context context, Intent intent) {
         // Check if the timer is already running
-        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
-        if (sharedPrefs.getLong("schedRingTime", 0) == 0) {
+        if (TimerState.open(context).getRingTime() == 0) {
 
             // Open MainActivity and add the extra to tell it that this is a scheduled start
             Intent mainIntent = new Intent(context, MainActivity.class);
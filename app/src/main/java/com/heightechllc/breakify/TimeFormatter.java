@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify;
+
+/**
+ * Formats time values for the timer display without allocating any objects, by writing the
+ *  digits straight into a reusable char array. Use the result with
+ *  {@link android.widget.TextView#setText(char[], int, int)}.
+ */
+public class TimeFormatter {
+    /**
+     * The size of the char array that {@link #format(long, char[])} needs. Enough for the largest
+     *  possible number of hours, plus ":MM:SS".
+     */
+    public static final int BUFFER_SIZE = 24;
+
+    /**
+     * Writes a time value into `out`, in the format Min:Sec, e.g. 06:13, or Hours:Min:Sec if there
+     *  are any hours, e.g. 1:06:13
+     *
+     * @param seconds The number of seconds in the time. Negative values are treated as 0.
+     * @param out The array to write the characters into. Must be at least {@link #BUFFER_SIZE}.
+     * @return The number of characters written, starting at index 0
+     */
+    public static int format(long seconds, char[] out) {
+        if (seconds < 0) seconds = 0;
+
+        long hours = seconds / 3600;
+        int minutes = (int) (seconds / 60 % 60);
+        int secs = (int) (seconds % 60);
+
+        int pos = 0;
+
+        // Start with hours, if there are any
+        if (hours > 0) {
+            // Count the digits, so we can write them from left to right
+            int numDigits = 1;
+            for (long h = hours / 10; h > 0; h /= 10) numDigits++;
+
+            for (int i = numDigits - 1; i >= 0; i--) {
+                out[pos + i] = (char) ('0' + hours % 10);
+                hours /= 10;
+            }
+            pos += numDigits;
+            out[pos++] = ':';
+        }
+
+        // Now the minutes and seconds, always 2 digits each
+        out[pos++] = (char) ('0' + minutes / 10);
+        out[pos++] = (char) ('0' + minutes % 10);
+        out[pos++] = ':';
+        out[pos++] = (char) ('0' + secs / 10);
+        out[pos++] = (char) ('0' + secs % 10);
+
+        return pos;
+    }
+}
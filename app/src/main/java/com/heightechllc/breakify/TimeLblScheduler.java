@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Updates the time label exactly when the displayed second changes, independently of the frames
+ *  of the arc animation. Posts one message per second, aligned to the start of the interval, and
+ *  nothing in between.
+ * Each tick calculates the next second boundary from the clock again, instead of just adding a
+ *  second, so late ticks don't add up.
+ * Must be used on the UI thread.
+ */
+public class TimeLblScheduler {
+    /**
+     * Receives the ticks
+     */
+    public interface Callback {
+        /**
+         * Called on the UI thread when the displayed second changes, and when the scheduler is
+         *  started
+         * @param remainingMillis The number of milliseconds remaining in the interval
+         */
+        void onTimeLblTick(long remainingMillis);
+    }
+
+    private final Callback callback;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable tickRunnable = new Runnable() {
+        @Override
+        public void run() {
+            tick();
+        }
+    };
+
+    /**
+     * The SystemClock.elapsedRealtime() at which no time had passed in the interval, i.e. the
+     *  interval's start time minus any time accumulated before it was paused
+     */
+    private long baseTime;
+    private long totalTime;
+    private boolean running;
+
+    public TimeLblScheduler(Callback callback) {
+        this.callback = callback;
+    }
+
+    /**
+     * Starts ticking, with the first tick right away. Restarts it if it's already running.
+     * @param baseTime The SystemClock.elapsedRealtime() at which no time had passed in the
+     *                 interval
+     * @param totalTime The total time of the interval
+     */
+    public void start(long baseTime, long totalTime) {
+        this.baseTime = baseTime;
+        this.totalTime = totalTime;
+        running = true;
+
+        handler.removeCallbacks(tickRunnable);
+        tick();
+    }
+
+    /**
+     * Stops ticking. The label keeps the last time it was updated with.
+     */
+    public void stop() {
+        running = false;
+        handler.removeCallbacks(tickRunnable);
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void tick() {
+        if (!running) return;
+
+        long remaining = totalTime - (SystemClock.elapsedRealtime() - baseTime);
+        callback.onTimeLblTick(remaining);
+
+        // Nothing left to count down
+        if (remaining <= 0) {
+            running = false;
+            return;
+        }
+
+        // The label shows `remaining / 1000 + 1` seconds, so it changes one millisecond after the
+        //  remaining time reaches a whole second
+        long nextTickTime = baseTime + totalTime - (remaining / 1000) * 1000 + 1;
+
+        // Handler works with uptime, not elapsed realtime, so convert using the current offset
+        //  between the two
+        long delay = nextTickTime - SystemClock.elapsedRealtime();
+        handler.postAtTime(tickRunnable, SystemClock.uptimeMillis() + Math.max(delay, 0));
+    }
+}
@@ -0,0 +1,283 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify;
+
+import android.annotation.TargetApi;
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.SystemClock;
+
+import com.heightechllc.breakify.engine.NamedTimers;
+import com.heightechllc.breakify.engine.TimerQueue;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The named timers that run alongside each other, e.g. the work / break timer and a laundry timer,
+ *  all sharing the one AlarmManager alarm that AlarmReceiver receives. Only the earliest deadline
+ *  is armed, so adding timers doesn't add system alarms or wakeups.
+ * The deadlines are saved in a small file, so they survive the process being killed and the system
+ *  rebooting. They're saved in `SystemClock.elapsedRealtime()` time along with an identifier of
+ *  the boot, and only converted through the wall clock after a reboot, so changing the clock
+ *  doesn't move them.
+ * Only use it from the main thread.
+ */
+public class TimerAlarms {
+    /**
+     * The name of the work / break timer
+     */
+    public static final String MAIN_TIMER = "";
+
+    private static final String FILE_NAME = "named_timers";
+
+    /**
+     * Starts the file, so the format before the boot identifier was saved (which started with the
+     *  number of timers) can still be read
+     */
+    private static final int MAGIC = 0x42524b41; // "BRKA"
+
+    /**
+     * A random identifier that the kernel generates on each boot
+     */
+    private static final String BOOT_ID_FILE = "/proc/sys/kernel/random/boot_id";
+
+    private static TimerAlarms instance;
+
+    private final NamedTimers timers;
+    private final File file;
+
+    /**
+     * The identifier of the current boot, or an empty string if it can't be read
+     */
+    private String bootId;
+
+    /**
+     * Gets the process's TimerAlarms. The first time, the saved timers are loaded, and the alarm
+     *  is armed for the earliest one.
+     */
+    public static TimerAlarms get(Context context) {
+        if (instance == null) instance = new TimerAlarms(context.getApplicationContext());
+        return instance;
+    }
+
+    private TimerAlarms(final Context context) {
+        final AlarmManager alarmManager =
+                (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        final PendingIntent pi = PendingIntent.getBroadcast(context,
+                MainActivity.ALARM_MANAGER_REQUEST_CODE, new Intent(context, AlarmReceiver.class),
+                PendingIntent.FLAG_UPDATE_CURRENT);
+
+        timers = new NamedTimers(new NamedTimers.Alarm() {
+            @TargetApi(19)
+            @Override
+            public void arm(long time) {
+                if (Build.VERSION.SDK_INT >= 19) {
+                    // API 19 needs setExact()
+                    alarmManager.setExact(AlarmManager.ELAPSED_REALTIME_WAKEUP, time, pi);
+                } else {
+                    // APIs 1-18 use set()
+                    alarmManager.set(AlarmManager.ELAPSED_REALTIME_WAKEUP, time, pi);
+                }
+            }
+
+            @Override
+            public void cancel() {
+                alarmManager.cancel(pi);
+            }
+        });
+
+        file = new File(context.getFilesDir(), FILE_NAME);
+        load();
+    }
+
+    /**
+     * Adds a timer, or changes its deadline if there's already a timer with the name
+     * @param deadline When the timer is due, in `SystemClock.elapsedRealtime()` time
+     */
+    public void set(String name, long deadline) {
+        timers.set(name, deadline);
+        save();
+    }
+
+    /**
+     * Removes the timer, if there is one with the name
+     */
+    public void remove(String name) {
+        if (timers.getQueue().getDeadline(name) == 0) return;
+        timers.remove(name);
+        save();
+    }
+
+    /**
+     * Called when the alarm goes off. Removes the timers that are due, and arms the alarm for the
+     *  next one.
+     * @param due The names of the timers that are due are added to this, earliest first
+     */
+    public void onAlarm(List<String> due) {
+        if (timers.onAlarm(SystemClock.elapsedRealtime(), due) > 0) save();
+    }
+
+    /**
+     * The deadline of the timer, in `SystemClock.elapsedRealtime()` time, or 0 if there's no timer
+     *  with the name
+     */
+    public long getDeadline(String name) {
+        return timers.getQueue().getDeadline(name);
+    }
+
+    /**
+     * The timers, e.g. to list them. Don't change it directly.
+     */
+    public TimerQueue getTimers() {
+        return timers.getQueue();
+    }
+
+    /**
+     * The number of times the alarm was armed or cancelled by this process
+     */
+    public int getArmCount() {
+        return timers.getArmCount();
+    }
+
+    //
+    // Helpers
+    //
+
+    /**
+     * Loads the saved timers, and arms the alarm. The deadlines are only converted through the
+     *  wall clock if the system was rebooted since they were saved.
+     */
+    private void load() {
+        if (!file.exists()) return;
+
+        long now = SystemClock.elapsedRealtime();
+        long bootTime = System.currentTimeMillis() - now;
+        try {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)));
+            try {
+                int count = in.readInt();
+                // How much to add to the saved deadlines to get this boot's elapsedRealtime
+                long offset;
+                if (count == MAGIC) {
+                    String savedBootId = in.readUTF();
+                    long savedTime = in.readLong();
+                    long savedBootTime = in.readLong();
+                    count = in.readInt();
+                    offset = isSameBoot(savedBootId, savedTime, now) ? 0 :
+                            savedBootTime - bootTime;
+                } else {
+                    // The old format, with the deadlines in Unix / epoch time
+                    offset = -bootTime;
+                }
+                for (int i = 0; i < count; i++) {
+                    String name = in.readUTF();
+                    long deadline = in.readLong() + offset;
+                    // A deadline that passed while the system was off is due right away
+                    timers.load(name, Math.max(deadline, 1));
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        // Arm the alarm, in case the system cancelled it, e.g. on reboot. Re-arming a PendingIntent
+        //  replaces the alarm, so this never adds one.
+        timers.forceRearm();
+    }
+
+    /**
+     * Saves the timers, with the deadlines in elapsedRealtime, and with the boot they belong to
+     *  and the boot's wall clock time, for converting them after a reboot. Written to a temporary
+     *  file that then replaces the old one, so a killed write doesn't lose the timers.
+     */
+    private void save() {
+        TimerQueue queue = timers.getQueue();
+        long now = SystemClock.elapsedRealtime();
+        File tempFile = new File(file.getPath() + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tempFile)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeUTF(getBootId());
+                out.writeLong(now);
+                out.writeLong(System.currentTimeMillis() - now);
+                out.writeInt(queue.size());
+                for (int i = 0; i < queue.size(); i++) {
+                    out.writeUTF(queue.getNameAt(i));
+                    out.writeLong(queue.getDeadlineAt(i));
+                }
+            } finally {
+                out.close();
+            }
+            if (!tempFile.renameTo(file)) throw new IOException("Couldn't replace " + file);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Whether the timers were saved during the current boot
+     * @param savedBootId The boot identifier that was saved
+     * @param savedTime The elapsedRealtime when they were saved
+     * @param now The current elapsedRealtime
+     */
+    private boolean isSameBoot(String savedBootId, long savedTime, long now) {
+        String bootId = getBootId();
+        if (!bootId.isEmpty() && !savedBootId.isEmpty()) return bootId.equals(savedBootId);
+        // Without the identifier, elapsedRealtime going back means the system was rebooted
+        return now >= savedTime;
+    }
+
+    /**
+     * Reads the identifier of the current boot, the first time it's needed
+     */
+    private String getBootId() {
+        if (bootId != null) return bootId;
+
+        bootId = "";
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(BOOT_ID_FILE));
+            try {
+                String line = reader.readLine();
+                if (line != null) bootId = line.trim();
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            // Not readable on this device, so isSameBoot() falls back to elapsedRealtime
+        }
+        return bootId;
+    }
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify;
+
+import android.content.Context;
+
+import com.heightechllc.breakify.engine.MappedTimerStateFile;
+import com.heightechllc.breakify.engine.TimerJournal;
+import com.heightechllc.breakify.engine.TimerStateStore;
+
+import java.io.File;
+
+/**
+ * Opens the timer's state, which is saved in a journal of transitions, so it's consistent even if
+ *  the process dies while saving it, and cached in a memory-mapped file, so any component can read
+ *  it without reading the journal or loading the SharedPreferences. The state that older versions
+ *  saved in the SharedPreferences is migrated the first time it's read.
+ */
+public class TimerState {
+    private static final String FILE_NAME = "timer_state";
+    private static final String JOURNAL_FILE_NAME = "timer_journal";
+
+    /**
+     * Shared by the whole process, so the file is only mapped once
+     */
+    private static MappedTimerStateFile stateFile;
+
+    /**
+     * Opens the timer's state. Changes are only saved when
+     *  {@link TimerStateStore#commit(int)} is called.
+     */
+    public static synchronized TimerStateStore open(Context context) {
+        if (stateFile == null) {
+            context = context.getApplicationContext();
+            TimerJournal journal = new TimerJournal(
+                    new File(context.getFilesDir(), JOURNAL_FILE_NAME), new PrefsTimerStore(context));
+            stateFile = new MappedTimerStateFile(new File(context.getFilesDir(), FILE_NAME), journal);
+        }
+        return new TimerStateStore(stateFile);
+    }
+}
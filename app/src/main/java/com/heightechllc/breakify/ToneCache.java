@@ -0,0 +1,237 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.net.Uri;
+import android.os.Build;
+import android.util.Log;
+
+import com.heightechllc.breakify.engine.ToneCacheFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the selected alarm tone decoded into PCM, in a {@link ToneCacheFile} in the app's
+ *  storage, so AlarmRinger can play it with an AudioTrack without starting a codec when the alarm
+ *  rings.
+ * The cache is updated by {@link RingtoneResolver} after it resolves the selected tone, in the
+ *  background. It's decoded again only if the resolved URI or the content it points to changed.
+ *  Decoding needs MediaCodec, so there's no cache before Jelly Bean, and tones longer than
+ *  {@link #MAX_SAMPLES} aren't cached; AlarmRinger falls back to MediaPlayer.
+ */
+public class ToneCache {
+    private static final String tag = "ToneCache";
+
+    private static final String FILE_NAME = "tone_cache";
+
+    /**
+     * The most samples to cache, about 24 seconds at 44.1kHz, since the whole tone is loaded into
+     *  memory to play it
+     */
+    private static final int MAX_SAMPLES = 1 << 20;
+
+    private static final long CODEC_TIMEOUT_US = 10000;
+
+    /**
+     * Loads the cached tone
+     * @param uriStr The URI of the tone to play, from {@link RingtoneResolver#getPlayableUri}
+     * @return The tone, or null if it isn't cached
+     */
+    public static ToneCacheFile.Tone load(Context context, String uriStr) {
+        ToneCacheFile.Tone tone = ToneCacheFile.read(getFile(context));
+        // Checking that the content didn't change would mean reading the whole tone, so it's left
+        //  to update()
+        if (tone == null || !tone.key.equals(uriStr) || tone.samples.length == 0) return null;
+        return tone;
+    }
+
+    //
+    // Helpers
+    //
+
+    /**
+     * Updates the cache for the tone, if it changed. Blocks while the tone is decoded, so it must
+     *  not be called on the UI thread. Only one update runs at a time.
+     * @param uriStr The resolved URI of the tone, or an empty string if there's nothing to play
+     */
+    static synchronized void update(Context context, String uriStr) {
+        File file = getFile(context);
+        if (uriStr.isEmpty() || Build.VERSION.SDK_INT < 16) {
+            // Nothing to ring, or we can't decode it
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+            return;
+        }
+
+        try {
+            Uri uri = Uri.parse(uriStr);
+            long fingerprint = getFingerprint(context, uri);
+
+            ToneCacheFile.Tone cached = ToneCacheFile.read(file);
+            if (cached != null && cached.key.equals(uriStr) && cached.fingerprint == fingerprint)
+                return; // Still up to date
+
+            long startTime = System.currentTimeMillis();
+            ToneCacheFile.Tone tone = decode(context, uri, uriStr, fingerprint);
+            if (tone == null) {
+                Log.d(tag, "Tone can't be cached: " + uriStr);
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+                return;
+            }
+            ToneCacheFile.write(file, tone);
+            Log.d(tag, "Cached " + tone.samples.length + " samples of " + uriStr + " in " +
+                    (System.currentTimeMillis() - startTime) + "ms");
+        } catch (Exception e) {
+            // Includes the runtime exceptions thrown by MediaExtractor and MediaCodec
+            Log.e(tag, "Error caching " + uriStr, e);
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    private static File getFile(Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * Gets a fingerprint of the content the URI points to: its length and its CRC32
+     */
+    private static long getFingerprint(Context context, Uri uri) throws IOException {
+        InputStream in = context.getContentResolver().openInputStream(uri);
+        if (in == null) throw new IOException("Couldn't open " + uri);
+        try {
+            CRC32 crc = new CRC32();
+            byte[] buffer = new byte[8192];
+            long length = 0;
+            int count;
+            while ((count = in.read(buffer)) > 0) {
+                crc.update(buffer, 0, count);
+                length += count;
+            }
+            return length << 32 ^ crc.getValue();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Decodes the first audio track into mono 16-bit PCM
+     * @return The tone, or null if it's too long or has no audio track
+     */
+    @TargetApi(16)
+    private static ToneCacheFile.Tone decode(Context context, Uri uri, String key,
+                                             long fingerprint) throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        MediaCodec codec = null;
+        try {
+            extractor.setDataSource(context, uri, null);
+
+            // Find the audio track
+            MediaFormat format = null;
+            for (int i = 0; i < extractor.getTrackCount(); i++) {
+                MediaFormat trackFormat = extractor.getTrackFormat(i);
+                if (trackFormat.getString(MediaFormat.KEY_MIME).startsWith("audio/")) {
+                    extractor.selectTrack(i);
+                    format = trackFormat;
+                    break;
+                }
+            }
+            if (format == null) return null;
+
+            int sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+            int channelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+
+            codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+            codec.configure(format, null, null, 0);
+            codec.start();
+
+            ByteBuffer[] inputBuffers = codec.getInputBuffers();
+            ByteBuffer[] outputBuffers = codec.getOutputBuffers();
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            short[] samples = new short[MAX_SAMPLES];
+            int sampleCount = 0;
+            boolean inputDone = false;
+
+            while (true) {
+                if (!inputDone) {
+                    int inputIndex = codec.dequeueInputBuffer(CODEC_TIMEOUT_US);
+                    if (inputIndex >= 0) {
+                        int size = extractor.readSampleData(inputBuffers[inputIndex], 0);
+                        if (size < 0) {
+                            codec.queueInputBuffer(inputIndex, 0, 0, 0,
+                                    MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                        } else {
+                            codec.queueInputBuffer(inputIndex, 0, size,
+                                    extractor.getSampleTime(), 0);
+                            extractor.advance();
+                        }
+                    }
+                }
+
+                int outputIndex = codec.dequeueOutputBuffer(info, CODEC_TIMEOUT_US);
+                if (outputIndex == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+                    outputBuffers = codec.getOutputBuffers();
+                } else if (outputIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    MediaFormat outputFormat = codec.getOutputFormat();
+                    sampleRate = outputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+                    channelCount = outputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+                } else if (outputIndex >= 0) {
+                    ByteBuffer output = outputBuffers[outputIndex];
+                    output.position(info.offset);
+                    output.limit(info.offset + info.size);
+                    ShortBuffer pcm = output.order(ByteOrder.nativeOrder()).asShortBuffer();
+
+                    // Mix the channels down to mono
+                    int frameCount = pcm.remaining() / channelCount;
+                    if (sampleCount + frameCount > samples.length) return null; // Too long
+                    for (int i = 0; i < frameCount; i++) {
+                        int sum = 0;
+                        for (int c = 0; c < channelCount; c++) sum += pcm.get();
+                        samples[sampleCount++] = (short) (sum / channelCount);
+                    }
+
+                    codec.releaseOutputBuffer(outputIndex, false);
+                    if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) break;
+                }
+            }
+
+            return new ToneCacheFile.Tone(key, fingerprint, sampleRate,
+                    Arrays.copyOf(samples, sampleCount));
+        } finally {
+            if (codec != null) {
+                codec.stop();
+                codec.release();
+            }
+            extractor.release();
+        }
+    }
+}
@@ -30,6 +30,7 @@ import android.preference.PreferenceFragment;
 import com.heightechllc.breakify.AlarmRinger;
 import com.heightechllc.breakify.CustomAlarmTones;
 import com.heightechllc.breakify.R;
+import com.heightechllc.breakify.RingtoneResolver;
 
 /**
  * Fragment for user preferences relating to the alarm (volume, ringtone, vibration)
@@ -41,6 +42,7 @@ public class AlarmSettingsFragment extends PreferenceFragment
     public static final String KEY_RINGTONE = "pref_key_ringtone";
     public static final String KEY_VOLUME = "pref_key_volume";
     public static final String KEY_VIBRATE = "pref_key_vibrate";
+    public static final String KEY_PRE_WAKE = "pref_key_pre_wake";
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -93,6 +95,9 @@ public class AlarmSettingsFragment extends PreferenceFragment
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
         if (key.equals(KEY_RINGTONE)) {
             updateRingtonePrefSummary();
+            // Check and decode the new tone ahead of time, so it's ready to play when the alarm
+            //  rings
+            RingtoneResolver.update(getActivity());
         }
     }
 
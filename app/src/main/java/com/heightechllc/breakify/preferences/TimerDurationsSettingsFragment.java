@@ -34,6 +34,7 @@ public class TimerDurationsSettingsFragment extends PreferenceFragment
     public static final String KEY_WORK_DURATION = "pref_key_work_duration";
     public static final String KEY_BREAK_DURATION = "pref_key_break_duration";
     public static final String KEY_SNOOZE_DURATION = "pref_key_snooze_duration";
+    public static final String KEY_AUTO_ADVANCE = "pref_key_auto_advance";
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
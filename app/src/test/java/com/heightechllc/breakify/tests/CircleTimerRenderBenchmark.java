@@ -0,0 +1,232 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify.tests;
+
+import android.graphics.Bitmap;
+
+import com.heightechllc.breakify.BuildConfig;
+import com.heightechllc.breakify.CircleTimerRenderer;
+import com.heightechllc.breakify.CircleTimerView;
+import com.heightechllc.breakify.DialGeometry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Benchmarks drawing CircleTimerView offscreen on the JVM, across different sizes and progress
+ *  values, and fails if it gets slower or allocates more than the thresholds.
+ * The canvas doesn't rasterize anything (see {@link CountingCanvas}), so this measures our own
+ *  per-frame code, and the number of draw calls it makes, not the cost of drawing the pixels.
+ *
+ * The thresholds can be changed with the system properties `benchmark.maxNanosPerFrame` and
+ *  `benchmark.maxBytesPerFrame`.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class CircleTimerRenderBenchmark {
+    private static final int[] SIZES = {250, 500, 750, 1080};
+    private static final int WARMUP_FRAMES = 2000;
+    private static final int FRAMES = 10000;
+    private static final long TOTAL_TIME = 60 * 60000;
+
+    private static final long MAX_NANOS_PER_FRAME =
+            Long.getLong("benchmark.maxNanosPerFrame", 50000);
+    private static final long MAX_BYTES_PER_FRAME =
+            Long.getLong("benchmark.maxBytesPerFrame", 16);
+
+    @Test
+    public void benchmarkDraw() {
+        benchmarkDraw(CircleTimerRenderer.RING_MODE_ARCS, "arcs");
+        benchmarkDraw(CircleTimerRenderer.RING_MODE_SWEEP_GRADIENT, "gradient");
+    }
+
+    /**
+     * Checks that the number of draw calls doesn't grow with the number of markers, since they're
+     *  batched into a single path
+     */
+    @Test
+    public void benchmarkMarkers() {
+        long oneMarkerDrawCalls = -1;
+        for (int markerCount : new int[] {1, 10, 100}) {
+            CircleTimerView view = new CircleTimerView(RuntimeEnvironment.application);
+            view.layout(0, 0, 500, 500);
+            view.setTotalTime(TOTAL_TIME);
+            long[] markers = new long[markerCount];
+            for (int i = 0; i < markerCount; i++) {
+                markers[i] = TOTAL_TIME * i / markerCount;
+            }
+            view.setMarkerTimes(markers);
+
+            CountingCanvas canvas =
+                    new CountingCanvas(Bitmap.createBitmap(500, 500, Bitmap.Config.ARGB_8888));
+            drawFrames(view, canvas, WARMUP_FRAMES);
+            canvas.resetDrawCalls();
+
+            long start = System.nanoTime();
+            drawFrames(view, canvas, FRAMES);
+            long nanosPerFrame = (System.nanoTime() - start) / FRAMES;
+
+            System.out.println("CircleTimerView with " + markerCount + " markers: " +
+                    nanosPerFrame + " ns/frame, " + ((float) canvas.getDrawCalls() / FRAMES) +
+                    " draw calls/frame");
+
+            if (oneMarkerDrawCalls == -1) oneMarkerDrawCalls = canvas.getDrawCalls();
+            assertEquals(oneMarkerDrawCalls, canvas.getDrawCalls());
+        }
+    }
+
+    /**
+     * Compares looking up the red dot's position in DialGeometry's table with computing it with
+     *  cos() and sin() on every frame, and checks that the table is accurate to a fraction of a
+     *  pixel
+     */
+    @Test
+    public void benchmarkDotPosition() {
+        for (int size : SIZES) {
+            DialGeometry geometry = new DialGeometry(10, 2);
+            geometry.setSize(size, size);
+            float radius = geometry.getRadius();
+
+            for (int i = 0; i <= FRAMES; i++) {
+                float percent = (float) i / FRAMES;
+                double radians = Math.toRadians(270 - percent * 360);
+                assertEquals(geometry.getXCenter() + radius * Math.cos(radians),
+                        geometry.getDotX(percent), 0.1);
+                assertEquals(geometry.getYCenter() + radius * Math.sin(radians),
+                        geometry.getDotY(percent), 0.1);
+            }
+
+            // Warm up both, then measure
+            sumTrigPositions(geometry, WARMUP_FRAMES);
+            sumTablePositions(geometry, WARMUP_FRAMES);
+
+            long start = System.nanoTime();
+            float trigSum = sumTrigPositions(geometry, FRAMES);
+            long trigNanos = (System.nanoTime() - start) / FRAMES;
+
+            start = System.nanoTime();
+            float tableSum = sumTablePositions(geometry, FRAMES);
+            long tableNanos = (System.nanoTime() - start) / FRAMES;
+
+            // Print the sums so the JIT can't throw the work away
+            System.out.println("Dot position " + size + "px: cos/sin " + trigNanos +
+                    " ns/frame, table " + tableNanos + " ns/frame (" + trigSum + ", " + tableSum +
+                    ")");
+        }
+    }
+
+    //
+    // Helpers
+    //
+
+    private static void benchmarkDraw(int ringMode, String modeName) {
+        for (int size : SIZES) {
+            CircleTimerView view = new CircleTimerView(RuntimeEnvironment.application);
+            view.layout(0, 0, size, size);
+            view.setTotalTime(TOTAL_TIME);
+            view.setRingMode(ringMode);
+
+            CountingCanvas canvas =
+                    new CountingCanvas(Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888));
+
+            // Warm up, so the JIT has compiled the drawing code before we measure it
+            drawFrames(view, canvas, WARMUP_FRAMES);
+            canvas.resetDrawCalls();
+
+            long bytesBefore = getAllocatedBytes();
+            long start = System.nanoTime();
+            drawFrames(view, canvas, FRAMES);
+            long nanosPerFrame = (System.nanoTime() - start) / FRAMES;
+            long bytesAfter = getAllocatedBytes();
+            // Only measured if the JVM counts the allocations
+            boolean allocationsMeasured = bytesBefore >= 0 && bytesAfter >= 0;
+            long bytesPerFrame = (bytesAfter - bytesBefore) / FRAMES;
+
+            String name = "CircleTimerView " + size + "px (" + modeName + ")";
+            System.out.println(name + ": " + nanosPerFrame + " ns/frame, " +
+                    (allocationsMeasured ? bytesPerFrame + " bytes/frame" :
+                            "allocations not measured") + ", " +
+                    ((float) canvas.getDrawCalls() / FRAMES) + " draw calls/frame");
+
+            assertTrue(name + ": " + nanosPerFrame + " ns/frame is over the threshold of " +
+                    MAX_NANOS_PER_FRAME, nanosPerFrame <= MAX_NANOS_PER_FRAME);
+            // The gradient is rebuilt whenever the arc moves by a pixel, which is nearly every
+            //  frame here, so only the arcs are expected not to allocate
+            if (allocationsMeasured && ringMode == CircleTimerRenderer.RING_MODE_ARCS) {
+                assertTrue(name + ": " + bytesPerFrame + " bytes/frame is over the threshold of " +
+                        MAX_BYTES_PER_FRAME, bytesPerFrame <= MAX_BYTES_PER_FRAME);
+            }
+        }
+    }
+
+    private static float sumTrigPositions(DialGeometry geometry, int frames) {
+        float sum = 0;
+        float radius = geometry.getRadius();
+        for (int i = 0; i < frames; i++) {
+            double radians = Math.toRadians(270 - (float) i / frames * 360);
+            sum += geometry.getXCenter() + (float) (radius * Math.cos(radians));
+            sum += geometry.getYCenter() + (float) (radius * Math.sin(radians));
+        }
+        return sum;
+    }
+
+    private static float sumTablePositions(DialGeometry geometry, int frames) {
+        float sum = 0;
+        for (int i = 0; i < frames; i++) {
+            float percent = (float) i / frames;
+            sum += geometry.getDotX(percent);
+            sum += geometry.getDotY(percent);
+        }
+        return sum;
+    }
+
+    /**
+     * Draws `frames` frames, going around the whole dial
+     */
+    private static void drawFrames(CircleTimerView view, CountingCanvas canvas, int frames) {
+        for (int i = 0; i < frames; i++) {
+            view.setPassedTime(TOTAL_TIME * i / frames, true);
+            view.draw(canvas);
+        }
+    }
+
+    /**
+     * The number of bytes allocated by the current thread so far, or -1 if the JVM can't tell,
+     *  e.g. because it doesn't support counting them or it's turned off
+     */
+    private static long getAllocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (!sunBean.isThreadAllocatedMemorySupported() ||
+                    !sunBean.isThreadAllocatedMemoryEnabled())
+                return -1;
+            return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
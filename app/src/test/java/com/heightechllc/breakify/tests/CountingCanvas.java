@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify.tests;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+/**
+ * Canvas that only counts the draw calls made on it, without drawing anything. Used by the JVM
+ *  benchmarks, so they measure the cost of our own drawing code (and the number of draw calls it
+ *  makes), instead of the cost of the Robolectric shadows.
+ */
+public class CountingCanvas extends Canvas {
+    private long drawCalls;
+
+    public CountingCanvas(Bitmap bitmap) {
+        super(bitmap);
+    }
+
+    /**
+     * The number of draw calls made since the canvas was created or last reset
+     */
+    public long getDrawCalls() {
+        return drawCalls;
+    }
+
+    public void resetDrawCalls() {
+        drawCalls = 0;
+    }
+
+    @Override
+    public void drawArc(RectF oval, float startAngle, float sweepAngle, boolean useCenter,
+                        Paint paint) {
+        drawCalls++;
+    }
+
+    @Override
+    public void drawCircle(float cx, float cy, float radius, Paint paint) {
+        drawCalls++;
+    }
+
+    @Override
+    public void drawPath(Path path, Paint paint) {
+        drawCalls++;
+    }
+
+    @Override
+    public void drawBitmap(Bitmap bitmap, float left, float top, Paint paint) {
+        drawCalls++;
+    }
+
+    @Override
+    public void drawBitmap(Bitmap bitmap, Rect src, Rect dst, Paint paint) {
+        drawCalls++;
+    }
+
+    @Override
+    public void drawBitmap(Bitmap bitmap, Rect src, RectF dst, Paint paint) {
+        drawCalls++;
+    }
+
+    @Override
+    public void drawText(CharSequence text, int start, int end, float x, float y, Paint paint) {
+        drawCalls++;
+    }
+
+    @Override
+    public void drawText(char[] text, int index, int count, float x, float y, Paint paint) {
+        drawCalls++;
+    }
+}
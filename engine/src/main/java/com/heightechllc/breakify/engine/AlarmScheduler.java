@@ -0,0 +1,35 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify.engine;
+
+/**
+ * Schedules the alarm that rings when the timer is done, e.g. with AlarmManager
+ */
+public interface AlarmScheduler {
+    /**
+     * Schedules the alarm, replacing any alarm that was already scheduled
+     * @param ringTime When to ring, in {@link Clock#elapsedRealtime()} time
+     * @param workState The work state that the timer is running for
+     */
+    void schedule(long ringTime, int workState);
+
+    /**
+     * Cancels the scheduled alarm, if there is one
+     */
+    void cancel();
+}
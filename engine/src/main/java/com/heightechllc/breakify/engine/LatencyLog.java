@@ -0,0 +1,327 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify.engine;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+/**
+ * Records when each stage of the ring path was reached for the most recent alarms, from the
+ *  deadline to the first sound, so we can see which stage makes the alarms late.
+ * The times are `SystemClock.elapsedRealtime()`, and a stage that wasn't reached (e.g.
+ *  MainActivity, when RingingActivity is opened directly) is 0. The alarm that's ringing is only
+ *  kept in memory, so marking a stage never touches the disk. It's saved once it's closed, when
+ *  the sound starts or the next alarm begins, on the executor. The saved alarms are kept in a ring
+ *  buffer in a small fixed-size file, which is loaded on the executor too, or when it's reported.
+ * Thread-safe, but only one instance should be used for each file in a process.
+ */
+public class LatencyLog {
+    // The stages of the ring path, in order
+    public static final int STAGE_DEADLINE = 0;
+    public static final int STAGE_RECEIVED = 1;
+    public static final int STAGE_MAIN_ACTIVITY = 2;
+    public static final int STAGE_RINGING_ACTIVITY = 3;
+    public static final int STAGE_RINGER_START = 4;
+    public static final int STAGE_SOUND = 5;
+    public static final int STAGE_COUNT = 6;
+
+    private static final String[] STAGE_NAMES = {"deadline", "receiver", "MainActivity",
+            "RingingActivity", "ringer", "sound"};
+
+    /**
+     * The number of alarms to keep
+     */
+    public static final int DEFAULT_CAPACITY = 64;
+
+    /**
+     * The version of the format. Change it whenever the format changes.
+     */
+    public static final int VERSION = 1;
+
+    private static final int MAGIC = 0x42524b4c; // "BRKL"
+    /**
+     * The magic, the version, the capacity and the index of the next record
+     */
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = STAGE_COUNT * 8;
+
+    private final File file;
+    private final File tempFile;
+    private final int capacity;
+    private final Executor executor;
+
+    /**
+     * The alarm that's ringing, or null if there's none. Guarded by `this`, which is only held
+     *  for a few field accesses, so marking a stage never waits for the disk.
+     */
+    private long[] current;
+
+    /**
+     * Guards the saved records, which are read and written on the executor
+     */
+    private final Object savedLock = new Object();
+    /**
+     * The saved records, or null if they weren't loaded yet
+     */
+    private long[][] records;
+    private int next;
+
+    /**
+     * @param executor Runs the disk writes, off the ring path. Must run them in order.
+     */
+    public LatencyLog(File file, Executor executor) {
+        this(file, DEFAULT_CAPACITY, executor);
+    }
+
+    public LatencyLog(File file, int capacity, Executor executor) {
+        this.file = file;
+        this.tempFile = new File(file.getPath() + ".tmp");
+        this.capacity = capacity;
+        this.executor = executor;
+    }
+
+    /**
+     * Starts the record of an alarm. A record that wasn't closed yet, e.g. because the alarm never
+     *  made a sound, is closed first.
+     * @param deadline When the alarm was supposed to go off
+     * @param receivedTime When AlarmReceiver received it
+     */
+    public synchronized void begin(long deadline, long receivedTime) {
+        if (current != null) close();
+
+        current = new long[STAGE_COUNT];
+        current[STAGE_DEADLINE] = deadline;
+        current[STAGE_RECEIVED] = receivedTime;
+    }
+
+    /**
+     * Records when a stage was reached by the alarm that's ringing. Ignored if there's no alarm
+     *  ringing, if the stage was already reached, or if the sound already started, e.g. when
+     *  RingingActivity is opened again from the notification. Reaching the sound closes the record.
+     */
+    public synchronized void mark(int stage, long time) {
+        if (current == null || current[stage] != 0) return;
+
+        current[stage] = time;
+        if (stage == STAGE_SOUND) close();
+    }
+
+    /**
+     * The number of alarms saved
+     */
+    public int size() {
+        synchronized (savedLock) {
+            load();
+            int size = 0;
+            for (long[] record : records) {
+                if (record[STAGE_DEADLINE] != 0) size++;
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Gets how long each saved alarm took to reach the stage from the stage before it that it
+     *  reached
+     * @return The deltas, sorted, for the alarms that reached the stage
+     */
+    public long[] getDeltas(int stage) {
+        synchronized (savedLock) {
+            load();
+            long[] deltas = new long[capacity];
+            int count = 0;
+            for (long[] record : records) {
+                if (record[STAGE_DEADLINE] == 0 || record[stage] == 0) continue;
+                for (int previous = stage - 1; previous >= 0; previous--) {
+                    if (record[previous] != 0) {
+                        deltas[count++] = record[stage] - record[previous];
+                        break;
+                    }
+                }
+            }
+            deltas = Arrays.copyOf(deltas, count);
+            Arrays.sort(deltas);
+            return deltas;
+        }
+    }
+
+    /**
+     * Gets how late the sound started for each saved alarm, from the deadline
+     * @return The latencies, sorted
+     */
+    public long[] getTotals() {
+        synchronized (savedLock) {
+            load();
+            long[] totals = new long[capacity];
+            int count = 0;
+            for (long[] record : records) {
+                if (record[STAGE_DEADLINE] != 0 && record[STAGE_SOUND] != 0)
+                    totals[count++] = record[STAGE_SOUND] - record[STAGE_DEADLINE];
+            }
+            totals = Arrays.copyOf(totals, count);
+            Arrays.sort(totals);
+            return totals;
+        }
+    }
+
+    /**
+     * Gets a percentile, by the nearest rank
+     * @param sorted The sorted values
+     * @param percent The percentile, from 0 to 100
+     * @return The value, or 0 if there are no values
+     */
+    public static long getPercentile(long[] sorted, int percent) {
+        if (sorted.length == 0) return 0;
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(rank - 1, 0)];
+    }
+
+    /**
+     * Clears all the records
+     */
+    public void reset() {
+        synchronized (this) {
+            current = null;
+        }
+        synchronized (savedLock) {
+            records = new long[capacity][STAGE_COUNT];
+            next = 0;
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    /**
+     * Prints the percentiles of each stage, e.g. for dumpsys
+     */
+    public void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix); writer.print("alarms="); writer.println(size());
+        writer.print(prefix); writer.println("stage: count p50 p90 p99 max (ms)");
+        for (int stage = STAGE_RECEIVED; stage < STAGE_COUNT; stage++)
+            dumpPercentiles(prefix + "  ", writer, STAGE_NAMES[stage], getDeltas(stage));
+        dumpPercentiles(prefix + "  ", writer, "total", getTotals());
+    }
+
+    //
+    // Helpers
+    //
+
+    private static void dumpPercentiles(String prefix, PrintWriter writer, String name,
+                                        long[] sorted) {
+        writer.print(prefix); writer.print(name); writer.print(": "); writer.print(sorted.length);
+        if (sorted.length > 0) {
+            writer.print(" "); writer.print(getPercentile(sorted, 50));
+            writer.print(" "); writer.print(getPercentile(sorted, 90));
+            writer.print(" "); writer.print(getPercentile(sorted, 99));
+            writer.print(" "); writer.print(sorted[sorted.length - 1]);
+        }
+        writer.println();
+    }
+
+    /**
+     * Hands the current record to the executor to be saved. Called with `this` held.
+     */
+    private void close() {
+        final long[] record = current;
+        current = null;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                save(record);
+            }
+        });
+    }
+
+    /**
+     * Adds the record to the ring buffer, replacing the oldest one if it's full, and writes the
+     *  whole file at once
+     */
+    private void save(long[] record) {
+        synchronized (savedLock) {
+            load();
+            System.arraycopy(record, 0, records[next], 0, STAGE_COUNT);
+            next = (next + 1) % capacity;
+
+            ByteBuffer data = ByteBuffer.allocate(HEADER_SIZE + capacity * RECORD_SIZE);
+            data.putInt(MAGIC).putInt(VERSION).putInt(capacity).putInt(next);
+            for (long[] saved : records) {
+                for (long time : saved) data.putLong(time);
+            }
+
+            // Written to a temporary file that then replaces the old one, so a killed write
+            //  doesn't lose the other records
+            try {
+                FileOutputStream out = new FileOutputStream(tempFile);
+                try {
+                    out.write(data.array());
+                } finally {
+                    out.close();
+                }
+                if (!tempFile.renameTo(file)) throw new IOException("Couldn't replace " + file);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Loads the saved records, if they weren't loaded yet, or starts empty if there's no valid
+     *  file. Called with `savedLock` held.
+     */
+    private void load() {
+        if (records != null) return;
+
+        records = new long[capacity][STAGE_COUNT];
+        next = 0;
+        if (file.length() != HEADER_SIZE + (long) capacity * RECORD_SIZE) return;
+
+        byte[] data = new byte[HEADER_SIZE + capacity * RECORD_SIZE];
+        try {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                int read = 0;
+                int count;
+                while (read < data.length && (count = in.read(data, read, data.length - read)) > 0)
+                    read += count;
+                if (read < data.length) return;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getInt() != capacity)
+            return;
+        int savedNext = buffer.getInt();
+        if (savedNext < 0 || savedNext >= capacity) return;
+
+        for (long[] record : records) {
+            for (int stage = 0; stage < STAGE_COUNT; stage++) record[stage] = buffer.getLong();
+        }
+        next = savedNext;
+    }
+}
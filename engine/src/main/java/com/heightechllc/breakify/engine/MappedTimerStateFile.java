@@ -0,0 +1,190 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Caches the timer's state in a small memory-mapped file with a fixed binary layout, so reading it
+ *  (e.g. from a BroadcastReceiver in a cold process) is a few memory reads, with nothing to parse.
+ * The record is {@link #SIZE} bytes: a magic number, the layout version, the fields, the source's
+ *  position if it's a {@link TimerStateStore.PositionedBackend}, and a CRC32 of everything before
+ *  it. Writes go to the source backend first, and then to the record. A record that doesn't match
+ *  (a new file, a file from another version, a torn write, or a source that was written after the
+ *  record, e.g. when the process died between the two writes) is rebuilt from the source. If the
+ *  file can't be mapped at all, the source is used directly.
+ * Thread-safe, but only one instance should be used for each file in a process.
+ */
+public class MappedTimerStateFile implements TimerStateStore.Backend {
+    /**
+     * The size of the record, in bytes
+     */
+    public static final int SIZE = 64;
+
+    /**
+     * The version of the layout. Change it whenever the layout changes.
+     */
+    public static final int VERSION = 2;
+
+    private static final int MAGIC = 0x42524b46; // "BRKF"
+
+    // Offsets of the fields in the record
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_VERSION = 4;
+    private static final int OFFSET_WORK_STATE = 8;
+    private static final int OFFSET_TOTAL_TIME = 16;
+    private static final int OFFSET_RING_TIME = 24;
+    private static final int OFFSET_PAUSED_TIME_REMAINING = 32;
+    private static final int OFFSET_SOURCE_POSITION = 40;
+    // Bytes 48-59 are reserved
+    private static final int OFFSET_CRC = 60;
+
+    private final File file;
+    private final TimerStateStore.Backend source;
+
+    private MappedByteBuffer mapped;
+    private boolean mapFailed;
+
+    /**
+     * A copy of the record, so it's checked and decoded from memory that can't change underneath
+     */
+    private final byte[] record = new byte[SIZE];
+    private final ByteBuffer recordBuffer = ByteBuffer.wrap(record);
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * @param file The file to map. Created if it doesn't exist.
+     * @param source Where the state is actually saved. Read when the file doesn't have a valid
+     *               record.
+     */
+    public MappedTimerStateFile(File file, TimerStateStore.Backend source) {
+        this.file = file;
+        this.source = source;
+    }
+
+    @Override
+    public synchronized TimerStateStore.State read() {
+        if (!map()) return source.read();
+
+        mapped.position(0);
+        mapped.get(record);
+        TimerStateStore.State state = decode();
+        if (state != null) return state;
+
+        // No valid record, so rebuild it from the source
+        state = source.read();
+        encode(state);
+        return state;
+    }
+
+    @Override
+    public synchronized void write(TimerStateStore.State state, int transition) {
+        // Invalidate the record first, so it's rebuilt if the process dies before it's updated,
+        //  even if the source's position happens to end up where it was
+        if (map()) mapped.putInt(OFFSET_MAGIC, 0);
+        source.write(state, transition);
+        if (map()) encode(state);
+    }
+
+    //
+    // Helpers
+    //
+
+    /**
+     * Maps the file, if it isn't mapped yet
+     * @return Whether the file is mapped
+     */
+    private boolean map() {
+        if (mapped != null) return true;
+        if (mapFailed) return false;
+
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                // The mapping stays valid after the file is closed
+                mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+            } finally {
+                raf.close();
+            }
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            mapFailed = true;
+            return false;
+        }
+    }
+
+    /**
+     * Decodes the record copied into `record`
+     * @return The state, or null if the record isn't valid or the source changed since it was
+     *  written
+     */
+    private TimerStateStore.State decode() {
+        if (recordBuffer.getInt(OFFSET_MAGIC) != MAGIC ||
+                recordBuffer.getInt(OFFSET_VERSION) != VERSION)
+            return null;
+
+        crc.reset();
+        crc.update(record, 0, OFFSET_CRC);
+        if ((int) crc.getValue() != recordBuffer.getInt(OFFSET_CRC)) return null;
+        if (recordBuffer.getLong(OFFSET_SOURCE_POSITION) != getSourcePosition()) return null;
+
+        TimerStateStore.State state = new TimerStateStore.State();
+        state.workState = recordBuffer.getInt(OFFSET_WORK_STATE);
+        state.totalTime = recordBuffer.getLong(OFFSET_TOTAL_TIME);
+        state.ringTime = recordBuffer.getLong(OFFSET_RING_TIME);
+        state.pausedTimeRemaining = recordBuffer.getLong(OFFSET_PAUSED_TIME_REMAINING);
+        return state;
+    }
+
+    /**
+     * Encodes the state into the record, and copies it into the file
+     */
+    private void encode(TimerStateStore.State state) {
+        Arrays.fill(record, (byte) 0);
+        recordBuffer.putInt(OFFSET_MAGIC, MAGIC);
+        recordBuffer.putInt(OFFSET_VERSION, VERSION);
+        recordBuffer.putInt(OFFSET_WORK_STATE, state.workState);
+        recordBuffer.putLong(OFFSET_TOTAL_TIME, state.totalTime);
+        recordBuffer.putLong(OFFSET_RING_TIME, state.ringTime);
+        recordBuffer.putLong(OFFSET_PAUSED_TIME_REMAINING, state.pausedTimeRemaining);
+        recordBuffer.putLong(OFFSET_SOURCE_POSITION, getSourcePosition());
+
+        crc.reset();
+        crc.update(record, 0, OFFSET_CRC);
+        recordBuffer.putInt(OFFSET_CRC, (int) crc.getValue());
+
+        mapped.position(0);
+        mapped.put(record);
+    }
+
+    /**
+     * The source's position, or 0 if it doesn't have one
+     */
+    private long getSourcePosition() {
+        return source instanceof TimerStateStore.PositionedBackend ?
+                ((TimerStateStore.PositionedBackend) source).getPosition() : 0;
+    }
+}
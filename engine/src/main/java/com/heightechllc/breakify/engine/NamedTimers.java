@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify.engine;
+
+import java.util.List;
+
+/**
+ * Runs any number of named timers on a single system alarm. The deadlines are kept in a
+ *  {@link TimerQueue}, and only the earliest one is armed, so adding timers never adds system
+ *  alarms or wakeups. The alarm is only re-armed when the earliest deadline changes.
+ * Not thread-safe.
+ */
+public class NamedTimers {
+    /**
+     * The system alarm that the timers share
+     */
+    public interface Alarm {
+        /**
+         * Arms the alarm, replacing the time it was armed for before
+         * @param time The time to go off, in {@link Clock#elapsedRealtime()} time
+         */
+        void arm(long time);
+
+        void cancel();
+    }
+
+    private final TimerQueue queue = new TimerQueue();
+    private final Alarm alarm;
+
+    /**
+     * The time the alarm is armed for, or 0 if it isn't armed
+     */
+    private long armedTime;
+    private int armCount;
+
+    public NamedTimers(Alarm alarm) {
+        this.alarm = alarm;
+    }
+
+    /**
+     * Adds a timer, or changes its deadline if there's already a timer with the name
+     * @param deadline When the timer is due, in {@link Clock#elapsedRealtime()} time
+     */
+    public void set(String name, long deadline) {
+        queue.set(name, deadline);
+        rearm();
+    }
+
+    /**
+     * Adds a timer without arming the alarm, e.g. while loading saved timers. Call
+     *  {@link #forceRearm()} after loading them.
+     */
+    public void load(String name, long deadline) {
+        queue.set(name, deadline);
+    }
+
+    /**
+     * Removes the timer, if there is one with the name
+     */
+    public void remove(String name) {
+        if (queue.remove(name)) rearm();
+    }
+
+    /**
+     * Called when the alarm goes off. Removes the timers that are due, and arms the alarm for the
+     *  next one.
+     * @param now The current {@link Clock#elapsedRealtime()} time
+     * @param due The names of the timers that are due are added to this, earliest first
+     * @return The number of timers that are due
+     */
+    public int onAlarm(long now, List<String> due) {
+        // The alarm went off, so it isn't armed anymore
+        armedTime = 0;
+        int count = queue.pollDue(now, due);
+        rearm();
+        return count;
+    }
+
+    /**
+     * Arms the alarm for the earliest deadline, even if it was armed for it already, e.g. after
+     *  loading the timers in a new process
+     */
+    public void forceRearm() {
+        armedTime = 0;
+        rearm();
+    }
+
+    /**
+     * The timers, e.g. to list or save them. Don't change it directly.
+     */
+    public TimerQueue getQueue() {
+        return queue;
+    }
+
+    /**
+     * The number of times the alarm was armed or cancelled, to measure the re-arm cost
+     */
+    public int getArmCount() {
+        return armCount;
+    }
+
+    //
+    // Helpers
+    //
+
+    /**
+     * Arms the alarm for the earliest deadline, or cancels it if there are no timers, unless it's
+     *  already armed for that time
+     */
+    private void rearm() {
+        long earliest = queue.getEarliestDeadline();
+        if (earliest == armedTime) return;
+
+        if (earliest == 0) alarm.cancel();
+        else alarm.arm(earliest);
+        armedTime = earliest;
+        armCount++;
+    }
+}
@@ -0,0 +1,373 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify.engine;
+
+/**
+ * The timer's state machine: starting, pausing, snoozing, skipping and resetting the work and break
+ *  timers, scheduling the alarm and saving the state so it can be restored.
+ * Doesn't know anything about the UI or Android. The clock, the alarm, the storage and the
+ *  durations are all passed in, so it can be tested on the JVM.
+ * Not thread-safe. Only use it from one thread, e.g. the UI thread.
+ */
+public class TimerEngine {
+    // Timer states
+    public static final int TIMER_STATE_STOPPED = 0;
+    public static final int TIMER_STATE_RUNNING = 1;
+    public static final int TIMER_STATE_PAUSED = 2;
+
+    // Work states
+    public static final int WORK_STATE_WORKING = 1;
+    public static final int WORK_STATE_BREAKING = 2;
+
+    // Results of restore()
+    /**
+     * Nothing was saved, so the timer is stopped
+     */
+    public static final int RESTORED_NOTHING = 0;
+    /**
+     * A running timer was restored
+     */
+    public static final int RESTORED_RUNNING = 1;
+    /**
+     * A paused timer was restored
+     */
+    public static final int RESTORED_PAUSED = 2;
+    /**
+     * The saved timer should have rung while the app wasn't running, so the alarm should ring now
+     */
+    public static final int RESTORED_RING_DUE = 3;
+
+    /**
+     * Provides the durations of the intervals, e.g. from the user's preferences
+     */
+    public interface Durations {
+        /**
+         * The duration of a work interval, in milliseconds
+         */
+        long getWorkDuration();
+
+        /**
+         * The duration of a break, in milliseconds
+         */
+        long getBreakDuration();
+
+        /**
+         * How long to snooze for, in milliseconds
+         */
+        long getSnoozeDuration();
+    }
+
+    /**
+     * Notified about changes that the UI needs to reflect
+     */
+    public interface Listener {
+        void onWorkStateChanged(int workState);
+    }
+
+    /**
+     * The state of the timer before a reset or a skip, so it can be undone
+     */
+    public static class Snapshot {
+        public final int workState;
+        public final long totalTime;
+        public final long remainingTime;
+
+        /**
+         * @param workState The work state
+         * @param totalTime The total duration of the interval, or 0 if it was complete
+         * @param remainingTime The time remaining in the interval, or 0 if it was complete
+         */
+        public Snapshot(int workState, long totalTime, long remainingTime) {
+            this.workState = workState;
+            this.totalTime = totalTime;
+            this.remainingTime = remainingTime;
+        }
+    }
+
+    private final Clock clock;
+    private final AlarmScheduler alarmScheduler;
+    private final TimerStore store;
+    private final Durations durations;
+    private Listener listener;
+
+    private int timerState = TIMER_STATE_STOPPED;
+    private int workState = WORK_STATE_WORKING;
+    private long totalTime;
+    /**
+     * When the running timer will ring, in {@link Clock#elapsedRealtime()} time
+     */
+    private long ringTime;
+    private long pausedTimeRemaining;
+
+    public TimerEngine(Clock clock, AlarmScheduler alarmScheduler, TimerStore store,
+                       Durations durations) {
+        this.clock = clock;
+        this.alarmScheduler = alarmScheduler;
+        this.store = store;
+        this.durations = durations;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    //
+    // State
+    //
+
+    public int getTimerState() {
+        return timerState;
+    }
+
+    public int getWorkState() {
+        return workState;
+    }
+
+    /**
+     * The total duration of the current interval, or 0 if the timer is stopped
+     */
+    public long getTotalTime() {
+        return totalTime;
+    }
+
+    /**
+     * The time remaining in the current interval. 0 if the timer is stopped or the time is up.
+     */
+    public long getRemainingTime() {
+        switch (timerState) {
+            case TIMER_STATE_RUNNING:
+                return Math.max(ringTime - clock.elapsedRealtime(), 0);
+            case TIMER_STATE_PAUSED:
+                return pausedTimeRemaining;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * When the running timer will ring, in {@link Clock#elapsedRealtime()} time, or 0 if it isn't
+     *  running
+     */
+    public long getRingTime() {
+        return timerState == TIMER_STATE_RUNNING ? ringTime : 0;
+    }
+
+    //
+    // Transitions
+    //
+
+    /**
+     * Attempts to restore the timer state from the store, e.g. when the app is started
+     * @return One of the RESTORED_ constants
+     */
+    public int restore() {
+        int result = restoreFromStore();
+        store.commit(TimerStore.TRANSITION_RESTORE);
+        return result;
+    }
+
+    /**
+     * Starts the timer for the current work state, or resumes it if it's paused
+     */
+    public void start() {
+        if (timerState == TIMER_STATE_PAUSED) {
+            run(totalTime, pausedTimeRemaining);
+            store.commit(TimerStore.TRANSITION_RESUME);
+        } else {
+            run(getDuration(workState), getDuration(workState));
+            store.commit(TimerStore.TRANSITION_START);
+        }
+    }
+
+    /**
+     * Pauses the running timer
+     */
+    public void pause() {
+        if (timerState != TIMER_STATE_RUNNING) return;
+
+        pausedTimeRemaining = getRemainingTime();
+        // Record the remaining time, so we can restore if the app is killed
+        store.setPausedTimeRemaining(pausedTimeRemaining);
+        cancelAlarm();
+
+        timerState = TIMER_STATE_PAUSED;
+        store.commit(TimerStore.TRANSITION_PAUSE);
+    }
+
+    /**
+     * Snoozes the alarm that just rang, restarting the timer for the snooze duration
+     */
+    public void snooze() {
+        // Restore the work state, in case this instance didn't start the timer
+        setWorkState(store.getWorkState());
+        run(durations.getSnoozeDuration(), durations.getSnoozeDuration());
+        store.commit(TimerStore.TRANSITION_SNOOZE);
+    }
+
+    /**
+     * Starts the timer for the next work state, after the alarm rang and the user chose to
+     *  continue
+     */
+    public void startNextState() {
+        // Restore the work state, in case this instance didn't start the timer
+        setWorkState(getNextWorkState(store.getWorkState()));
+        run(getDuration(workState), getDuration(workState));
+        store.commit(TimerStore.TRANSITION_NEXT);
+    }
+
+    /**
+     * Skips the rest of the current interval and starts the timer for the next work state
+     * @return The state before skipping, for {@link #undo(Snapshot)}
+     */
+    public Snapshot skip() {
+        Snapshot snapshot = new Snapshot(workState, totalTime, getRemainingTime());
+
+        setWorkState(getNextWorkState(workState));
+        run(getDuration(workState), getDuration(workState));
+        store.commit(TimerStore.TRANSITION_SKIP);
+
+        return snapshot;
+    }
+
+    /**
+     * Stops the timer and goes back to the initial state
+     * @param isTimerComplete Whether the timer is being reset because the alarm rang. The alarm
+     *                        is only cancelled if it's not complete.
+     * @return The state before resetting, for {@link #undo(Snapshot)}
+     */
+    public Snapshot reset(boolean isTimerComplete) {
+        Snapshot snapshot = isTimerComplete ?
+                new Snapshot(workState, 0, 0) :
+                new Snapshot(workState, totalTime, getRemainingTime());
+
+        if (!isTimerComplete) cancelAlarm();
+
+        timerState = TIMER_STATE_STOPPED;
+        totalTime = 0;
+        pausedTimeRemaining = 0;
+        setWorkState(WORK_STATE_WORKING);
+        // Remove record of total timer duration and the time remaining for the paused timer
+        store.setTotalTime(0);
+        store.setPausedTimeRemaining(0);
+        store.commit(TimerStore.TRANSITION_RESET);
+
+        return snapshot;
+    }
+
+    /**
+     * Undoes a reset or a skip. Resumes the interval that was running, or, if it was complete,
+     *  starts the next one.
+     */
+    public void undo(Snapshot snapshot) {
+        if (snapshot.totalTime > 0 && snapshot.remainingTime > 0) {
+            setWorkState(snapshot.workState);
+            run(snapshot.totalTime, snapshot.remainingTime);
+        } else {
+            setWorkState(getNextWorkState(snapshot.workState));
+            run(getDuration(workState), getDuration(workState));
+        }
+        store.commit(TimerStore.TRANSITION_UNDO);
+    }
+
+    /**
+     * Sets the work state from the store, e.g. after another component changed it
+     */
+    public void reloadWorkState() {
+        setWorkState(store.getWorkState());
+        store.commit(TimerStore.TRANSITION_RESTORE);
+    }
+
+    //
+    // Helpers
+    //
+
+    /**
+     * Restores the state saved in the store, without committing
+     * @return One of the RESTORED_ constants
+     */
+    private int restoreFromStore() {
+        long savedTotalTime = store.getTotalTime();
+        if (savedTotalTime < 1) return RESTORED_NOTHING; // Means no alarm is saved
+
+        // Only set if the timer was running
+        long savedRingTime = store.getRingTime();
+        // Only set if the timer was paused
+        long savedTimeRemaining = store.getPausedTimeRemaining();
+
+        if (savedRingTime < 1 && savedTimeRemaining < 1) return RESTORED_NOTHING;
+
+        setWorkState(store.getWorkState());
+        totalTime = savedTotalTime;
+
+        if (savedRingTime > 0) {
+            // Convert from Unix / epoch time, and check if the ring time is in the future or past
+            long timeFromNow = savedRingTime - clock.currentTimeMillis();
+            if (timeFromNow <= 0) return RESTORED_RING_DUE;
+
+            run(savedTotalTime, timeFromNow);
+            return RESTORED_RUNNING;
+        } else {
+            pausedTimeRemaining = savedTimeRemaining;
+            timerState = TIMER_STATE_PAUSED;
+            return RESTORED_PAUSED;
+        }
+    }
+
+    /**
+     * Runs the timer and schedules the alarm
+     * @param total The total duration of the interval
+     * @param remaining The time remaining in the interval
+     */
+    private void run(long total, long remaining) {
+        totalTime = total;
+        pausedTimeRemaining = 0;
+        ringTime = clock.elapsedRealtime() + remaining;
+        timerState = TIMER_STATE_RUNNING;
+
+        alarmScheduler.schedule(ringTime, workState);
+
+        // Record the total duration and when the timer will ring, so we can restore if the app is
+        //  killed, and remove the record of the time remaining for the paused timer
+        store.setTotalTime(total);
+        store.setRingTime(clock.currentTimeMillis() + remaining);
+        store.setPausedTimeRemaining(0);
+    }
+
+    /**
+     * Cancels the scheduled alarm and removes the record of when it will ring
+     */
+    private void cancelAlarm() {
+        alarmScheduler.cancel();
+        store.setRingTime(0);
+    }
+
+    private void setWorkState(int newState) {
+        workState = newState;
+        store.setWorkState(newState);
+        if (listener != null) listener.onWorkStateChanged(newState);
+    }
+
+    private long getDuration(int forWorkState) {
+        return forWorkState == WORK_STATE_WORKING ?
+                durations.getWorkDuration() : durations.getBreakDuration();
+    }
+
+    private static int getNextWorkState(int currentWorkState) {
+        return currentWorkState == WORK_STATE_WORKING ? WORK_STATE_BREAKING : WORK_STATE_WORKING;
+    }
+}
@@ -0,0 +1,366 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify.engine;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * Saves the timer's state as an append-only journal of its transitions, so the saved state is
+ *  always one that a transition actually produced, even if the process dies in the middle of a
+ *  write.
+ * The journal starts with a snapshot of the whole state, followed by one entry per transition with
+ *  only the fields it changed. Every entry has a CRC32, and recovery stops at the first entry that
+ *  is torn or corrupt, and cuts it off. After {@link #DEFAULT_COMPACT_AFTER} entries the journal is
+ *  compacted: a new journal with only a snapshot of the current state is written to a temporary
+ *  file, which then replaces the old one. So restoring only reads the last snapshot and the tail.
+ * The journal is recovered once, on first use, and kept in memory after that. If there's no valid
+ *  journal, the state is migrated from the fallback backend, which is then cleared.
+ * Entries aren't synced to the disk, since the kernel still writes them if the process is killed;
+ *  only the compacted journal is, before it replaces the old one.
+ * Thread-safe, but only one instance should be used for each file in a process.
+ */
+public class TimerJournal implements TimerStateStore.PositionedBackend {
+    /**
+     * The number of transition entries after which the journal is compacted
+     */
+    public static final int DEFAULT_COMPACT_AFTER = 64;
+
+    /**
+     * The version of the format. Change it whenever the format changes.
+     */
+    public static final int VERSION = 1;
+
+    private static final int MAGIC = 0x42524b4a; // "BRKJ"
+    private static final int HEADER_SIZE = 8;
+
+    // Entry types
+    private static final byte ENTRY_SNAPSHOT = 1;
+    private static final byte ENTRY_TRANSITION = 2;
+
+    // Bits for the fields an entry contains
+    private static final int FIELD_WORK_STATE = 1;
+    private static final int FIELD_TOTAL_TIME = 1 << 1;
+    private static final int FIELD_RING_TIME = 1 << 2;
+    private static final int FIELD_PAUSED_TIME_REMAINING = 1 << 3;
+    private static final int ALL_FIELDS = FIELD_WORK_STATE | FIELD_TOTAL_TIME | FIELD_RING_TIME |
+            FIELD_PAUSED_TIME_REMAINING;
+
+    /**
+     * The type, the transition and the fields, followed by the values and the CRC
+     */
+    private static final int ENTRY_PREFIX_SIZE = 3;
+    private static final int MAX_ENTRY_SIZE = ENTRY_PREFIX_SIZE + 4 + 3 * 8 + 4;
+
+    private final File file;
+    private final File tempFile;
+    private final TimerStateStore.Backend fallback;
+    private final int compactAfter;
+
+    /**
+     * The current state, or null if the journal wasn't recovered yet
+     */
+    private TimerStateStore.State state;
+    /**
+     * The number of transition entries after the snapshot
+     */
+    private int entryCount;
+    /**
+     * Appends to the journal, or null if the journal has to be compacted before appending, e.g.
+     *  after a write failed
+     */
+    private FileOutputStream out;
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + MAX_ENTRY_SIZE);
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * @param file The journal file. Created if it doesn't exist.
+     * @param fallback Where to migrate the state from if there's no valid journal
+     */
+    public TimerJournal(File file, TimerStateStore.Backend fallback) {
+        this(file, fallback, DEFAULT_COMPACT_AFTER);
+    }
+
+    /**
+     * @param compactAfter The number of transition entries after which the journal is compacted
+     */
+    public TimerJournal(File file, TimerStateStore.Backend fallback, int compactAfter) {
+        this.file = file;
+        this.tempFile = new File(file.getPath() + ".tmp");
+        this.fallback = fallback;
+        this.compactAfter = compactAfter;
+    }
+
+    @Override
+    public synchronized TimerStateStore.State read() {
+        recover();
+        return copy(state);
+    }
+
+    @Override
+    public synchronized void write(TimerStateStore.State newState, int transition) {
+        recover();
+
+        int fields = getChangedFields(state, newState);
+        if (fields == 0) return;
+
+        try {
+            if (out == null || entryCount >= compactAfter) {
+                compact(newState, transition);
+            } else {
+                buffer.clear();
+                encodeEntry(ENTRY_TRANSITION, transition, fields, newState);
+                out.write(buffer.array(), 0, buffer.position());
+                entryCount++;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            // Keep the state in memory, and write a new journal next time
+            closeOut();
+        }
+        state = copy(newState);
+    }
+
+    /**
+     * The length of the journal, which grows with every entry, and only shrinks when the journal
+     *  is compacted or a torn tail is cut off. Doesn't recover the journal, so it's just a stat.
+     */
+    @Override
+    public synchronized long getPosition() {
+        return file.length();
+    }
+
+    //
+    // Helpers
+    //
+
+    /**
+     * Reads the journal, if it wasn't read yet. Cuts off a torn or corrupt tail, or, if there's no
+     *  valid journal, migrates the state from the fallback.
+     */
+    private void recover() {
+        if (state != null) return;
+
+        // A temporary file means the process died while compacting, before the temporary file
+        //  replaced the old journal, so the old journal is still complete
+        if (tempFile.exists()) tempFile.delete();
+
+        state = new TimerStateStore.State();
+        boolean hasSnapshot = false;
+        int validLength = 0;
+        byte[] data = readFile();
+        if (data != null && data.length >= HEADER_SIZE) {
+            ByteBuffer journal = ByteBuffer.wrap(data);
+            if (journal.getInt(0) == MAGIC && journal.getInt(4) == VERSION) {
+                validLength = HEADER_SIZE;
+                int length;
+                while ((length = decodeEntry(journal, validLength, hasSnapshot)) > 0) {
+                    hasSnapshot = true;
+                    validLength += length;
+                }
+            }
+        }
+
+        try {
+            if (!hasSnapshot) {
+                // No valid journal, e.g. the first time after updating from a version that used
+                //  the fallback, so start a new one with the state from the fallback
+                TimerStateStore.State migrated = fallback.read();
+                compact(migrated, TimerStore.TRANSITION_RESTORE);
+                state = migrated;
+                if (!isEmpty(migrated))
+                    fallback.write(new TimerStateStore.State(), TimerStore.TRANSITION_RESTORE);
+            } else {
+                if (validLength < data.length) {
+                    // Cut off the torn or corrupt tail, so new entries aren't appended after it
+                    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                    try {
+                        raf.setLength(validLength);
+                    } finally {
+                        raf.close();
+                    }
+                }
+                out = new FileOutputStream(file, true);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            closeOut();
+        }
+    }
+
+    /**
+     * Decodes the entry at the offset, and applies it to the state
+     * @param hasSnapshot Whether a snapshot was decoded yet. Only a snapshot can be the first entry.
+     * @return The length of the entry, or 0 if it's torn or not valid
+     */
+    private int decodeEntry(ByteBuffer journal, int offset, boolean hasSnapshot) {
+        if (journal.limit() - offset < ENTRY_PREFIX_SIZE) return 0;
+
+        byte type = journal.get(offset);
+        int fields = journal.get(offset + 2);
+        if (type == ENTRY_SNAPSHOT) {
+            if (fields != ALL_FIELDS) return 0;
+        } else if (type != ENTRY_TRANSITION || !hasSnapshot || fields == 0 ||
+                (fields & ~ALL_FIELDS) != 0) {
+            return 0;
+        }
+
+        int length = getEntrySize(fields);
+        if (journal.limit() - offset < length) return 0;
+
+        crc.reset();
+        crc.update(journal.array(), offset, length - 4);
+        if ((int) crc.getValue() != journal.getInt(offset + length - 4)) return 0;
+
+        if (type == ENTRY_SNAPSHOT) entryCount = 0;
+        else entryCount++;
+
+        int position = offset + ENTRY_PREFIX_SIZE;
+        if ((fields & FIELD_WORK_STATE) != 0) {
+            state.workState = journal.getInt(position);
+            position += 4;
+        }
+        if ((fields & FIELD_TOTAL_TIME) != 0) {
+            state.totalTime = journal.getLong(position);
+            position += 8;
+        }
+        if ((fields & FIELD_RING_TIME) != 0) {
+            state.ringTime = journal.getLong(position);
+            position += 8;
+        }
+        if ((fields & FIELD_PAUSED_TIME_REMAINING) != 0)
+            state.pausedTimeRemaining = journal.getLong(position);
+
+        return length;
+    }
+
+    /**
+     * Encodes an entry into the buffer, at its position
+     */
+    private void encodeEntry(byte type, int transition, int fields, TimerStateStore.State state) {
+        int start = buffer.position();
+        buffer.put(type).put((byte) transition).put((byte) fields);
+        if ((fields & FIELD_WORK_STATE) != 0) buffer.putInt(state.workState);
+        if ((fields & FIELD_TOTAL_TIME) != 0) buffer.putLong(state.totalTime);
+        if ((fields & FIELD_RING_TIME) != 0) buffer.putLong(state.ringTime);
+        if ((fields & FIELD_PAUSED_TIME_REMAINING) != 0)
+            buffer.putLong(state.pausedTimeRemaining);
+
+        crc.reset();
+        crc.update(buffer.array(), start, buffer.position() - start);
+        buffer.putInt((int) crc.getValue());
+    }
+
+    /**
+     * Replaces the journal with a new one that only has a snapshot of the state
+     */
+    private void compact(TimerStateStore.State snapshot, int transition) throws IOException {
+        closeOut();
+
+        buffer.clear();
+        buffer.putInt(MAGIC).putInt(VERSION);
+        encodeEntry(ENTRY_SNAPSHOT, transition, ALL_FIELDS, snapshot);
+
+        FileOutputStream tempOut = new FileOutputStream(tempFile);
+        try {
+            tempOut.write(buffer.array(), 0, buffer.position());
+            // Make sure the new journal is on the disk before it replaces the old one
+            tempOut.getFD().sync();
+        } finally {
+            tempOut.close();
+        }
+        if (!tempFile.renameTo(file)) throw new IOException("Couldn't replace " + file);
+
+        out = new FileOutputStream(file, true);
+        entryCount = 0;
+    }
+
+    /**
+     * Reads the whole journal
+     * @return The contents, or null if there's no journal
+     */
+    private byte[] readFile() {
+        if (!file.exists()) return null;
+
+        try {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                byte[] data = new byte[(int) file.length()];
+                int read = 0;
+                int count;
+                while (read < data.length && (count = in.read(data, read, data.length - read)) > 0)
+                    read += count;
+                return data;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private void closeOut() {
+        if (out == null) return;
+        try {
+            out.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        out = null;
+    }
+
+    private static int getEntrySize(int fields) {
+        int size = ENTRY_PREFIX_SIZE + 4; // The CRC
+        if ((fields & FIELD_WORK_STATE) != 0) size += 4;
+        if ((fields & FIELD_TOTAL_TIME) != 0) size += 8;
+        if ((fields & FIELD_RING_TIME) != 0) size += 8;
+        if ((fields & FIELD_PAUSED_TIME_REMAINING) != 0) size += 8;
+        return size;
+    }
+
+    private static int getChangedFields(TimerStateStore.State from, TimerStateStore.State to) {
+        int fields = 0;
+        if (from.workState != to.workState) fields |= FIELD_WORK_STATE;
+        if (from.totalTime != to.totalTime) fields |= FIELD_TOTAL_TIME;
+        if (from.ringTime != to.ringTime) fields |= FIELD_RING_TIME;
+        if (from.pausedTimeRemaining != to.pausedTimeRemaining)
+            fields |= FIELD_PAUSED_TIME_REMAINING;
+        return fields;
+    }
+
+    private static TimerStateStore.State copy(TimerStateStore.State state) {
+        TimerStateStore.State copy = new TimerStateStore.State();
+        copy.workState = state.workState;
+        copy.totalTime = state.totalTime;
+        copy.ringTime = state.ringTime;
+        copy.pausedTimeRemaining = state.pausedTimeRemaining;
+        return copy;
+    }
+
+    private static boolean isEmpty(TimerStateStore.State state) {
+        return state.workState == 0 && state.totalTime == 0 && state.ringTime == 0 &&
+                state.pausedTimeRemaining == 0;
+    }
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify.engine;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The deadlines of named timers, in a binary min-heap, with an index from each name to its place
+ *  in the heap. Getting the earliest deadline is O(1), and setting, changing or removing a
+ *  deadline is O(log n).
+ * Not thread-safe.
+ */
+public class TimerQueue {
+    private String[] names = new String[8];
+    private long[] deadlines = new long[8];
+    private int size;
+    /**
+     * The index of each name in the heap
+     */
+    private final HashMap<String, Integer> indexes = new HashMap<String, Integer>();
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * The earliest deadline, or 0 if there are no timers
+     */
+    public long getEarliestDeadline() {
+        return size == 0 ? 0 : deadlines[0];
+    }
+
+    /**
+     * The name of the timer with the earliest deadline, or null if there are no timers
+     */
+    public String getEarliestName() {
+        return size == 0 ? null : names[0];
+    }
+
+    /**
+     * The deadline of the timer, or 0 if there's no timer with the name
+     */
+    public long getDeadline(String name) {
+        Integer index = indexes.get(name);
+        return index == null ? 0 : deadlines[index];
+    }
+
+    /**
+     * The name of the timer at the index, in heap order, for iterating over all the timers
+     */
+    public String getNameAt(int index) {
+        return names[index];
+    }
+
+    /**
+     * The deadline of the timer at the index, in heap order, for iterating over all the timers
+     */
+    public long getDeadlineAt(int index) {
+        return deadlines[index];
+    }
+
+    /**
+     * Adds a timer, or changes its deadline if there's already a timer with the name
+     */
+    public void set(String name, long deadline) {
+        Integer index = indexes.get(name);
+        if (index != null) {
+            long oldDeadline = deadlines[index];
+            deadlines[index] = deadline;
+            if (deadline < oldDeadline) siftUp(index);
+            else siftDown(index);
+            return;
+        }
+
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            deadlines = Arrays.copyOf(deadlines, size * 2);
+        }
+        names[size] = name;
+        deadlines[size] = deadline;
+        indexes.put(name, size);
+        siftUp(size++);
+    }
+
+    /**
+     * Removes the timer, if there is one with the name
+     * @return Whether there was a timer with the name
+     */
+    public boolean remove(String name) {
+        Integer index = indexes.remove(name);
+        if (index == null) return false;
+
+        size--;
+        if (index != size) {
+            // Move the last timer into the hole, and restore the heap order from there
+            move(size, index);
+            siftDown(index);
+            siftUp(index);
+        }
+        names[size] = null;
+        return true;
+    }
+
+    /**
+     * Removes all the timers whose deadline is at or before the time
+     * @param due The names of the removed timers are added to this, earliest first
+     * @return The number of timers removed
+     */
+    public int pollDue(long time, List<String> due) {
+        int count = 0;
+        while (size > 0 && deadlines[0] <= time) {
+            String name = names[0];
+            remove(name);
+            due.add(name);
+            count++;
+        }
+        return count;
+    }
+
+    public void clear() {
+        Arrays.fill(names, 0, size, null);
+        indexes.clear();
+        size = 0;
+    }
+
+    //
+    // Helpers
+    //
+
+    private void siftUp(int index) {
+        String name = names[index];
+        long deadline = deadlines[index];
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (deadlines[parent] <= deadline) break;
+            move(parent, index);
+            index = parent;
+        }
+        place(name, deadline, index);
+    }
+
+    private void siftDown(int index) {
+        String name = names[index];
+        long deadline = deadlines[index];
+        int half = size / 2;
+        while (index < half) {
+            int child = 2 * index + 1;
+            if (child + 1 < size && deadlines[child + 1] < deadlines[child]) child++;
+            if (deadline <= deadlines[child]) break;
+            move(child, index);
+            index = child;
+        }
+        place(name, deadline, index);
+    }
+
+    private void move(int from, int to) {
+        place(names[from], deadlines[from], to);
+    }
+
+    private void place(String name, long deadline, int index) {
+        names[index] = name;
+        deadlines[index] = deadline;
+        indexes.put(name, index);
+    }
+}
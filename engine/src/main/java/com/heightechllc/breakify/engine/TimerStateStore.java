@@ -0,0 +1,154 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify.engine;
+
+/**
+ * A {@link TimerStore} that collects the changes made by the setters and saves them all at once on
+ *  {@link #commit(int)}, so each transition of the {@link TimerEngine} costs a single write, however
+ *  many fields it changes. Setting a field to the value it already has isn't a change, so
+ *  transitions that don't change anything don't write at all.
+ * The getters read through to the backend, so a store that was changed by another component (e.g.
+ *  a BroadcastReceiver) is never stale.
+ */
+public class TimerStateStore implements TimerStore {
+    /**
+     * Where the state is actually saved, e.g. SharedPreferences
+     */
+    public interface Backend {
+        /**
+         * Reads the saved state. Fields that aren't saved are 0.
+         */
+        State read();
+
+        /**
+         * Saves the whole state in a single write
+         * @param transition The transition that changed the state, one of the
+         *                   {@link TimerStore} TRANSITION_ constants
+         */
+        void write(State state, int transition);
+    }
+
+    /**
+     * A backend that can tell where its saved state ends without reading it, e.g. the length of a
+     *  journal, so a cache of the state can tell whether it's stale
+     */
+    public interface PositionedBackend extends Backend {
+        /**
+         * The position after the last write. Changes whenever a write changes the saved state.
+         */
+        long getPosition();
+    }
+
+    /**
+     * The saved fields. A field that is 0 isn't set.
+     */
+    public static class State {
+        public int workState;
+        public long totalTime;
+        public long ringTime;
+        public long pausedTimeRemaining;
+    }
+
+    // Bits for the pending changes
+    private static final int CHANGED_WORK_STATE = 1;
+    private static final int CHANGED_TOTAL_TIME = 1 << 1;
+    private static final int CHANGED_RING_TIME = 1 << 2;
+    private static final int CHANGED_PAUSED_TIME_REMAINING = 1 << 3;
+
+    private final Backend backend;
+    /**
+     * The values set since the last commit. Only the fields in `changed` are meaningful.
+     */
+    private final State pending = new State();
+    private int changed;
+
+    public TimerStateStore(Backend backend) {
+        this.backend = backend;
+    }
+
+    @Override
+    public int getWorkState() {
+        int workState = (changed & CHANGED_WORK_STATE) != 0 ?
+                pending.workState : backend.read().workState;
+        return workState == 0 ? TimerEngine.WORK_STATE_WORKING : workState;
+    }
+
+    @Override
+    public void setWorkState(int workState) {
+        if (workState == getWorkState()) return;
+        pending.workState = workState;
+        changed |= CHANGED_WORK_STATE;
+    }
+
+    @Override
+    public long getTotalTime() {
+        return (changed & CHANGED_TOTAL_TIME) != 0 ? pending.totalTime : backend.read().totalTime;
+    }
+
+    @Override
+    public void setTotalTime(long totalTime) {
+        if (totalTime == getTotalTime()) return;
+        pending.totalTime = totalTime;
+        changed |= CHANGED_TOTAL_TIME;
+    }
+
+    @Override
+    public long getRingTime() {
+        return (changed & CHANGED_RING_TIME) != 0 ? pending.ringTime : backend.read().ringTime;
+    }
+
+    @Override
+    public void setRingTime(long ringTime) {
+        if (ringTime == getRingTime()) return;
+        pending.ringTime = ringTime;
+        changed |= CHANGED_RING_TIME;
+    }
+
+    @Override
+    public long getPausedTimeRemaining() {
+        return (changed & CHANGED_PAUSED_TIME_REMAINING) != 0 ?
+                pending.pausedTimeRemaining : backend.read().pausedTimeRemaining;
+    }
+
+    @Override
+    public void setPausedTimeRemaining(long remaining) {
+        if (remaining == getPausedTimeRemaining()) return;
+        pending.pausedTimeRemaining = remaining;
+        changed |= CHANGED_PAUSED_TIME_REMAINING;
+    }
+
+    /**
+     * Saves the changes made since the last commit in a single write, or does nothing if nothing
+     *  changed
+     */
+    @Override
+    public void commit(int transition) {
+        if (changed == 0) return;
+
+        // Apply the changes over the saved state, so fields that weren't changed are kept
+        State state = backend.read();
+        if ((changed & CHANGED_WORK_STATE) != 0) state.workState = pending.workState;
+        if ((changed & CHANGED_TOTAL_TIME) != 0) state.totalTime = pending.totalTime;
+        if ((changed & CHANGED_RING_TIME) != 0) state.ringTime = pending.ringTime;
+        if ((changed & CHANGED_PAUSED_TIME_REMAINING) != 0)
+            state.pausedTimeRemaining = pending.pausedTimeRemaining;
+
+        changed = 0;
+        backend.write(state, transition);
+    }
+}
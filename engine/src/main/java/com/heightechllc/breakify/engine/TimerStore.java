@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify.engine;
+
+/**
+ * Stores the timer's state, so it can be restored when the app is restarted. For all the times,
+ *  0 means that there's no value stored.
+ */
+public interface TimerStore {
+    // Transitions, for commit(int)
+    int TRANSITION_RESTORE = 1;
+    int TRANSITION_START = 2;
+    int TRANSITION_RESUME = 3;
+    int TRANSITION_PAUSE = 4;
+    int TRANSITION_SNOOZE = 5;
+    int TRANSITION_NEXT = 6;
+    int TRANSITION_SKIP = 7;
+    int TRANSITION_RESET = 8;
+    int TRANSITION_UNDO = 9;
+    /**
+     * The alarm rang and the user chose what to do next
+     */
+    int TRANSITION_RING = 10;
+
+    int getWorkState();
+
+    void setWorkState(int workState);
+
+    /**
+     * The total duration of the current interval
+     */
+    long getTotalTime();
+
+    void setTotalTime(long totalTime);
+
+    /**
+     * When the running timer will ring, in {@link Clock#currentTimeMillis()} time, since
+     *  elapsedRealtime is reset on each boot
+     */
+    long getRingTime();
+
+    void setRingTime(long ringTime);
+
+    /**
+     * The remaining time of the paused timer
+     */
+    long getPausedTimeRemaining();
+
+    void setPausedTimeRemaining(long remaining);
+
+    /**
+     * Saves the changes made by the setters. Called once at the end of each transition, so a
+     *  store can write all the changes at once.
+     * @param transition The transition that made the changes, one of the TRANSITION_ constants
+     */
+    void commit(int transition);
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify.engine;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes the cache of a decoded alarm tone: mono 16-bit PCM samples, with the key of
+ *  the tone they were decoded from (e.g. its URI) and a fingerprint of its content, so the cache
+ *  can be thrown away when either one changes.
+ * The file is a fixed header, the key, the samples, and a CRC32 of all of them. It's written to a
+ *  temporary file which then replaces the old one, so a reader never sees a partial cache.
+ */
+public class ToneCacheFile {
+    /**
+     * The version of the format. Change it whenever the format changes.
+     */
+    public static final int VERSION = 1;
+
+    private static final int MAGIC = 0x42524b54; // "BRKT"
+    /**
+     * The magic, the version, the fingerprint, the sample rate, the sample count and the key
+     *  length
+     */
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 4 + 4;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * A decoded tone
+     */
+    public static class Tone {
+        /**
+         * What the tone was decoded from, e.g. its URI
+         */
+        public final String key;
+        /**
+         * A fingerprint of the content the tone was decoded from
+         */
+        public final long fingerprint;
+        public final int sampleRate;
+        /**
+         * The mono 16-bit PCM samples
+         */
+        public final short[] samples;
+
+        public Tone(String key, long fingerprint, int sampleRate, short[] samples) {
+            this.key = key;
+            this.fingerprint = fingerprint;
+            this.sampleRate = sampleRate;
+            this.samples = samples;
+        }
+    }
+
+    /**
+     * Writes the cache, replacing the old one
+     */
+    public static void write(File file, Tone tone) throws IOException {
+        byte[] key = tone.key.getBytes(UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + key.length +
+                tone.samples.length * 2 + 4);
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(tone.fingerprint)
+                .putInt(tone.sampleRate).putInt(tone.samples.length).putInt(key.length).put(key);
+        buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().put(tone.samples);
+        buffer.position(buffer.position() + tone.samples.length * 2);
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+
+        File tempFile = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tempFile);
+        try {
+            out.write(buffer.array());
+            // Make sure the new cache is on the disk before it replaces the old one
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tempFile.renameTo(file)) throw new IOException("Couldn't replace " + file);
+    }
+
+    /**
+     * Reads the cache
+     * @return The cached tone, or null if there's no cache or it isn't valid
+     */
+    public static Tone read(File file) {
+        byte[] data = readFile(file);
+        if (data == null || data.length < HEADER_SIZE + 4) return null;
+
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) return null;
+        long fingerprint = buffer.getLong();
+        int sampleRate = buffer.getInt();
+        int sampleCount = buffer.getInt();
+        int keyLength = buffer.getInt();
+        if (sampleCount < 0 || keyLength < 0 ||
+                data.length != HEADER_SIZE + keyLength + sampleCount * 2L + 4)
+            return null;
+
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 4);
+        ByteBuffer crcBuffer = ByteBuffer.wrap(data, data.length - 4, 4);
+        if (crcBuffer.getInt() != (int) crc.getValue()) return null;
+
+        String key = new String(data, HEADER_SIZE, keyLength, UTF_8);
+        buffer.position(HEADER_SIZE + keyLength);
+        short[] samples = new short[sampleCount];
+        buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(samples);
+
+        return new Tone(key, fingerprint, sampleRate, samples);
+    }
+
+    /**
+     * Reads the whole file
+     * @return The contents, or null if there's no file or it can't be read
+     */
+    private static byte[] readFile(File file) {
+        if (!file.exists()) return null;
+
+        try {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                byte[] data = new byte[(int) file.length()];
+                int read = 0;
+                int count;
+                while (read < data.length && (count = in.read(data, read, data.length - read)) > 0)
+                    read += count;
+                return read == data.length ? data : null;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify.engine;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that LatencyLog computes the per-stage latencies, and keeps them across instances
+ */
+public class LatencyLogTest {
+    /**
+     * Saves right away, so the tests can check the file
+     */
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("ring_latency", null);
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void deltasSkipStagesThatWerentReached() {
+        LatencyLog log = new LatencyLog(mFile, DIRECT);
+        log.begin(1000, 1010);
+        // Opened directly, without MainActivity
+        log.mark(LatencyLog.STAGE_RINGING_ACTIVITY, 1100);
+        log.mark(LatencyLog.STAGE_RINGER_START, 1150);
+        log.mark(LatencyLog.STAGE_SOUND, 1400);
+
+        assertEquals(10, log.getDeltas(LatencyLog.STAGE_RECEIVED)[0]);
+        assertEquals(0, log.getDeltas(LatencyLog.STAGE_MAIN_ACTIVITY).length);
+        assertEquals(90, log.getDeltas(LatencyLog.STAGE_RINGING_ACTIVITY)[0]);
+        assertEquals(50, log.getDeltas(LatencyLog.STAGE_RINGER_START)[0]);
+        assertEquals(250, log.getDeltas(LatencyLog.STAGE_SOUND)[0]);
+        assertEquals(400, log.getTotals()[0]);
+    }
+
+    @Test
+    public void marksAfterTheSoundAreIgnored() {
+        LatencyLog log = new LatencyLog(mFile, DIRECT);
+        // No alarm was begun
+        log.mark(LatencyLog.STAGE_SOUND, 50);
+        assertEquals(0, log.size());
+
+        log.begin(1000, 1000);
+        log.mark(LatencyLog.STAGE_SOUND, 1200);
+        // e.g. RingingActivity opened again from the notification
+        log.mark(LatencyLog.STAGE_RINGING_ACTIVITY, 5000);
+        log.mark(LatencyLog.STAGE_SOUND, 6000);
+
+        assertEquals(0, log.getDeltas(LatencyLog.STAGE_RINGING_ACTIVITY).length);
+        assertEquals(200, log.getTotals()[0]);
+    }
+
+    @Test
+    public void onlyClosedAlarmsAreSaved() {
+        LatencyLog log = new LatencyLog(mFile, DIRECT);
+        log.begin(1000, 1010);
+        log.mark(LatencyLog.STAGE_RINGING_ACTIVITY, 1100);
+        log.mark(LatencyLog.STAGE_RINGER_START, 1150);
+        // Nothing is written while the alarm is ringing
+        assertTrue(!mFile.exists());
+        assertEquals(0, log.size());
+
+        // An alarm that never made a sound is saved when the next one begins
+        log.begin(5000, 5020);
+        assertEquals(1, new LatencyLog(mFile, DIRECT).size());
+        assertEquals(50, log.getDeltas(LatencyLog.STAGE_RINGER_START)[0]);
+        assertEquals(0, log.getTotals().length);
+
+        log.mark(LatencyLog.STAGE_SOUND, 5300);
+        assertEquals(2, new LatencyLog(mFile, DIRECT).size());
+        assertEquals(300, log.getTotals()[0]);
+    }
+
+    @Test
+    public void percentiles() {
+        long[] sorted = new long[100];
+        for (int i = 0; i < sorted.length; i++) sorted[i] = i + 1;
+
+        assertEquals(50, LatencyLog.getPercentile(sorted, 50));
+        assertEquals(90, LatencyLog.getPercentile(sorted, 90));
+        assertEquals(99, LatencyLog.getPercentile(sorted, 99));
+        assertEquals(100, LatencyLog.getPercentile(sorted, 100));
+        assertEquals(7, LatencyLog.getPercentile(new long[]{7}, 99));
+        assertEquals(0, LatencyLog.getPercentile(new long[0], 50));
+    }
+
+    @Test
+    public void persistsAcrossInstances() {
+        LatencyLog log = new LatencyLog(mFile, 4, DIRECT);
+        addAlarm(log, 1000, 100);
+        addAlarm(log, 2000, 300);
+
+        LatencyLog reopened = new LatencyLog(mFile, 4, DIRECT);
+        assertEquals(2, reopened.size());
+        assertEquals(100, reopened.getTotals()[0]);
+        assertEquals(300, reopened.getTotals()[1]);
+
+        // The alarm that was ringing isn't carried over
+        reopened.mark(LatencyLog.STAGE_RINGER_START, 2500);
+        assertEquals(0, reopened.getDeltas(LatencyLog.STAGE_RINGER_START).length);
+
+        // A log with a different capacity starts empty
+        assertEquals(0, new LatencyLog(mFile, 8, DIRECT).size());
+    }
+
+    @Test
+    public void oldestAlarmsAreReplaced() {
+        LatencyLog log = new LatencyLog(mFile, 3, DIRECT);
+        for (int i = 1; i <= 5; i++) addAlarm(log, i * 1000, i);
+
+        LatencyLog reopened = new LatencyLog(mFile, 3, DIRECT);
+        assertEquals(3, reopened.size());
+        long[] totals = reopened.getTotals();
+        assertEquals(3, totals[0]);
+        assertEquals(4, totals[1]);
+        assertEquals(5, totals[2]);
+
+        reopened.reset();
+        assertEquals(0, new LatencyLog(mFile, 3, DIRECT).size());
+    }
+
+    //
+    // Helpers
+    //
+
+    private static void addAlarm(LatencyLog log, long deadline, long latency) {
+        log.begin(deadline, deadline);
+        log.mark(LatencyLog.STAGE_SOUND, deadline + latency);
+    }
+}
@@ -0,0 +1,215 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify.engine;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the MappedTimerStateFile's layout, and that it writes through to its source and rebuilds
+ *  the record from it
+ */
+public class MappedTimerStateFileTest {
+    private File mFile;
+    private File mJournalFile;
+    private MemoryBackend mSource;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("timer_state", null);
+        // Start without a file, like the first time the app runs
+        mFile.delete();
+        mJournalFile = new File(mFile.getPath() + "_journal");
+        mSource = new MemoryBackend();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+        mJournalFile.delete();
+    }
+
+    @Test
+    public void roundTrip() {
+        new MappedTimerStateFile(mFile, mSource).write(createState(2, 1000, 2000, 0),
+                TimerStore.TRANSITION_START);
+        assertEquals(1, mSource.writeCount);
+        assertEquals(MappedTimerStateFile.SIZE, mFile.length());
+
+        // Read with a new instance, like from another component after the app was killed. It
+        //  shouldn't need the source.
+        mSource.state = new TimerStateStore.State();
+        assertState(createState(2, 1000, 2000, 0),
+                new MappedTimerStateFile(mFile, mSource).read());
+    }
+
+    @Test
+    public void rebuildsFromSource() {
+        mSource.state = createState(2, 1000, 0, 500);
+        assertState(createState(2, 1000, 0, 500), new MappedTimerStateFile(mFile, mSource).read());
+
+        // The record is read from the file from now on
+        mSource.state = new TimerStateStore.State();
+        assertState(createState(2, 1000, 0, 500),
+                new MappedTimerStateFile(mFile, mSource).read());
+        assertEquals(0, mSource.writeCount);
+    }
+
+    @Test
+    public void corruptRecordIsRebuilt() throws IOException {
+        new MappedTimerStateFile(mFile, mSource).write(createState(2, 1000, 2000, 0),
+                TimerStore.TRANSITION_START);
+        mSource.state = createState(1, 3000, 4000, 0);
+
+        // Flip a bit in the ring time, like a torn write
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        raf.seek(24);
+        int b = raf.read();
+        raf.seek(24);
+        raf.write(b ^ 1);
+        raf.close();
+
+        assertState(createState(1, 3000, 4000, 0),
+                new MappedTimerStateFile(mFile, mSource).read());
+    }
+
+    @Test
+    public void otherVersionIsRebuilt() throws IOException {
+        new MappedTimerStateFile(mFile, mSource).write(createState(2, 1000, 2000, 0),
+                TimerStore.TRANSITION_START);
+        mSource.state = createState(1, 3000, 4000, 0);
+
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        raf.seek(4);
+        raf.writeInt(MappedTimerStateFile.VERSION + 1);
+        raf.close();
+
+        assertState(createState(1, 3000, 4000, 0),
+                new MappedTimerStateFile(mFile, mSource).read());
+    }
+
+    @Test
+    public void recordBehindJournalIsRejected() {
+        new MappedTimerStateFile(mFile, new TimerJournal(mJournalFile, mSource))
+                .write(createState(2, 1000, 2000, 0), TimerStore.TRANSITION_START);
+
+        // Kill between the writes: the next transition is appended to the journal, but the
+        //  process dies before the record is updated
+        new TimerJournal(mJournalFile, mSource)
+                .write(createState(2, 1000, 0, 500), TimerStore.TRANSITION_PAUSE);
+
+        assertState(createState(2, 1000, 0, 500), new MappedTimerStateFile(mFile,
+                new TimerJournal(mJournalFile, mSource)).read());
+        // The rebuilt record matches the journal, so it's used from now on
+        assertState(createState(2, 1000, 0, 500), new MappedTimerStateFile(mFile,
+                new TimerJournal(mJournalFile, mSource)).read());
+    }
+
+    @Test
+    public void recordIsRejectedIfKilledDuringSourceWrite() {
+        final TimerJournal journal = new TimerJournal(mJournalFile, mSource);
+        new MappedTimerStateFile(mFile, journal)
+                .write(createState(2, 1000, 2000, 0), TimerStore.TRANSITION_START);
+
+        // The process dies right after the journal is written, inside the write
+        TimerStateStore.Backend dyingSource = new TimerStateStore.Backend() {
+            @Override
+            public TimerStateStore.State read() {
+                return journal.read();
+            }
+
+            @Override
+            public void write(TimerStateStore.State state, int transition) {
+                journal.write(state, transition);
+                throw new IllegalStateException("Killed");
+            }
+        };
+        try {
+            new MappedTimerStateFile(mFile, dyingSource)
+                    .write(createState(1, 3000, 4000, 0), TimerStore.TRANSITION_SKIP);
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+
+        assertState(createState(1, 3000, 4000, 0), new MappedTimerStateFile(mFile,
+                new TimerJournal(mJournalFile, mSource)).read());
+    }
+
+    @Test
+    public void usesSourceIfFileCantBeMapped() {
+        // A directory can't be mapped
+        File dir = new File(mFile.getPath() + "_dir");
+        dir.mkdir();
+        try {
+            MappedTimerStateFile stateFile = new MappedTimerStateFile(dir, mSource);
+            stateFile.write(createState(2, 1000, 2000, 0), TimerStore.TRANSITION_START);
+            assertState(createState(2, 1000, 2000, 0), mSource.state);
+            assertState(createState(2, 1000, 2000, 0), stateFile.read());
+        } finally {
+            dir.delete();
+        }
+    }
+
+    //
+    // Helpers
+    //
+
+    static TimerStateStore.State createState(int workState, long totalTime, long ringTime,
+                                             long pausedTimeRemaining) {
+        TimerStateStore.State state = new TimerStateStore.State();
+        state.workState = workState;
+        state.totalTime = totalTime;
+        state.ringTime = ringTime;
+        state.pausedTimeRemaining = pausedTimeRemaining;
+        return state;
+    }
+
+    static void assertState(TimerStateStore.State expected, TimerStateStore.State actual) {
+        assertEquals(expected.workState, actual.workState);
+        assertEquals(expected.totalTime, actual.totalTime);
+        assertEquals(expected.ringTime, actual.ringTime);
+        assertEquals(expected.pausedTimeRemaining, actual.pausedTimeRemaining);
+    }
+
+    /**
+     * Keeps the state in memory, and counts the writes
+     */
+    static class MemoryBackend implements TimerStateStore.Backend {
+        TimerStateStore.State state = new TimerStateStore.State();
+        int writeCount;
+
+        @Override
+        public TimerStateStore.State read() {
+            return createState(state.workState, state.totalTime, state.ringTime,
+                    state.pausedTimeRemaining);
+        }
+
+        @Override
+        public void write(TimerStateStore.State state, int transition) {
+            this.state = state;
+            writeCount++;
+        }
+    }
+}
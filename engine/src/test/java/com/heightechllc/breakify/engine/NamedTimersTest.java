@@ -0,0 +1,176 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify.engine;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests NamedTimers and its TimerQueue against a simple model, with thousands of random timers,
+ *  checking the order they're due in and how often the alarm is re-armed
+ */
+public class NamedTimersTest {
+    private static final int OPERATION_COUNT = 20000;
+    private static final int NAME_COUNT = 2000;
+
+    private FakeAlarm mAlarm;
+    private NamedTimers mTimers;
+
+    @Before
+    public void setUp() {
+        mAlarm = new FakeAlarm();
+        mTimers = new NamedTimers(mAlarm);
+    }
+
+    @Test
+    public void armsEarliestDeadline() {
+        mTimers.set("laundry", 5000);
+        assertEquals(5000, mAlarm.armedTime);
+        mTimers.set("focus", 3000);
+        assertEquals(3000, mAlarm.armedTime);
+        mTimers.set("tea", 4000);
+        assertEquals(3000, mAlarm.armedTime);
+
+        mTimers.remove("focus");
+        assertEquals(4000, mAlarm.armedTime);
+        mTimers.remove("tea");
+        mTimers.remove("laundry");
+        assertEquals(0, mAlarm.armedTime);
+        assertEquals(5, mAlarm.armCount);
+    }
+
+    @Test
+    public void laterTimersDontRearm() {
+        mTimers.set("first", 1000);
+        for (int i = 0; i < NAME_COUNT; i++) mTimers.set("timer" + i, 2000 + i);
+
+        assertEquals(1, mAlarm.armCount);
+        assertEquals(1, mTimers.getArmCount());
+    }
+
+    @Test
+    public void onAlarmReturnsDueTimersInOrder() {
+        mTimers.set("c", 3000);
+        mTimers.set("a", 1000);
+        mTimers.set("b", 2000);
+        mTimers.set("d", 4000);
+
+        List<String> due = new ArrayList<String>();
+        assertEquals(3, mTimers.onAlarm(3000, due));
+        assertEquals("a", due.get(0));
+        assertEquals("b", due.get(1));
+        assertEquals("c", due.get(2));
+        assertEquals(4000, mAlarm.armedTime);
+    }
+
+    @Test
+    public void randomTimers() {
+        Random random = new Random(613);
+        // The model: the deadline of each timer
+        Map<String, Long> model = new HashMap<String, Long>();
+        long now = 0;
+        int expectedArmCount = 0;
+        List<String> due = new ArrayList<String>();
+
+        for (int i = 0; i < OPERATION_COUNT; i++) {
+            long earliestBefore = getEarliest(model);
+            int operation = random.nextInt(10);
+
+            if (operation < 6) {
+                // Add or change a timer
+                String name = "timer" + random.nextInt(NAME_COUNT);
+                long deadline = now + 1 + random.nextInt(1000000);
+                mTimers.set(name, deadline);
+                model.put(name, deadline);
+            } else if (operation < 9) {
+                String name = "timer" + random.nextInt(NAME_COUNT);
+                mTimers.remove(name);
+                model.remove(name);
+            } else {
+                // Let time pass up to a random deadline, and let the alarm go off
+                now = Math.max(now, mAlarm.armedTime) + random.nextInt(1000);
+                due.clear();
+                mTimers.onAlarm(now, due);
+
+                // Exactly the timers that are due were removed, earliest first
+                long lastDeadline = Long.MIN_VALUE;
+                for (String name : due) {
+                    long deadline = model.remove(name);
+                    assertTrue(deadline <= now);
+                    assertTrue(deadline >= lastDeadline);
+                    lastDeadline = deadline;
+                }
+                for (long deadline : model.values()) assertTrue(deadline > now);
+
+                // The alarm went off, so it needs to be armed again if there are any timers left
+                earliestBefore = 0;
+            }
+
+            long earliest = getEarliest(model);
+            if (earliest != earliestBefore) expectedArmCount++;
+
+            assertEquals(model.size(), mTimers.getQueue().size());
+            assertEquals(earliest, mTimers.getQueue().getEarliestDeadline());
+            assertEquals(earliest, mAlarm.armedTime);
+            // The alarm is only re-armed when the earliest deadline changes
+            assertEquals(expectedArmCount, mAlarm.armCount);
+        }
+
+        // Every timer has the deadline it was last set to
+        for (Map.Entry<String, Long> entry : model.entrySet())
+            assertEquals((long) entry.getValue(), mTimers.getQueue().getDeadline(entry.getKey()));
+    }
+
+    //
+    // Helpers
+    //
+
+    private static long getEarliest(Map<String, Long> model) {
+        long earliest = 0;
+        for (long deadline : model.values()) {
+            if (earliest == 0 || deadline < earliest) earliest = deadline;
+        }
+        return earliest;
+    }
+
+    private static class FakeAlarm implements NamedTimers.Alarm {
+        long armedTime;
+        int armCount;
+
+        @Override
+        public void arm(long time) {
+            armedTime = time;
+            armCount++;
+        }
+
+        @Override
+        public void cancel() {
+            armedTime = 0;
+            armCount++;
+        }
+    }
+}
@@ -0,0 +1,370 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify.engine;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the TimerEngine with a fake clock, alarm and store backend. Besides the single transitions,
+ *  runs thousands of random sequences of transitions and checks that the engine's state, the
+ *  scheduled alarm and the saved state always agree, and that no transition writes the state more
+ *  than once.
+ */
+public class TimerEngineTest {
+    private static final long WORK_DURATION = 25 * 60000;
+    private static final long BREAK_DURATION = 5 * 60000;
+    private static final long SNOOZE_DURATION = 60000;
+
+    /**
+     * The difference between the Unix time and the elapsed realtime of the fake clock
+     */
+    private static final long BOOT_TIME = 1400000000000L;
+
+    private static final int SEQUENCE_COUNT = 5000;
+    private static final int SEQUENCE_LENGTH = 50;
+
+    private FakeClock mClock;
+    private FakeAlarmScheduler mAlarm;
+    private FakeBackend mBackend;
+    private TimerEngine mEngine;
+    /**
+     * The last snapshot returned by a skip or a reset, to undo
+     */
+    private TimerEngine.Snapshot mLastSnapshot;
+
+    @Before
+    public void setUp() {
+        mClock = new FakeClock();
+        mAlarm = new FakeAlarmScheduler();
+        mBackend = new FakeBackend();
+        mEngine = createEngine();
+        mLastSnapshot = null;
+    }
+
+    @Test
+    public void startRunsWorkTimer() {
+        mEngine.start();
+
+        assertEquals(TimerEngine.TIMER_STATE_RUNNING, mEngine.getTimerState());
+        assertEquals(TimerEngine.WORK_STATE_WORKING, mEngine.getWorkState());
+        assertEquals(WORK_DURATION, mEngine.getTotalTime());
+        assertEquals(WORK_DURATION, mEngine.getRemainingTime());
+        assertEquals(mClock.elapsed + WORK_DURATION, mAlarm.ringTime);
+        assertInvariants();
+    }
+
+    @Test
+    public void pauseAndResumeKeepRemainingTime() {
+        mEngine.start();
+        mClock.elapsed += 1000;
+        mEngine.pause();
+        mClock.elapsed += 5000; // Time passes while paused
+
+        assertEquals(WORK_DURATION - 1000, mEngine.getRemainingTime());
+        assertEquals(0, mAlarm.ringTime);
+
+        mEngine.start();
+        assertEquals(WORK_DURATION - 1000, mEngine.getRemainingTime());
+        assertEquals(WORK_DURATION, mEngine.getTotalTime());
+        assertInvariants();
+    }
+
+    @Test
+    public void restoreRunningTimer() {
+        mEngine.start();
+        mClock.elapsed += 1000;
+
+        TimerEngine restored = createEngine();
+        assertEquals(TimerEngine.RESTORED_RUNNING, restored.restore());
+        assertEquals(WORK_DURATION - 1000, restored.getRemainingTime());
+        assertEquals(WORK_DURATION, restored.getTotalTime());
+    }
+
+    @Test
+    public void restorePausedTimer() {
+        mEngine.skip();
+        mClock.elapsed += 1000;
+        mEngine.pause();
+
+        TimerEngine restored = createEngine();
+        assertEquals(TimerEngine.RESTORED_PAUSED, restored.restore());
+        assertEquals(TimerEngine.TIMER_STATE_PAUSED, restored.getTimerState());
+        assertEquals(TimerEngine.WORK_STATE_BREAKING, restored.getWorkState());
+        assertEquals(BREAK_DURATION - 1000, restored.getRemainingTime());
+    }
+
+    @Test
+    public void restoreAfterRingTime() {
+        mEngine.start();
+        mClock.elapsed += WORK_DURATION;
+
+        assertEquals(TimerEngine.RESTORED_RING_DUE, createEngine().restore());
+    }
+
+    @Test
+    public void restoreNothing() {
+        assertEquals(TimerEngine.RESTORED_NOTHING, mEngine.restore());
+
+        mEngine.start();
+        mEngine.reset(false);
+        assertEquals(TimerEngine.RESTORED_NOTHING, createEngine().restore());
+    }
+
+    @Test
+    public void undoSkipResumesPreviousInterval() {
+        mEngine.start();
+        mClock.elapsed += 1000;
+        TimerEngine.Snapshot snapshot = mEngine.skip();
+
+        assertEquals(TimerEngine.WORK_STATE_BREAKING, mEngine.getWorkState());
+        assertEquals(BREAK_DURATION, mEngine.getRemainingTime());
+
+        mEngine.undo(snapshot);
+        assertEquals(TimerEngine.WORK_STATE_WORKING, mEngine.getWorkState());
+        assertEquals(WORK_DURATION - 1000, mEngine.getRemainingTime());
+        assertInvariants();
+    }
+
+    @Test
+    public void undoCompleteResetStartsNextInterval() {
+        mEngine.start();
+        mClock.elapsed += WORK_DURATION;
+        TimerEngine.Snapshot snapshot = mEngine.reset(true);
+
+        assertEquals(TimerEngine.TIMER_STATE_STOPPED, mEngine.getTimerState());
+
+        mEngine.undo(snapshot);
+        assertEquals(TimerEngine.WORK_STATE_BREAKING, mEngine.getWorkState());
+        assertEquals(BREAK_DURATION, mEngine.getRemainingTime());
+        assertInvariants();
+    }
+
+    @Test
+    public void snoozeAndStartNextStateUseStoredWorkState() {
+        mEngine.skip(); // Now on a break
+        mClock.elapsed += BREAK_DURATION;
+
+        // A new instance, like after the app was killed while the alarm rang
+        TimerEngine other = createEngine();
+        other.snooze();
+        assertEquals(TimerEngine.WORK_STATE_BREAKING, other.getWorkState());
+        assertEquals(SNOOZE_DURATION, other.getTotalTime());
+
+        other = createEngine();
+        other.startNextState();
+        assertEquals(TimerEngine.WORK_STATE_WORKING, other.getWorkState());
+        assertEquals(WORK_DURATION, other.getTotalTime());
+    }
+
+    @Test
+    public void eachTransitionWritesOnce() {
+        mEngine.start();
+        assertEquals(1, mBackend.writeCount);
+        mEngine.pause();
+        assertEquals(2, mBackend.writeCount);
+        mEngine.start();
+        assertEquals(3, mBackend.writeCount);
+        mEngine.skip();
+        assertEquals(4, mBackend.writeCount);
+        mEngine.reset(false);
+        assertEquals(5, mBackend.writeCount);
+    }
+
+    @Test
+    public void unchangedTransitionsDontWrite() {
+        mEngine.start();
+        int writeCount = mBackend.writeCount;
+
+        // Restoring the running timer saves the same state again
+        createEngine().restore();
+        mEngine.reloadWorkState();
+        mEngine.restore();
+        assertEquals(writeCount, mBackend.writeCount);
+    }
+
+    @Test
+    public void randomTransitions() {
+        Random random = new Random(613);
+        for (int i = 0; i < SEQUENCE_COUNT; i++) {
+            setUp();
+            for (int j = 0; j < SEQUENCE_LENGTH; j++) {
+                // Let some time pass, but never past the ring time, since the alarm would ring
+                long remaining = mEngine.getRemainingTime();
+                if (remaining > 1) mClock.elapsed += random.nextInt((int) remaining - 1);
+
+                int writeCount = mBackend.writeCount;
+                doRandomTransition(random);
+                assertTrue(mBackend.writeCount - writeCount <= 1);
+                assertInvariants();
+            }
+        }
+    }
+
+    //
+    // Helpers
+    //
+
+    private TimerEngine createEngine() {
+        // A new store, like after the app was killed
+        TimerStateStore store = new TimerStateStore(mBackend);
+        return new TimerEngine(mClock, mAlarm, store, new TimerEngine.Durations() {
+            @Override
+            public long getWorkDuration() {
+                return WORK_DURATION;
+            }
+
+            @Override
+            public long getBreakDuration() {
+                return BREAK_DURATION;
+            }
+
+            @Override
+            public long getSnoozeDuration() {
+                return SNOOZE_DURATION;
+            }
+        });
+    }
+
+    private void doRandomTransition(Random random) {
+        switch (random.nextInt(8)) {
+            case 0:
+                mEngine.start();
+                break;
+            case 1:
+                mEngine.pause();
+                break;
+            case 2:
+                mEngine.snooze();
+                break;
+            case 3:
+                mEngine.startNextState();
+                break;
+            case 4:
+                mLastSnapshot = mEngine.skip();
+                break;
+            case 5:
+                mLastSnapshot = mEngine.reset(random.nextBoolean());
+                // A complete timer's alarm already rang, so it's not scheduled anymore
+                if (mLastSnapshot.totalTime == 0) mAlarm.cancel();
+                break;
+            case 6:
+                if (mLastSnapshot != null) mEngine.undo(mLastSnapshot);
+                break;
+            case 7:
+                // Simulate the app being killed and started again
+                mEngine = createEngine();
+                mEngine.restore();
+        }
+    }
+
+    /**
+     * Checks that the engine, the alarm and the store agree
+     */
+    private void assertInvariants() {
+        int timerState = mEngine.getTimerState();
+        long remaining = mEngine.getRemainingTime();
+        long total = mEngine.getTotalTime();
+
+        assertTrue("remaining " + remaining + " > total " + total, remaining <= total);
+        assertTrue(remaining >= 0);
+        TimerStateStore.State saved = mBackend.state;
+        assertEquals(saved.workState == 0 ? TimerEngine.WORK_STATE_WORKING : saved.workState,
+                mEngine.getWorkState());
+
+        switch (timerState) {
+            case TimerEngine.TIMER_STATE_RUNNING:
+                // The alarm is scheduled for when the timer will ring, and that's saved
+                assertEquals(mEngine.getRingTime(), mAlarm.ringTime);
+                assertEquals(mEngine.getWorkState(), mAlarm.workState);
+                assertEquals(mAlarm.ringTime + BOOT_TIME, saved.ringTime);
+                assertEquals(total, saved.totalTime);
+                assertEquals(0, saved.pausedTimeRemaining);
+                break;
+            case TimerEngine.TIMER_STATE_PAUSED:
+                assertEquals(0, mAlarm.ringTime);
+                assertEquals(0, saved.ringTime);
+                assertEquals(remaining, saved.pausedTimeRemaining);
+                assertEquals(total, saved.totalTime);
+                break;
+            default:
+                assertEquals(0, mAlarm.ringTime);
+                assertEquals(0, total);
+                assertEquals(0, saved.totalTime);
+                assertEquals(0, saved.pausedTimeRemaining);
+        }
+    }
+
+    private static class FakeClock implements Clock {
+        long elapsed = 100000;
+
+        @Override
+        public long elapsedRealtime() {
+            return elapsed;
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return BOOT_TIME + elapsed;
+        }
+    }
+
+    private static class FakeAlarmScheduler implements AlarmScheduler {
+        long ringTime;
+        int workState;
+
+        @Override
+        public void schedule(long ringTime, int workState) {
+            this.ringTime = ringTime;
+            this.workState = workState;
+        }
+
+        @Override
+        public void cancel() {
+            ringTime = 0;
+            workState = 0;
+        }
+    }
+
+    private static class FakeBackend implements TimerStateStore.Backend {
+        TimerStateStore.State state = new TimerStateStore.State();
+        int writeCount;
+
+        @Override
+        public TimerStateStore.State read() {
+            // A copy, like reading from the disk
+            TimerStateStore.State copy = new TimerStateStore.State();
+            copy.workState = state.workState;
+            copy.totalTime = state.totalTime;
+            copy.ringTime = state.ringTime;
+            copy.pausedTimeRemaining = state.pausedTimeRemaining;
+            return copy;
+        }
+
+        @Override
+        public void write(TimerStateStore.State state, int transition) {
+            this.state = state;
+            writeCount++;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify.engine;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static com.heightechllc.breakify.engine.MappedTimerStateFileTest.MemoryBackend;
+import static com.heightechllc.breakify.engine.MappedTimerStateFileTest.assertState;
+import static com.heightechllc.breakify.engine.MappedTimerStateFileTest.createState;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the TimerJournal, including killing each write at every byte offset
+ */
+public class TimerJournalTest {
+    /**
+     * Compact often, so compactions get killed too
+     */
+    private static final int COMPACT_AFTER = 3;
+
+    private File mFile;
+    private File mTempFile;
+    private MemoryBackend mFallback;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("timer_journal", null);
+        // Start without a journal, like after updating from a version that used the fallback
+        mFile.delete();
+        mTempFile = new File(mFile.getPath() + ".tmp");
+        mFallback = new MemoryBackend();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+        mTempFile.delete();
+    }
+
+    @Test
+    public void recoversWrites() {
+        TimerJournal journal = createJournal();
+        journal.write(createState(1, 1000, 2000, 0), TimerStore.TRANSITION_START);
+        journal.write(createState(1, 1000, 0, 500), TimerStore.TRANSITION_PAUSE);
+        journal.write(createState(2, 3000, 4000, 0), TimerStore.TRANSITION_SKIP);
+
+        assertState(createState(2, 3000, 4000, 0), createJournal().read());
+    }
+
+    @Test
+    public void migratesFromFallback() {
+        mFallback.state = createState(2, 1000, 0, 500);
+
+        assertState(createState(2, 1000, 0, 500), createJournal().read());
+
+        // The fallback is cleared, and the state is read from the journal from now on
+        assertState(new TimerStateStore.State(), mFallback.state);
+        assertState(createState(2, 1000, 0, 500), createJournal().read());
+        assertEquals(1, mFallback.writeCount);
+    }
+
+    @Test
+    public void emptyFallbackIsntWritten() {
+        assertState(new TimerStateStore.State(), createJournal().read());
+        assertEquals(0, mFallback.writeCount);
+    }
+
+    @Test
+    public void unchangedStateIsntWritten() throws IOException {
+        TimerJournal journal = createJournal();
+        journal.write(createState(1, 1000, 2000, 0), TimerStore.TRANSITION_START);
+        long length = mFile.length();
+
+        journal.write(createState(1, 1000, 2000, 0), TimerStore.TRANSITION_RESTORE);
+        assertEquals(length, mFile.length());
+    }
+
+    @Test
+    public void compactionBoundsTheJournal() throws IOException {
+        TimerJournal journal = createJournal();
+        Random random = new Random(613);
+        long maxLength = 0;
+        for (int i = 0; i < 1000; i++) {
+            journal.write(createRandomState(random), TimerStore.TRANSITION_START);
+            maxLength = Math.max(maxLength, mFile.length());
+        }
+
+        // The header, the snapshot and COMPACT_AFTER entries of at most 4 fields each
+        assertTrue("length " + maxLength, maxLength <= 8 + 35 * (COMPACT_AFTER + 1));
+        assertTrue(!mTempFile.exists());
+    }
+
+    @Test
+    public void stopsAtCorruptEntry() throws IOException {
+        TimerJournal journal = createJournal();
+        journal.write(createState(1, 1000, 2000, 0), TimerStore.TRANSITION_START);
+        int length = (int) mFile.length();
+        journal.write(createState(1, 1000, 0, 500), TimerStore.TRANSITION_PAUSE);
+        journal.write(createState(2, 3000, 4000, 0), TimerStore.TRANSITION_SKIP);
+
+        // Flip a bit in the second entry
+        byte[] data = readFile(mFile);
+        data[length + 4] ^= 1;
+        writeFile(mFile, data);
+
+        assertState(createState(1, 1000, 2000, 0), createJournal().read());
+        // The corrupt tail is cut off
+        assertEquals(length, mFile.length());
+    }
+
+    @Test
+    public void recoversFromWriteKilledAtEveryOffset() throws IOException {
+        TimerJournal journal = createJournal();
+        Random random = new Random(613);
+        TimerStateStore.State committed = journal.read();
+
+        for (int i = 0; i < 4 * COMPACT_AFTER; i++) {
+            byte[] before = readFile(mFile);
+            TimerStateStore.State next = createRandomState(random);
+            journal.write(next, TimerStore.TRANSITION_START);
+            byte[] after = readFile(mFile);
+
+            // The write either appended an entry, or compacted into the temporary file, which
+            //  then replaced the journal
+            boolean appended = after.length > before.length &&
+                    Arrays.equals(before, Arrays.copyOf(after, before.length));
+            byte[] written = appended ? Arrays.copyOfRange(after, before.length, after.length) :
+                    after;
+
+            // Kill the write after every byte. A compaction can also be killed after the whole
+            //  temporary file was written, before it replaced the journal.
+            int maxCut = appended ? written.length - 1 : written.length;
+            for (int cut = 0; cut <= maxCut; cut++) {
+                if (appended) {
+                    writeFile(mFile, Arrays.copyOf(after, before.length + cut));
+                } else {
+                    writeFile(mFile, before);
+                    writeFile(mTempFile, Arrays.copyOf(written, cut));
+                }
+
+                // Restoring gets the state before the killed write
+                TimerJournal recovered = createJournal();
+                assertState(committed, recovered.read());
+
+                // And the journal still works after that
+                TimerStateStore.State other = createRandomState(random);
+                recovered.write(other, TimerStore.TRANSITION_RESUME);
+                assertState(other, createJournal().read());
+            }
+
+            // Put back the journal as it was after the write, and reopen it, since the recovered
+            //  journals may have replaced the file
+            writeFile(mFile, after);
+            mTempFile.delete();
+            journal = createJournal();
+            assertState(next, journal.read());
+            committed = next;
+        }
+    }
+
+    //
+    // Helpers
+    //
+
+    private TimerJournal createJournal() {
+        return new TimerJournal(mFile, mFallback, COMPACT_AFTER);
+    }
+
+    private static TimerStateStore.State createRandomState(Random random) {
+        // Change a random set of fields, so entries have different sizes
+        return createState(
+                1 + random.nextInt(2),
+                random.nextBoolean() ? 0 : 1 + random.nextInt(100000),
+                random.nextBoolean() ? 0 : Math.abs(random.nextLong()),
+                random.nextBoolean() ? 0 : 1 + random.nextInt(100000));
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int read = 0;
+            while (read < data.length) read += in.read(data, read, data.length - read);
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+
+    private static void writeFile(File file, byte[] data) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify.engine;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that the TimerStateStore coalesces the changes into a single write per commit
+ */
+public class TimerStateStoreTest {
+    private CountingBackend mBackend;
+    private TimerStateStore mStore;
+
+    @Before
+    public void setUp() {
+        mBackend = new CountingBackend();
+        mStore = new TimerStateStore(mBackend);
+    }
+
+    @Test
+    public void coalescesChanges() {
+        mStore.setWorkState(TimerEngine.WORK_STATE_BREAKING);
+        mStore.setTotalTime(1000);
+        mStore.setRingTime(2000);
+        mStore.setPausedTimeRemaining(500);
+        mStore.setPausedTimeRemaining(0);
+        assertEquals(0, mBackend.writeCount);
+
+        mStore.commit(TimerStore.TRANSITION_START);
+        assertEquals(1, mBackend.writeCount);
+        assertEquals(TimerEngine.WORK_STATE_BREAKING, mBackend.state.workState);
+        assertEquals(1000, mBackend.state.totalTime);
+        assertEquals(2000, mBackend.state.ringTime);
+        assertEquals(0, mBackend.state.pausedTimeRemaining);
+    }
+
+    @Test
+    public void gettersSeePendingChanges() {
+        mStore.setTotalTime(1000);
+        assertEquals(1000, mStore.getTotalTime());
+        assertEquals(0, mBackend.state.totalTime);
+    }
+
+    @Test
+    public void commitWithoutChangesDoesntWrite() {
+        mStore.commit(TimerStore.TRANSITION_START);
+        assertEquals(0, mBackend.writeCount);
+
+        // Setting the values that are already saved isn't a change
+        mStore.setWorkState(TimerEngine.WORK_STATE_WORKING);
+        mStore.setTotalTime(0);
+        mStore.commit(TimerStore.TRANSITION_START);
+        assertEquals(0, mBackend.writeCount);
+    }
+
+    @Test
+    public void keepsFieldsChangedByOthers() {
+        mStore.setTotalTime(1000);
+
+        // Another component changes a different field before the commit
+        TimerStateStore other = new TimerStateStore(mBackend);
+        other.setRingTime(2000);
+        other.commit(TimerStore.TRANSITION_START);
+
+        mStore.commit(TimerStore.TRANSITION_START);
+        assertEquals(2, mBackend.writeCount);
+        assertEquals(1000, mBackend.state.totalTime);
+        assertEquals(2000, mBackend.state.ringTime);
+    }
+
+    //
+    // Helpers
+    //
+
+    private static class CountingBackend implements TimerStateStore.Backend {
+        TimerStateStore.State state = new TimerStateStore.State();
+        int writeCount;
+
+        @Override
+        public TimerStateStore.State read() {
+            TimerStateStore.State copy = new TimerStateStore.State();
+            copy.workState = state.workState;
+            copy.totalTime = state.totalTime;
+            copy.ringTime = state.ringTime;
+            copy.pausedTimeRemaining = state.pausedTimeRemaining;
+            return copy;
+        }
+
+        @Override
+        public void write(TimerStateStore.State state, int transition) {
+            this.state = state;
+            writeCount++;
+        }
+    }
+}
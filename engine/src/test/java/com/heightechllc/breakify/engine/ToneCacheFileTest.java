@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2014  Shlomo Zalman Heigh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.heightechllc.breakify.engine;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that ToneCacheFile reads back what it wrote, and rejects caches that aren't valid
+ */
+public class ToneCacheFileTest {
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("tone_cache", null);
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        short[] samples = {0, 1, -1, Short.MAX_VALUE, Short.MIN_VALUE, 1234};
+        ToneCacheFile.write(mFile, new ToneCacheFile.Tone("content://media/1", 42, 44100, samples));
+
+        ToneCacheFile.Tone tone = ToneCacheFile.read(mFile);
+        assertEquals("content://media/1", tone.key);
+        assertEquals(42, tone.fingerprint);
+        assertEquals(44100, tone.sampleRate);
+        assertEquals(samples.length, tone.samples.length);
+        for (int i = 0; i < samples.length; i++) assertEquals(samples[i], tone.samples[i]);
+
+        // The temporary file was renamed
+        assertTrue(!new File(mFile.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void missingFileIsNull() {
+        assertNull(ToneCacheFile.read(mFile));
+    }
+
+    @Test
+    public void corruptSampleIsRejected() throws IOException {
+        ToneCacheFile.write(mFile, new ToneCacheFile.Tone("tone", 1, 8000, new short[100]));
+
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.seek(file.length() - 10);
+        file.write(7);
+        file.close();
+
+        assertNull(ToneCacheFile.read(mFile));
+    }
+
+    @Test
+    public void truncatedFileIsRejected() throws IOException {
+        ToneCacheFile.write(mFile, new ToneCacheFile.Tone("tone", 1, 8000, new short[100]));
+
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.setLength(file.length() - 2);
+        file.close();
+
+        assertNull(ToneCacheFile.read(mFile));
+    }
+}